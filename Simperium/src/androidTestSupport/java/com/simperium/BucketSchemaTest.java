@@ -2,6 +2,7 @@ package com.simperium;
 
 import com.simperium.client.BucketSchema;
 import com.simperium.client.BucketSchema.Index;
+import com.simperium.client.IndexColumns;
 import com.simperium.models.Note;
 
 import junit.framework.TestCase;
@@ -56,6 +57,45 @@ public class BucketSchemaTest extends TestCase {
 
     }
 
+    public void testIndexColumns() {
+        assertFalse(noteSchema.hasIndexColumns());
+
+        noteSchema.addIndexColumn("title", IndexColumns.Type.TEXT);
+        noteSchema.addIndexColumn("modified", IndexColumns.Type.INTEGER)
+            .addCompositeIndex("modified", "title");
+
+        IndexColumns columns = noteSchema.getIndexColumns();
+        assertTrue(noteSchema.hasIndexColumns());
+        assertTrue(columns.has("title"));
+        assertFalse(columns.has("preview"));
+        assertEquals(IndexColumns.Type.INTEGER, columns.getType("modified"));
+        assertEquals(1, columns.getCompositeIndexes().size());
+
+        try {
+            columns.addCompositeIndex("title", "preview");
+            fail("Composite index of an undeclared column");
+        } catch (IllegalArgumentException e) {
+            // preview is not a column
+        }
+    }
+
+    public void testIndexFingerprint() {
+        String fingerprint = noteSchema.getIndexFingerprint();
+        assertEquals(fingerprint, new Note.Schema().getIndexFingerprint());
+
+        noteSchema.addIndex(new BucketSchema.Indexer<Note>() {
+            @Override
+            public List<Index> index(Note note) {
+                return new ArrayList<Index>();
+            }
+        });
+        assertFalse(fingerprint.equals(noteSchema.getIndexFingerprint()));
+
+        fingerprint = noteSchema.getIndexFingerprint();
+        noteSchema.addIndexColumn("title", IndexColumns.Type.TEXT);
+        assertFalse(fingerprint.equals(noteSchema.getIndexFingerprint()));
+    }
+
     protected static JSONObject makeProperties(){
         return new JSONObject();
     }
@@ -12,6 +12,9 @@ import com.simperium.util.RemoteChangesUtil;
 
 import org.json.JSONObject;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static com.simperium.TestHelpers.makeUser;
 
 import junit.framework.TestCase;
@@ -143,6 +146,48 @@ public class BucketTest extends TestCase {
 
     }
 
+    public void testApplyRemoteChangesInBatch()
+    throws Exception {
+
+        final Note note = mBucket.newObject();
+        note.setContent("Line 1\n");
+        note.save();
+
+        JSONObject external = new JSONObject(note.getDiffableValue().toString());
+        external.put("content", "Line 1\nLine 2\n");
+        final RemoteChange change = RemoteChangesUtil.buildRemoteChange(note, external);
+
+        final List<String> notified = new ArrayList<String>();
+        mBucket.addOnNetworkChangeListener(new Bucket.OnNetworkChangeListener<Note>() {
+            @Override
+            public void onNetworkChange(Bucket<Note> bucket, Bucket.ChangeType type, String key) {
+                notified.add(key);
+            }
+        });
+
+        mBucket.setChangeVersion("cv0");
+        mBucket.applyRemoteChanges(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mBucket.applyRemoteChange(change);
+                } catch (RemoteChangeInvalidException e) {
+                    throw new RuntimeException(e);
+                }
+                mBucket.setChangeVersion("cv2");
+
+                // nothing is written or announced until the batch is done
+                assertEquals("cv0", mGhostStore.getChangeVersion(mBucket));
+                assertTrue(notified.isEmpty());
+            }
+        });
+
+        assertEquals("cv2", mBucket.getChangeVersion());
+        assertEquals(1, notified.size());
+        assertEquals(note.getSimperiumKey(), notified.get(0));
+        assertEquals("Line 1\nLine 2\n", note.getContent());
+    }
+
     public void testMergeLocalChanges()
     throws Exception {
 
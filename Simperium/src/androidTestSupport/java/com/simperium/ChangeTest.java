@@ -2,7 +2,9 @@ package com.simperium;
 
 import com.google.gson.JsonElement;
 import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
 import com.simperium.client.Change;
+import com.simperium.client.ChangeEmptyException;
 import com.simperium.client.Bucket;
 import com.simperium.client.Syncable;
 import com.simperium.client.Ghost;
@@ -15,6 +17,8 @@ import junit.framework.TestCase;
 
 import org.json.JSONObject;
 
+import java.io.StringWriter;
+
 public class ChangeTest extends TestCase {
 
     private Bucket<Note> mBucket;
@@ -71,6 +75,53 @@ public class ChangeTest extends TestCase {
         assertEquals(mNote.getDiffableValue().toString(), change.toJSONObject(object, ghost).getJSONObject("d").toString());
     }
 
+    public void testWriteMatchesJSONObject()
+    throws Exception {
+        Change change = new Change(Change.OPERATION_MODIFY, mBucket.getName(), mNote.getSimperiumKey());
+        change.setSendFullObject(true);
+
+        Ghost ghost = mBucket.getGhost(mNote.getSimperiumKey());
+        JSONObject object = mNote.getDiffableValue();
+        StringWriter written = new StringWriter();
+        change.write(new JsonWriter(written), object, ghost);
+
+        JsonParser parser = new JsonParser();
+        assertEquals(parser.parse(change.toJSONObject(object, ghost).toString()), parser.parse(written.toString()));
+    }
+
+    public void testWriteRemoveOperation()
+    throws Exception {
+        mNote.save();
+
+        Change change = new Change(Change.OPERATION_REMOVE, mBucket.getName(), mNote.getSimperiumKey());
+        Ghost ghost = mBucket.getGhost(mNote.getSimperiumKey());
+        StringWriter written = new StringWriter();
+        change.write(new JsonWriter(written), mNote.getDiffableValue(), ghost);
+
+        JSONObject json = new JSONObject(written.toString());
+        assertEquals(mNote.getSimperiumKey(), json.getString("id"));
+        assertEquals(Change.OPERATION_REMOVE, json.getString("o"));
+        assertFalse(json.has("v"));
+        assertFalse(json.has("sv"));
+    }
+
+    public void testWriteEmptyChange()
+    throws Exception {
+        mNote.save();
+
+        Change change = new Change(Change.OPERATION_MODIFY, mBucket.getName(), mNote.getSimperiumKey());
+        Ghost ghost = mBucket.getGhost(mNote.getSimperiumKey());
+        StringWriter written = new StringWriter();
+
+        try {
+            change.write(new JsonWriter(written), mNote.getDiffableValue(), ghost);
+            fail("Empty change was written");
+        } catch (ChangeEmptyException e) {
+            // nothing to send
+        }
+        assertEquals(0, written.getBuffer().length());
+    }
+
     public static void assertValidChangeObject(Syncable object, Ghost ghost, Change change)
     throws Exception {
 
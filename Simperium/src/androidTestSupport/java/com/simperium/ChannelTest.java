@@ -3,10 +3,14 @@ package com.simperium;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonParser;
 import com.simperium.client.Bucket;
+import com.simperium.client.BucketSchema;
 import com.simperium.client.Change;
 import com.simperium.client.Channel;
+import com.simperium.client.GhostMissingException;
 import com.simperium.client.ChannelProvider;
+import com.simperium.client.IndexCheckpoint;
 import com.simperium.client.RemoteChange;
+import com.simperium.client.RetryScheduler;
 import com.simperium.client.User;
 import com.simperium.models.Note;
 import com.simperium.test.MockBucket;
@@ -14,15 +18,24 @@ import com.simperium.test.MockChannelListener;
 import com.simperium.test.MockChannelSerializer;
 import com.simperium.test.MockExecutor;
 import com.simperium.util.ChannelUtil;
+import com.simperium.util.JSONDiff;
 import com.simperium.util.RemoteChangesUtil;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static android.test.MoreAsserts.assertMatchesRegex;
 import static com.simperium.TestHelpers.Flag;
@@ -348,6 +361,120 @@ public class ChannelTest extends BaseSimperiumTest {
 
     }
 
+    /**
+     * When the transaction storing remote changes fails, and so does storing the change on its
+     * own, the acknowledged change stays pending and the changes are applied again when the
+     * processor restarts.
+     */
+    public void testKeepPendingChangeWhenRemoteChangesFail()
+    throws Exception {
+
+        startWithEmptyIndex();
+        clearMessages();
+
+        Note note = mBucket.newObject();
+        note.setTitle("Hola mundo");
+        note.save();
+
+        Channel.MessageEvent event = waitForMessage();
+
+        // the batch and then the change on its own
+        final AtomicInteger failures = new AtomicInteger();
+        mBucket.setRemoteChangeListener(new MockBucket.RemoteChangeListener() {
+            @Override
+            public void onApplyRemoteChange(RemoteChange change) {
+            }
+
+            @Override
+            public void onAcknowledgeRemoteChange(RemoteChange change) {
+                if (failures.getAndIncrement() < 2) {
+                    throw new IllegalStateException("Storage failed");
+                }
+            }
+        });
+
+        mChannel.receiveMessage(String.format("c:%s", RemoteChangesUtil.acknowledgeChange(event)));
+
+        waitUntil(new Flag() {
+            @Override
+            public boolean isComplete() {
+                return failures.get() == 2;
+            }
+        }, "Acknowledgement was not applied");
+        waitFor(100);
+
+        assertEquals(0, mChannelSerializer.ackCount);
+
+        // restart the processor with an empty message
+        mChannel.receiveMessage("c:[]");
+
+        waitUntil(new Flag() {
+            @Override
+            public boolean isComplete() {
+                return mChannelSerializer.ackCount == 1;
+            }
+        }, "Change was not acknowledged after restarting");
+    }
+
+    /**
+     * Local queue listeners are told which keys gained unsynced changes and which keys were
+     * synced. Listeners of the whole set get a copy of the set maintained from those deltas.
+     */
+    public void testNotifyLocalQueueDeltas()
+    throws Exception {
+
+        final Set<String> added = new HashSet<String>();
+        final Set<String> removed = new HashSet<String>();
+        final Set<String> unsynced = new HashSet<String>();
+        final List<Set<String>> reported = new ArrayList<Set<String>>();
+
+        mBucket.addOnLocalQueueDeltaListener(new Bucket.OnLocalQueueDeltaListener<Note>() {
+            @Override
+            public void onLocalQueueDelta(Bucket<Note> bucket, Set<String> addedKeys, Set<String> removedKeys) {
+                synchronized(added) {
+                    added.addAll(addedKeys);
+                    removed.addAll(removedKeys);
+                }
+            }
+        });
+        mBucket.addOnLocalQueueChangeListener(new Bucket.OnLocalQueueChangeListener<Note>() {
+            @Override
+            public void onLocalQueueChange(Bucket<Note> bucket, Set<String> queuedObjects) {
+                synchronized(unsynced) {
+                    unsynced.clear();
+                    unsynced.addAll(queuedObjects);
+                    reported.add(queuedObjects);
+                }
+            }
+        });
+
+        startWithEmptyIndex();
+        clearMessages();
+        mListener.autoAcknowledge = true;
+
+        final Note note = mBucket.newObject();
+        note.setTitle("Hola mundo");
+        note.save();
+
+        waitUntil(new Flag() {
+            @Override
+            public boolean isComplete() {
+                synchronized(added) {
+                    if (!removed.contains(note.getSimperiumKey())) {
+                        return false;
+                    }
+                }
+                synchronized(unsynced) {
+                    return unsynced.isEmpty();
+                }
+            }
+        }, "Synced key was not removed");
+
+        assertTrue(added.contains(note.getSimperiumKey()));
+        // every listener call got its own copy of the set
+        assertTrue(reported.get(0).contains(note.getSimperiumKey()));
+    }
+
     /**
      * When a channel is notified of a connection and started it should correctly identify
      * itself as started and notify its listener.
@@ -425,6 +552,110 @@ public class ChannelTest extends BaseSimperiumTest {
         assertEquals(elementExpected, elementActual);
     }
 
+    /**
+     * When started with the checkpoint of an interrupted index download a Channel should
+     * continue the download from the checkpoint's mark.
+     */
+    public void testInitMessageResumesIndexCheckpoint() throws Exception {
+        mBucket.setIndexCheckpoint(new IndexCheckpoint("page-2", "old-cv"));
+
+        start();
+
+        JSONObject init = new JSONObject(mListener.lastMessage.toString().replace("init:", ""));
+        assertEquals("i::page-2::50", init.getString("cmd"));
+    }
+
+    /**
+     * Once every entity of an index page is stored the mark of the next page is saved, the
+     * checkpoint is removed when the index is complete.
+     */
+    public void testCheckpointStoredIndexPages() throws Exception {
+        start();
+
+        mListener.indexData.put("first.1", "{\"data\":{\"title\":\"first\"}}");
+        sendMessage("i:{\"current\":\"mock-cv\",\"index\":[{\"id\":\"first\",\"v\":1}],\"mark\":\"page-2\"}");
+
+        waitUntil(new Flag() {
+            @Override
+            public boolean isComplete() {
+                return mBucket.getIndexCheckpoint() != null;
+            }
+        }, "Index page never checkpointed", 5000);
+
+        IndexCheckpoint checkpoint = mBucket.getIndexCheckpoint();
+        assertEquals("page-2", checkpoint.getMark());
+        assertEquals("mock-cv", checkpoint.getChangeVersion());
+
+        sendMessage("i:{\"current\":\"mock-cv\",\"index\":[]}");
+        waitForIndex();
+
+        assertNull(mBucket.getIndexCheckpoint());
+        assertEquals("mock-cv", mBucket.getChangeVersion());
+    }
+
+    /**
+     * A resumed index download completes with the change version it originally started with so
+     * changes made while it was interrupted are requested afterwards.
+     */
+    public void testResumedIndexKeepsOriginalChangeVersion() throws Exception {
+        mBucket.setIndexCheckpoint(new IndexCheckpoint("page-2", "old-cv"));
+
+        start();
+        sendMessage("i:{\"current\":\"new-cv\",\"index\":[]}");
+        waitForIndex();
+
+        assertEquals("old-cv", mBucket.getChangeVersion());
+        assertNull(mBucket.getIndexCheckpoint());
+    }
+
+    /**
+     * An object that fails to store keeps the index from completing. The download is resumed
+     * from its checkpoint and once the resumes run out the index completes and the object is
+     * requested on its own.
+     */
+    public void testResumeIndexWithObjectsThatFailToStore() throws Exception {
+        final AtomicInteger failures = new AtomicInteger();
+        mBucket.getSchema().addIndex(new BucketSchema.Indexer<Note>() {
+            @Override
+            public List<BucketSchema.Index> index(Note note) {
+                // fails for the first download and every resume
+                if (failures.getAndIncrement() <= Channel.INDEX_RESUME_LIMIT) {
+                    throw new IllegalStateException("Indexer failed");
+                }
+                return new ArrayList<BucketSchema.Index>();
+            }
+        });
+        mChannel.setRetryScheduler(new RetryScheduler(Executors.newSingleThreadScheduledExecutor(), new Random()) {
+            @Override
+            public ScheduledFuture<?> schedule(Runnable runnable, long delay) {
+                return super.schedule(runnable, 0);
+            }
+        });
+        mListener.indexData.put("broken.1", "{\"data\":{\"title\":\"broken\"}}");
+        String index = "i:{\"current\":\"mock-cv\",\"index\":[{\"id\":\"broken\",\"v\":1}]}";
+
+        start();
+        sendMessage(index);
+        for (int i = 1; i <= Channel.INDEX_RESUME_LIMIT; i++) {
+            final int resumes = i;
+            waitUntil(new Flag() {
+                @Override
+                public boolean isComplete() {
+                    return countMessages("i:") == resumes;
+                }
+            }, "Index was never resumed", 5000);
+            assertFalse("Index completed without the failed object", mChannel.haveCompleteIndex());
+            sendMessage(index);
+        }
+
+        waitForIndex();
+        assertEquals("mock-cv", mBucket.getChangeVersion());
+        assertEquals(Channel.INDEX_RESUME_LIMIT, countMessages("i:"));
+        // requested once per download and once more on its own
+        assertEquals(Channel.INDEX_RESUME_LIMIT + 2, countMessages("e:broken.1"));
+        assertEquals("broken", mBucket.get("broken").getTitle());
+    }
+
     /**
      * Once a channel has an index it should send `c` messages when syncing objects
      */
@@ -570,6 +801,78 @@ public class ChannelTest extends BaseSimperiumTest {
 
     }
 
+    /**
+     * Entity requests during an index download are pipelined. The channel keeps a window of
+     * e: requests outstanding and asks for the next index page once every entity of the current
+     * page has been requested.
+     */
+    public void testPipelineIndexEntityRequests()
+    throws Exception {
+
+        start();
+        clearMessages();
+
+        JSONObject index = new JSONObject();
+        JSONArray versions = new JSONArray();
+        for (int i = 0; i < 10; i++) {
+            JSONObject version = new JSONObject();
+            version.put("id", "pipelined" + i);
+            version.put("v", 1);
+            versions.put(version);
+        }
+        index.put("current", "mock-cv");
+        index.put("index", versions);
+        index.put("mark", "next-page");
+
+        sendMessage(String.format("i:%s", index));
+
+        // the initial window of requests is sent without waiting for responses
+        assertEquals(4, countMessages("e:"));
+        assertEquals(0, countMessages("i:"));
+
+        // each response frees up room in the window, which grows once it has been filled
+        for (int i = 0; i < 4; i++) {
+            JSONObject data = new JSONObject();
+            data.put("title", "pipelined" + i);
+            ChannelUtil.sendObject(mChannel, "pipelined" + i, 1, data);
+        }
+
+        // every entity has been requested so the next page is requested early
+        assertEquals(10, countMessages("e:"));
+        assertEquals(1, countMessages("i:"));
+        assertEquals("i::next-page::50", mListener.lastMessage.toString());
+        assertFalse(mChannel.haveCompleteIndex());
+
+    }
+
+    /**
+     * When the index is downloaded again only entities with a different version than the stored
+     * ghost are requested.
+     */
+    public void testSkipCurrentEntitiesWhenReindexing()
+    throws Exception {
+
+        Map<String,String> objects = new HashMap<String,String>();
+        objects.put("current.1", "{\"data\":{\"title\":\"current\"}}");
+        objects.put("stale.1", "{\"data\":{\"title\":\"stale\"}}");
+
+        startWithIndex(objects);
+        clearMessages();
+
+        JSONObject index = new JSONObject();
+        JSONArray versions = new JSONArray();
+        versions.put(new JSONObject("{\"id\":\"current\",\"v\":1}"));
+        versions.put(new JSONObject("{\"id\":\"stale\",\"v\":2}"));
+        index.put("current", "reset-cv");
+        index.put("index", versions);
+
+        sendMessage(String.format("i:%s", index));
+
+        assertEquals(1, countMessages("e:"));
+        assertEquals("e:stale.2", mListener.lastMessage.toString());
+
+    }
+
     /**
      * If we receive a remote change for an object version we don't have,
      * request the entire object.
@@ -612,6 +915,122 @@ public class ChannelTest extends BaseSimperiumTest {
     }
 
 
+    /**
+     * Object requests that haven't been answered are sent again after reconnecting
+     */
+    public void testResendObjectRequestAfterReconnecting()
+    throws Exception {
+
+        startWithEmptyIndex();
+
+        JSONObject diff = new JSONObject("{\"title\":{\"o\":\"r\",\"v\":\"My hovercraft is full of eels\"}}");
+        ChannelUtil.sendModifyOperation(mChannel, "unknown-key", 5, diff);
+
+        waitFor(200);
+        assertEquals("e:unknown-key.6", mListener.lastMessage.toString());
+
+        // the connection drops before the object arrives
+        mChannel.onDisconnect();
+        mListener.initReceived = false;
+        clearMessages();
+        mChannel.onConnect();
+
+        assertTrue(mChannel.isStarted());
+        assertEquals(1, countMessages("e:"));
+        assertEquals("e:unknown-key.6", mListener.lastMessage.toString());
+
+        // once answered the request is not sent again
+        JSONObject data = new JSONObject();
+        data.put("title", "My hovercraft is full of eels");
+        ChannelUtil.sendObject(mChannel, "unknown-key", 6, data);
+        waitFor(200);
+
+        mChannel.onDisconnect();
+        mListener.initReceived = false;
+        clearMessages();
+        mChannel.onConnect();
+
+        assertEquals(0, countMessages("e:"));
+
+    }
+
+    /**
+     * When the outbox is full and drops requests the channel downloads a new index after
+     * reconnecting, which fetches the dropped objects again
+     */
+    public void testDownloadIndexAfterOutboxDropsRequests()
+    throws Exception {
+
+        startWithEmptyIndex();
+
+        // one more request than the outbox keeps
+        final int requests = 1001;
+        JSONObject diff = new JSONObject("{\"title\":{\"o\":\"r\",\"v\":\"My hovercraft is full of eels\"}}");
+        for (int i = 0; i < requests; i++) {
+            ChannelUtil.sendModifyOperation(mChannel, "unknown-key-" + i, 5, diff);
+        }
+        waitUntil(new Flag() {
+            @Override
+            public boolean isComplete() {
+                return countMessages("e:") == requests;
+            }
+        }, "Objects were not requested");
+
+        mChannel.onDisconnect();
+        mListener.initReceived = false;
+        clearMessages();
+        mChannel.onConnect();
+
+        assertEquals(1, countMessages("init:"));
+        assertTrue(mListener.messages.get(0).getMessage().contains("\"cmd\":\"i::::"));
+
+        // the next connection asks for changes again
+        mChannel.onDisconnect();
+        mListener.initReceived = false;
+        clearMessages();
+        mChannel.onConnect();
+
+        assertTrue(mListener.messages.get(0).getMessage().contains("\"cmd\":\"cv:"));
+
+    }
+
+    /**
+     * Revisions requested while disconnected are requested once the channel starts
+     */
+    public void testRequestRevisionsAfterConnecting()
+    throws Exception {
+
+        startWithEmptyIndex();
+
+        mChannel.onDisconnect();
+        mListener.initReceived = false;
+        clearMessages();
+
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        mChannel.getRevisions("mock", 3, 0, new Bucket.RevisionsRequestCallbacks<Note>() {
+            @Override
+            public void onComplete(Map<Integer, Note> revisions) {
+            }
+
+            @Override
+            public void onRevision(String key, int version, JSONObject object) {
+            }
+
+            @Override
+            public void onError(Throwable exception) {
+                errors.add(exception);
+            }
+        });
+
+        assertEquals(0, countMessages("e:"));
+
+        mChannel.onConnect();
+
+        assertEquals(2, countMessages("e:"));
+        assertTrue(errors.isEmpty());
+
+    }
+
     /**
      * Handle receiving an entity when index has already been downloaded
      */
@@ -754,6 +1173,162 @@ public class ChannelTest extends BaseSimperiumTest {
 
     }
 
+    /**
+     * Consecutive remote modifications of the same object are applied together and still merge
+     * with local modifications.
+     */
+    public void testApplyConsecutiveRemoteModifications()
+    throws Exception {
+
+        Map<String,String> map = new HashMap<String,String>();
+        map.put("object.5", "{\"data\":{\"tags\":[],\"deleted\":false,\"title\":\"Hello world\", \"content\":\"Line 1\\n\"}}");
+        startWithIndex(map);
+
+        final Note note = mBucket.get("object");
+        final List<String> modified = new ArrayList<String>();
+        mBucket.addOnNetworkChangeListener(new Bucket.OnNetworkChangeListener<Note>() {
+            @Override
+            public void onNetworkChange(Bucket<Note> bucket, Bucket.ChangeType type, String key) {
+                if (type == Bucket.ChangeType.MODIFY) {
+                    synchronized(modified) {
+                        modified.add(key);
+                    }
+                }
+            }
+        });
+
+        JSONObject v5 = new JSONObject(note.getDiffableValue().toString());
+        JSONObject v6 = new JSONObject(v5.toString());
+        v6.put("title", "Hola mundo");
+        JSONObject v7 = new JSONObject(v6.toString());
+        v7.put("content", "Line 1\nLine 2\n");
+
+        // modify the note locally
+        note.setContent("Line 1\nLine 3\n");
+
+        JSONArray changes = new JSONArray();
+        changes.put(RemoteChangesUtil.modifyOperation("object", 5, JSONDiff.diff(v5, v6).getJSONObject(JSONDiff.DIFF_VALUE_KEY)));
+        changes.put(RemoteChangesUtil.modifyOperation("object", 6, JSONDiff.diff(v6, v7).getJSONObject(JSONDiff.DIFF_VALUE_KEY)));
+        mChannel.receiveMessage(String.format("c:%s", changes));
+
+        waitUntil(new Flag() {
+            @Override
+            public boolean isComplete() {
+                synchronized(modified) {
+                    return modified.size() == 2;
+                }
+            }
+        }, "Remote changes were not applied");
+
+        assertEquals(7, mBucket.getGhost("object").getVersion().intValue());
+        assertEquals("Hola mundo", note.getTitle());
+        assertEquals("Line 1\nLine 2\nLine 3\n", note.getContent());
+    }
+
+    /**
+     * Modifications of an object that are interleaved with another object's are not grouped so
+     * the change version of the last change is the one stored.
+     */
+    public void testInterleavedRemoteModificationsKeepLastChangeVersion()
+    throws Exception {
+
+        Map<String,String> map = new HashMap<String,String>();
+        map.put("a.1", "{\"data\":{\"title\":\"A\"}}");
+        map.put("b.1", "{\"data\":{\"title\":\"B\"}}");
+        startWithIndex(map);
+
+        JSONArray changes = new JSONArray();
+        changes.put(RemoteChangesUtil.modifyOperation("a", 1, JSONDiff.diff(new JSONObject("{\"title\":\"A\"}"),
+            new JSONObject("{\"title\":\"A2\"}")).getJSONObject(JSONDiff.DIFF_VALUE_KEY)).put(RemoteChange.CHANGE_VERSION_KEY, "cv-1"));
+        changes.put(RemoteChangesUtil.modifyOperation("b", 1, JSONDiff.diff(new JSONObject("{\"title\":\"B\"}"),
+            new JSONObject("{\"title\":\"B2\"}")).getJSONObject(JSONDiff.DIFF_VALUE_KEY)).put(RemoteChange.CHANGE_VERSION_KEY, "cv-2"));
+        changes.put(RemoteChangesUtil.modifyOperation("a", 2, JSONDiff.diff(new JSONObject("{\"title\":\"A2\"}"),
+            new JSONObject("{\"title\":\"A3\"}")).getJSONObject(JSONDiff.DIFF_VALUE_KEY)).put(RemoteChange.CHANGE_VERSION_KEY, "cv-3"));
+        mChannel.receiveMessage(String.format("c:%s", changes));
+
+        waitUntil(new Flag() {
+            @Override
+            public boolean isComplete() {
+                try {
+                    return mBucket.getGhost("a").getVersion() == 3 && mBucket.getGhost("b").getVersion() == 2;
+                } catch (GhostMissingException e) {
+                    return false;
+                }
+            }
+        }, "Remote changes were not applied");
+
+        assertEquals("A3", mBucket.get("a").getTitle());
+        assertEquals("cv-3", mBucket.getChangeVersion());
+    }
+
+    /**
+     * A remote change that keeps failing to store stops the processor until it is started
+     * again. After failing REMOTE_CHANGE_ATTEMPTS times it is dropped, its object is requested
+     * in full and the changes after it are applied.
+     */
+    public void testDropRemoteChangeThatKeepsFailing()
+    throws Exception {
+
+        Map<String,String> map = new HashMap<String,String>();
+        map.put("a.1", "{\"data\":{\"title\":\"A\"}}");
+        map.put("b.1", "{\"data\":{\"title\":\"B\"}}");
+        startWithIndex(map);
+
+        final AtomicInteger attempts = new AtomicInteger();
+        mBucket.setRemoteChangeListener(new MockBucket.RemoteChangeListener() {
+            @Override
+            public void onApplyRemoteChange(RemoteChange change) {
+                if (change.getKey().equals("a")) {
+                    attempts.incrementAndGet();
+                    throw new IllegalStateException("Storage failed");
+                }
+            }
+
+            @Override
+            public void onAcknowledgeRemoteChange(RemoteChange change) {
+            }
+        });
+
+        JSONArray changes = new JSONArray();
+        changes.put(RemoteChangesUtil.modifyOperation("a", 1, JSONDiff.diff(new JSONObject("{\"title\":\"A\"}"),
+            new JSONObject("{\"title\":\"A2\"}")).getJSONObject(JSONDiff.DIFF_VALUE_KEY)));
+        changes.put(RemoteChangesUtil.modifyOperation("b", 1, JSONDiff.diff(new JSONObject("{\"title\":\"B\"}"),
+            new JSONObject("{\"title\":\"B2\"}")).getJSONObject(JSONDiff.DIFF_VALUE_KEY)));
+        clearMessages();
+        mChannel.receiveMessage(String.format("c:%s", changes));
+
+        for (int i = 1; i <= Channel.REMOTE_CHANGE_ATTEMPTS; i++) {
+            // each start tries the batch and then the change on its own
+            final int expected = i * 2;
+            waitUntil(new Flag() {
+                @Override
+                public boolean isComplete() {
+                    return attempts.get() == expected;
+                }
+            }, "Remote change was not tried again");
+            if (i < Channel.REMOTE_CHANGE_ATTEMPTS) {
+                waitFor(100);
+                assertEquals(1, mBucket.getGhost("b").getVersion().intValue());
+                mChannel.receiveMessage("c:[]");
+            }
+        }
+
+        waitUntil(new Flag() {
+            @Override
+            public boolean isComplete() {
+                try {
+                    return mBucket.getGhost("b").getVersion() == 2;
+                } catch (GhostMissingException e) {
+                    return false;
+                }
+            }
+        }, "Changes after the failing one were not applied");
+
+        assertEquals(Channel.REMOTE_CHANGE_ATTEMPTS * 2, attempts.get());
+        assertEquals("B2", mBucket.get("b").getTitle());
+        assertEquals(1, countMessages("e:a.2"));
+    }
+
     public void testDequeueEmptyChanges()
     throws Exception {
 
@@ -877,6 +1452,21 @@ public class ChannelTest extends BaseSimperiumTest {
 
     }
 
+    /**
+     * Number of sent messages that start with the given prefix
+     */
+    protected int countMessages(String prefix) {
+        int count = 0;
+        synchronized (mListener.messages) {
+            for (Channel.MessageEvent message : mListener.messages) {
+                if (message.getMessage().startsWith(prefix)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
     /**
      * Empties the list of received messages and sets last message to null
      */
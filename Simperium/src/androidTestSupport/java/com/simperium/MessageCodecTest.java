@@ -0,0 +1,37 @@
+package com.simperium;
+
+import com.simperium.util.MessageCodec;
+
+import junit.framework.TestCase;
+
+public class MessageCodecTest extends TestCase {
+
+    public void testParseChannel() {
+        assertEquals(0, MessageCodec.parseChannel("0:i:{}"));
+        assertEquals(12, MessageCodec.parseChannel("12:auth:user@example.com"));
+        assertEquals(MessageCodec.NO_CHANNEL, MessageCodec.parseChannel("h:5"));
+        assertEquals(MessageCodec.NO_CHANNEL, MessageCodec.parseChannel("12"));
+        assertEquals(MessageCodec.NO_CHANNEL, MessageCodec.parseChannel(":c:[]"));
+        assertEquals(MessageCodec.NO_CHANNEL, MessageCodec.parseChannel("1234567890123:c:[]"));
+    }
+
+    public void testMatchCommandInPlace() {
+        String message = "3:cv:?";
+        int offset = MessageCodec.skipPrefix(message, 0);
+
+        assertEquals(2, offset);
+        assertTrue(MessageCodec.isCommand(message, offset, "cv"));
+        assertFalse(MessageCodec.isCommand(message, offset, "c"));
+        assertEquals(5, MessageCodec.payloadOffset(message, offset, "cv"));
+        assertTrue(MessageCodec.isCommand("0:index", 2, "index"));
+        assertEquals(7, MessageCodec.payloadOffset("0:index", 2, "index"));
+    }
+
+    public void testEncodeIntoReusedBuilder() {
+        StringBuilder builder = new StringBuilder();
+
+        assertEquals("1:c:{}", MessageCodec.encode(builder, 1, "c:{}").toString());
+        assertEquals("22:h:1", MessageCodec.encode(builder, 22, "h:1").toString());
+    }
+
+}
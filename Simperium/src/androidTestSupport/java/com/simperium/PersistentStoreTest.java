@@ -1,12 +1,16 @@
 package com.simperium.android;
 
+import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
 
 import com.google.gson.JsonElement;
 import com.google.gson.JsonParser;
 import com.simperium.client.Bucket;
+import com.simperium.client.BucketSchema;
+import com.simperium.client.IndexColumns;
 import com.simperium.client.Query;
 import com.simperium.models.Note;
 import com.simperium.storage.StorageProvider.BucketStore;
@@ -20,9 +24,21 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 public class PersistentStoreTest extends PersistentStoreBaseTest {
 
+    public static final String TAG = "Simperium.Test";
+
+    static final int BENCHMARK_WRITES = 2000;
+    static final String BENCHMARK_DATA = "{\"title\":\"Benchmark\",\"tags\":[\"work\"],\"deleted\":false}";
+
     public void testDatabaseTables()
     throws Exception {
         assertTableExists(mDatabase, "objects");
@@ -398,6 +414,302 @@ public class PersistentStoreTest extends PersistentStoreBaseTest {
         cursor.close();
     }
 
+    public void testSaveOnlyRewritesChangedIndexes()
+    throws Exception {
+        Note note = mBucket.newObject("delta");
+        note.setTitle("Hola");
+        note.setContent("Hola mundo");
+        note.save();
+
+        Map<String,Long> rows = indexRows("delta");
+
+        // nothing changed so no index row is touched
+        note.save();
+        assertEquals(rows, indexRows("delta"));
+
+        note.setTitle("Hello");
+        note.save();
+
+        Map<String,Long> updated = indexRows("delta");
+        assertEquals(rows.keySet(), updated.keySet());
+        for (String name : rows.keySet()) {
+            if (name.equals("title")) {
+                assertFalse("Title index was not rewritten", rows.get(name).equals(updated.get(name)));
+            } else {
+                assertEquals(name, rows.get(name), updated.get(name));
+            }
+        }
+
+        Cursor cursor = mDatabase.query(PersistentStore.INDEXES_TABLE, new String[]{"value"}, "key=? AND name=?",
+            new String[]{"delta", "title"}, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals("Hello", cursor.getString(0));
+        cursor.close();
+
+        assertEquals(1, mBucket.query().where(new Query.FullTextMatch("mundo")).count());
+    }
+
+    public void testIndexColumns()
+    throws Exception {
+        String bucketName = "typed";
+        Note.Schema schema = new Note.Schema();
+        schema.addIndexColumn("position", IndexColumns.Type.INTEGER);
+        schema.addIndexColumn("title", IndexColumns.Type.TEXT)
+            .addCompositeIndex("title", "position");
+        BucketStore<Note> store = mStore.createStore(bucketName, schema);
+        Bucket<Note> bucket = new Bucket<Note>(MockExecutor.immediate(), bucketName, schema, mUser, store, mGhostStore);
+        store.prepare(bucket);
+        bucket.setChannel(new MockChannel(bucket));
+
+        for (int i = 1; i <= 3; i++) {
+            Note note = bucket.newObject("note-" + i);
+            note.put("position", String.valueOf(i));
+            note.setTitle(i == 2 ? "zzz" : "aaa");
+            note.setContent(i == 2 ? "zzz" : "aaa");
+            note.save();
+        }
+
+        // the column's affinity stores the string as an integer
+        Cursor cursor = mDatabase.rawQuery("SELECT typeof(position) FROM typed_columns WHERE object_key=?", new String[]{"note-3"});
+        cursor.moveToFirst();
+        assertEquals("integer", cursor.getString(0));
+        cursor.close();
+
+        Query<Note> query = new Query<Note>();
+        query.where("title", Query.ComparisonType.EQUAL_TO, "aaa");
+        query.order("position", Query.SortType.DESCENDING);
+        Bucket.ObjectCursor<Note> objects = store.search(query);
+        assertEquals(2, objects.getCount());
+        objects.moveToFirst();
+        assertEquals("note-3", objects.getSimperiumKey());
+        objects.close();
+
+        // conditions on columns and the indexes table together
+        query = new Query<Note>();
+        query.where("position", Query.ComparisonType.GREATER_THAN, 1);
+        query.where("preview", Query.ComparisonType.LIKE, "zzz%");
+        assertEquals(1, store.count(query));
+
+        bucket.getObject("note-2").delete();
+        cursor = mDatabase.rawQuery("SELECT count(*) FROM typed_columns", null);
+        cursor.moveToFirst();
+        assertEquals(2, cursor.getInt(0));
+        cursor.close();
+    }
+
+    public void testPrepareOnlyReindexesChangedSchema()
+    throws Exception {
+        Note note = mBucket.newObject("fingerprint");
+        note.setTitle("Hola");
+        note.save();
+
+        assertEquals(mSchema.getIndexFingerprint(), ((PersistentStore.DataStore<Note>) mNoteStore).getIndexFingerprint());
+
+        // same schema, nothing to reindex
+        Note.Schema schema = new Note.Schema();
+        BucketStore<Note> store = mStore.createStore(BUCKET_NAME, schema);
+        store.prepare(new Bucket<Note>(MockExecutor.immediate(), BUCKET_NAME, schema, mUser, store, mGhostStore));
+        assertEquals(0, reindexQueueCount());
+
+        // a new indexer reindexes every object
+        schema = new Note.Schema();
+        schema.addIndex(new BucketSchema.Indexer<Note>() {
+            @Override
+            public List<BucketSchema.Index> index(Note object) {
+                return Collections.singletonList(new BucketSchema.Index("length", object.getTitle().length()));
+            }
+        });
+        store = mStore.createStore(BUCKET_NAME, schema);
+        Bucket<Note> bucket = new Bucket<Note>(MockExecutor.immediate(), BUCKET_NAME, schema, mUser, store, mGhostStore);
+        ReindexProgress progress = new ReindexProgress();
+        bucket.addOnReindexProgressListener(progress);
+        store.prepare(bucket);
+        assertEquals(schema.getIndexFingerprint(), ((PersistentStore.DataStore<Note>) store).getIndexFingerprint());
+
+        assertTrue("Reindex did not finish", progress.done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, progress.indexed);
+        assertEquals(0, reindexQueueCount());
+        Cursor cursor = mDatabase.query(PersistentStore.INDEXES_TABLE, new String[]{"value"}, "key=? AND name=?",
+            new String[]{"fingerprint", "length"}, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testReindexStoredObjectsInChunks()
+    throws Exception {
+        int total = PersistentStore.REINDEX_CHUNK_SIZE * 2 + 50;
+        mDatabase.beginTransaction();
+        for (int i = 0; i < total; i++) {
+            ContentValues values = new ContentValues();
+            values.put("bucket", "chunks");
+            values.put("key", "note-" + i);
+            values.put("data", String.format(Locale.US, "{\"title\":\"Note %d\",\"content\":\"Line\"}", i));
+            mDatabase.insert(PersistentStore.OBJECTS_TABLE, null, values);
+        }
+        mDatabase.setTransactionSuccessful();
+        mDatabase.endTransaction();
+
+        Note.Schema schema = new Note.Schema();
+        BucketStore<Note> store = mStore.createStore("chunks", schema);
+        Bucket<Note> bucket = new Bucket<Note>(MockExecutor.immediate(), "chunks", schema, mUser, store, mGhostStore);
+        ReindexProgress progress = new ReindexProgress();
+        bucket.addOnReindexProgressListener(progress);
+        store.prepare(bucket);
+
+        assertTrue("Reindex did not finish", progress.done.await(10, TimeUnit.SECONDS));
+        assertEquals(total, progress.indexed);
+        assertTrue("Progress was reported " + progress.reports + " times", progress.reports >= 3);
+
+        Query<Note> query = new Query<Note>();
+        query.where("title", Query.ComparisonType.LIKE, "Note 1%");
+        // Note 1, 10-19, 100-199
+        assertEquals(111, store.count(query));
+    }
+
+    public void testReindexReplacesRunningReindex()
+    throws Exception {
+        int total = PersistentStore.REINDEX_CHUNK_SIZE * 4;
+        mDatabase.beginTransaction();
+        for (int i = 0; i < total; i++) {
+            ContentValues values = new ContentValues();
+            values.put("bucket", BUCKET_NAME);
+            values.put("key", "note-" + i);
+            values.put("data", String.format(Locale.US, "{\"title\":\"Note %d\",\"content\":\"Line\"}", i));
+            mDatabase.insert(PersistentStore.OBJECTS_TABLE, null, values);
+        }
+        mDatabase.setTransactionSuccessful();
+        mDatabase.endTransaction();
+
+        ReindexProgress progress = new ReindexProgress();
+        mBucket.addOnReindexProgressListener(progress);
+        PersistentStore.DataStore<Note> store = (PersistentStore.DataStore<Note>) mNoteStore;
+        store.reindex(mBucket);
+        // the first reindex is stopped before the second one queues the objects
+        store.reindex(mBucket);
+
+        assertTrue("Reindex did not finish", progress.done.await(10, TimeUnit.SECONDS));
+        assertEquals(0, reindexQueueCount());
+
+        Query<Note> query = new Query<Note>();
+        query.where("title", Query.ComparisonType.LIKE, "Note %");
+        assertEquals(total, mNoteStore.count(query));
+    }
+
+    private static class ReindexProgress implements Bucket.OnReindexProgressListener<Note> {
+
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile int indexed;
+        volatile int reports;
+
+        @Override
+        public void onReindexProgress(Bucket<Note> bucket, int indexed, int remaining) {
+            this.indexed = indexed;
+            reports++;
+            if (remaining == 0) done.countDown();
+        }
+
+    }
+
+    private int reindexQueueCount() {
+        Cursor cursor = mDatabase.rawQuery("SELECT count(*) FROM reindex_queue WHERE bucket=?", new String[]{ BUCKET_NAME });
+        cursor.moveToFirst();
+        int count = cursor.getInt(0);
+        cursor.close();
+        return count;
+    }
+
+    /**
+     * Row id of every index row of the object by index name
+     */
+    private Map<String,Long> indexRows(String key) {
+        Map<String,Long> rows = new HashMap<String,Long>();
+        Cursor cursor = mDatabase.query(PersistentStore.INDEXES_TABLE, new String[]{"name", "rowid"}, "key=?",
+            new String[]{key}, null, null, null);
+        while (cursor.moveToNext()) {
+            rows.put(cursor.getString(0), cursor.getLong(1));
+        }
+        cursor.close();
+        return rows;
+    }
+
+    public void testSaveObjectReplacesData()
+    throws Exception {
+        mStore.saveObject(BUCKET_NAME, "upsert", "{\"title\":\"one\"}");
+        mStore.saveObject(BUCKET_NAME, "upsert", "{\"title\":\"two\"}");
+
+        Cursor cursor = mStore.queryObject(BUCKET_NAME, "upsert");
+        assertEquals(1, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals("{\"title\":\"two\"}", cursor.getString(3));
+        cursor.close();
+    }
+
+    /**
+     * Compares the query then insert or update with ContentValues objects used to be saved with
+     * to the compiled upsert. Every object is written twice so both inserts and updates are
+     * measured, the writes are rolled back.
+     */
+    public void testBenchmarkObjectWrites() {
+        // warm up both paths
+        writeWithContentValues("warmup-values", BENCHMARK_WRITES / 10);
+        writeWithStatements("warmup-statements", BENCHMARK_WRITES / 10);
+
+        long valuesTime = writeWithContentValues("benchmark-values", BENCHMARK_WRITES);
+        long statementsTime = writeWithStatements("benchmark-statements", BENCHMARK_WRITES);
+
+        // timings vary too much between devices to fail on, only the throughput is reported
+        Log.d(TAG, String.format(Locale.US, "%d object writes: ContentValues %dms (%d writes/s), " +
+            "compiled statements %dms (%d writes/s)", BENCHMARK_WRITES * 2,
+            valuesTime / 1000000, writesPerSecond(BENCHMARK_WRITES * 2, valuesTime),
+            statementsTime / 1000000, writesPerSecond(BENCHMARK_WRITES * 2, statementsTime)));
+    }
+
+    private static long writesPerSecond(int writes, long nanos) {
+        return nanos > 0 ? writes * 1000000000L / nanos : 0;
+    }
+
+    private long writeWithContentValues(String bucketName, int count) {
+        mDatabase.beginTransaction();
+        try {
+            long start = System.nanoTime();
+            for (int pass = 0; pass < 2; pass++) {
+                for (int i = 0; i < count; i++) {
+                    String key = "object-" + i;
+                    ContentValues values = new ContentValues();
+                    values.put("bucket", bucketName);
+                    values.put("key", key);
+                    values.put("data", BENCHMARK_DATA);
+                    Cursor cursor = mStore.queryObject(bucketName, key);
+                    if (cursor.getCount() == 0) {
+                        mDatabase.insert(PersistentStore.OBJECTS_TABLE, null, values);
+                    } else {
+                        mDatabase.update(PersistentStore.OBJECTS_TABLE, values, "bucket=? AND key=?", new String[]{bucketName, key});
+                    }
+                    cursor.close();
+                }
+            }
+            return System.nanoTime() - start;
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    private long writeWithStatements(String bucketName, int count) {
+        mDatabase.beginTransaction();
+        try {
+            long start = System.nanoTime();
+            for (int pass = 0; pass < 2; pass++) {
+                for (int i = 0; i < count; i++) {
+                    mStore.saveObject(bucketName, "object-" + i, BENCHMARK_DATA);
+                }
+            }
+            return System.nanoTime() - start;
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
     public static void assertTableExists(SQLiteDatabase database, String tableName){
         Cursor cursor = database.query(MASTER_TABLE, new String[]{"name"}, "type=? AND name=?", new String[]{"table", tableName}, "name", null, null, null);
         assertEquals(String.format("Table %s does not exist in %s", tableName, database), 1, cursor.getCount());
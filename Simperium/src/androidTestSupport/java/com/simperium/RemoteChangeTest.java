@@ -6,6 +6,8 @@ import com.simperium.test.MockBucket;
 
 import com.simperium.models.Note;
 
+import com.simperium.util.StreamingJSON;
+
 import org.json.JSONObject;
 
 import junit.framework.TestCase;
@@ -78,4 +80,34 @@ public class RemoteChangeTest extends TestCase {
 
     }
 
-}
\ No newline at end of file
+    public void testReadRemoteModifyOperation()
+    throws Exception {
+        String changeString = "{\"cv\":\"mock-cv\",\"ccids\":[\"abc\"],\"ev\":2,\"sv\":1,\"id\":\"mock\",\"clientid\":\"mock-client\",\"o\":\"M\",\"v\":{\"title\":{\"o\":\"+\",\"v\":\"hola\"}}}";
+
+        RemoteChange change = RemoteChange.read(StreamingJSON.reader(changeString, 0));
+
+        assertTrue(change.isModifyOperation());
+        assertEquals("mock", change.getKey());
+        assertEquals(Integer.valueOf(1), change.getSourceVersion());
+        assertEquals(Integer.valueOf(2), change.getObjectVersion());
+        assertEquals("hola", change.getPatch().getJSONObject("title").getString("v"));
+    }
+
+    public void testReadRemoteError()
+    throws Exception {
+        String changeString = "{\"ccids\":[\"abc\"],\"id\":\"mock\",\"clientid\":\"mock-client\",\"error\":405}";
+
+        RemoteChange change = RemoteChange.read(StreamingJSON.reader(changeString, 0));
+
+        assertTrue(change.isError());
+        assertEquals(RemoteChange.ResponseCode.INVALID_VERSION, change.getResponseCode());
+    }
+
+    public void testReadIncompleteChange()
+    throws Exception {
+        String changeString = "{\"ccids\":[\"abc\"],\"id\":\"mock\",\"clientid\":\"mock-client\",\"ev\":1}";
+
+        assertNull(RemoteChange.read(StreamingJSON.reader(changeString, 0)));
+    }
+
+}
@@ -3,6 +3,7 @@ package com.simperium;
 import com.simperium.client.Bucket;
 import com.simperium.client.BucketObject;
 import com.simperium.client.BucketSchema.Index;
+import com.simperium.client.ChannelProvider;
 import com.simperium.client.User;
 import com.simperium.test.MockAuthResponseListener;
 import com.simperium.test.MockBucketStore;
@@ -56,6 +57,17 @@ public class SimperiumTest extends BaseSimperiumTest {
         assertEquals(object, other);
     }
 
+    public void testBuildBucketOnConnection()
+    throws Exception {
+        mSimperium.bucket("stuff");
+        assertEquals(ChannelProvider.DEFAULT_CONNECTION, mClient.channelProvider.lastConnection);
+
+        Bucket<BucketObject> bucket = mSimperium.bucket("bulk", new BucketObject.Schema("bulk"), "bulk-connection");
+
+        assertEquals("bulk-connection", mClient.channelProvider.lastConnection);
+        assertEquals("bulk", bucket.getName());
+    }
+
     public void testBuildBucketWithAlternateStorage()
     throws Exception {
         BucketObject.Schema schema = new BucketObject.Schema();
@@ -0,0 +1,72 @@
+package com.simperium;
+
+import com.google.gson.stream.JsonWriter;
+import com.simperium.util.StreamingJSON;
+
+import junit.framework.TestCase;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+public class StreamingJSONTest extends TestCase {
+
+    public void testReadObjectFromOffset()
+    throws Exception {
+        String message = "e:{\"title\":\"Hola\",\"tags\":[\"a\",null],\"pinned\":false,\"meta\":{\"n\":1}}";
+
+        JSONObject object = StreamingJSON.readObject(StreamingJSON.reader(message, 2));
+
+        assertEquals("Hola", object.getString("title"));
+        JSONArray tags = object.getJSONArray("tags");
+        assertEquals("a", tags.getString(0));
+        assertTrue(tags.isNull(1));
+        assertFalse(object.getBoolean("pinned"));
+        assertEquals(1, object.getJSONObject("meta").getInt("n"));
+    }
+
+    public void testNumbersMatchOrgJSON()
+    throws Exception {
+        String json = "{\"int\":42,\"long\":12345678901,\"double\":1.5,\"exp\":1e3,\"negative\":-7}";
+
+        JSONObject streamed = StreamingJSON.readObject(StreamingJSON.reader(json, 0));
+        JSONObject parsed = new JSONObject(json);
+
+        for (String key : new String[]{"int", "long", "double", "exp", "negative"}) {
+            assertEquals(key, parsed.get(key), streamed.get(key));
+            assertEquals(key, parsed.get(key).getClass(), streamed.get(key).getClass());
+        }
+    }
+
+    public void testWriteMatchesOrgJSON()
+    throws Exception {
+        JSONObject object = new JSONObject("{\"title\":\"Quote \\\" and \\n\",\"tags\":[\"a\",null]," +
+            "\"pinned\":true,\"count\":3,\"ratio\":2.5,\"meta\":{\"n\":1}}");
+        object.put("whole", 4.0d);
+
+        StringWriter written = new StringWriter();
+        StreamingJSON.writeObject(new JsonWriter(written), object);
+
+        JSONObject parsed = new JSONObject(written.toString());
+        assertEquals(object.toString(), parsed.toString());
+        // whole doubles are written without the fraction like org.json does
+        assertEquals(4, parsed.get("whole"));
+    }
+
+    public void testWriteNonFiniteNumberFails()
+    throws Exception {
+        JSONArray array = new JSONArray();
+        // put(double) rejects NaN, put(Object) stores it unchecked
+        array.put((Object) Double.NaN);
+
+        try {
+            StreamingJSON.writeArray(new JsonWriter(new StringWriter()), array);
+            fail("NaN was written");
+        } catch (IOException e) {
+            // JSON has no NaN
+        }
+    }
+
+}
@@ -2,6 +2,7 @@ package com.simperium;
 
 import com.simperium.android.WebSocketManager;
 import com.simperium.client.Bucket;
+import com.simperium.client.Channel;
 import com.simperium.client.ChannelProvider;
 import com.simperium.models.Note;
 import com.simperium.test.MockBucket;
@@ -13,9 +14,14 @@ import junit.framework.TestCase;
 
 import org.apache.http.message.BasicNameValuePair;
 
+import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.List;
 
+import static com.simperium.TestHelpers.Flag;
+import static com.simperium.TestHelpers.waitUntil;
+
 
 public class WebSocketManagerTest extends TestCase {
 
@@ -114,4 +120,170 @@ public class WebSocketManagerTest extends TestCase {
 
     }
 
-}
\ No newline at end of file
+    public void testSendHeartbeatWhenIdle()
+    throws Exception {
+
+        mSocketManager.setHeartbeatInterval(50, 1000);
+
+        waitUntil(new Flag() {
+            @Override
+            public boolean isComplete() {
+                return "h:1".equals(mConnection.lastMessage);
+            }
+        }, "Heartbeat was not sent");
+
+        assertTrue(mSocketManager.isConnected());
+    }
+
+    public void testDropConnectionWithoutHeartbeatReply()
+    throws Exception {
+
+        mSocketManager.setHeartbeatInterval(50, 100);
+
+        waitUntil(new Flag() {
+            @Override
+            public boolean isComplete() {
+                return mConnection.closed;
+            }
+        }, "Connection was not dropped");
+
+        assertEquals("h:1", mConnection.lastMessage);
+        assertFalse(mSocketManager.isConnected());
+    }
+
+    public void testKeepConnectionWhenHeartbeatAnswered()
+    throws Exception {
+
+        // the timeout leaves plenty of room to notice the heartbeat and answer it
+        mSocketManager.setHeartbeatInterval(50, 1000);
+
+        waitUntil(new Flag() {
+            @Override
+            public boolean isComplete() {
+                return "h:1".equals(mConnection.lastMessage);
+            }
+        }, "Heartbeat was not sent");
+
+        mConnection.receiveMessage("h:1");
+
+        // a dropped connection would start counting from h:1 again
+        waitUntil(new Flag() {
+            @Override
+            public boolean isComplete() {
+                return "h:2".equals(mConnection.lastMessage);
+            }
+        }, "Next heartbeat was not sent", 2000);
+
+        assertFalse(mConnection.closed);
+        assertTrue(mSocketManager.isConnected());
+    }
+
+    public void testReconnectWithPolicyDelay()
+    throws Exception {
+
+        mSocketManager.setReconnectPolicy(new WebSocketManager.ReconnectPolicy() {
+            @Override
+            public long nextReconnectInterval() {
+                return 50;
+            }
+
+            @Override
+            public void reset() {
+            }
+        });
+
+        mConnection.listener.onDisconnect(new IOException("connection lost"));
+        assertFalse(mSocketManager.isConnected());
+
+        List<WebSocketManager.ReconnectAttempt> history = mSocketManager.getReconnectHistory();
+        assertEquals(1, history.size());
+        assertEquals(50, history.get(0).delay);
+        assertTrue(history.get(0).reason.contains("connection lost"));
+
+        waitUntil(new Flag() {
+            @Override
+            public boolean isComplete() {
+                return mSocketManager.isConnected();
+            }
+        }, "Did not reconnect");
+    }
+
+    public void testDropMessageFromUnregisteredChannel()
+    throws Exception {
+
+        Bucket<Note> other = MockBucket.buildBucket(new Note.Schema());
+        Channel channel = new Channel(MockExecutor.immediate(), APP_ID, SESSION_ID, other, mChannelSerializer, mSocketManager);
+
+        mSocketManager.onMessage(new Channel.MessageEvent(channel, "c:{}"));
+
+        assertNull(mConnection.lastMessage);
+    }
+
+    public void testBuildChannelOnNamedConnection()
+    throws Exception {
+        final List<MockConnection> connections = new ArrayList<MockConnection>();
+        WebSocketManager manager = new WebSocketManager(MockExecutor.immediate(), APP_ID, SESSION_ID, mChannelSerializer,
+            new WebSocketManager.ConnectionProvider() {
+                @Override
+                public void connect(WebSocketManager.ConnectionListener listener) {
+                    MockConnection connection = new MockConnection();
+                    connections.add(connection);
+                    connection.listener = listener;
+                    listener.onConnect(connection);
+                }
+            });
+
+        Bucket<Note> shared = MockBucket.buildBucket(MockExecutor.immediate(), new Note.Schema(), manager);
+        Bucket<Note> bulk = MockBucket.buildBucket(MockExecutor.immediate(), new Note.Schema(), manager, "bulk");
+
+        assertEquals(2, connections.size());
+        assertTrue(manager.isConnected());
+        assertTrue(manager.getConnection("bulk").isConnected());
+        assertSame(manager, manager.getConnection(ChannelProvider.DEFAULT_CONNECTION));
+
+        // both buckets are the first channel on their own connection
+        MockConnection bulkConnection = connections.get(1);
+        bulkConnection.receiveMessage("log:2");
+        assertEquals(ChannelProvider.LOG_DISABLED, manager.getLogLevel());
+
+        connections.get(0).clearMessages();
+        bulkConnection.clearMessages();
+        bulk.log(ChannelProvider.LOG_DEBUG, "bulk");
+        shared.log(ChannelProvider.LOG_DEBUG, "shared");
+
+        assertEquals("log:{\"log\":\"bulk\",\"bucket\":\"notes\"}", bulkConnection.lastMessage);
+        assertNull(connections.get(0).lastMessage);
+
+        // named connections follow the log level of the default one
+        connections.get(0).receiveMessage("log:1");
+        assertEquals(ChannelProvider.LOG_DEBUG, manager.getConnection("bulk").getLogLevel());
+
+        // dropping the bulk connection leaves the shared one connected
+        bulkConnection.listener.onDisconnect(new IOException("bulk connection lost"));
+        assertFalse(manager.getConnection("bulk").isConnected());
+        assertTrue(manager.isConnected());
+    }
+
+    public void testDisconnectNamedConnections()
+    throws Exception {
+        WebSocketManager manager = new WebSocketManager(MockExecutor.immediate(), APP_ID, SESSION_ID, mChannelSerializer,
+            new WebSocketManager.ConnectionProvider() {
+                @Override
+                public void connect(WebSocketManager.ConnectionListener listener) {
+                    MockConnection connection = new MockConnection();
+                    connection.listener = listener;
+                    listener.onConnect(connection);
+                }
+            });
+
+        MockBucket.buildBucket(MockExecutor.immediate(), new Note.Schema(), manager);
+        MockBucket.buildBucket(MockExecutor.immediate(), new Note.Schema(), manager, "bulk");
+        assertTrue(manager.getConnection("bulk").isConnected());
+
+        manager.disconnect();
+
+        assertFalse(manager.isConnected());
+        assertFalse(manager.getConnection("bulk").isConnected());
+    }
+
+}
@@ -0,0 +1,46 @@
+package com.simperium.android;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+public class BackoffReconnectPolicyTest extends TestCase {
+
+    public void testDelaysStayBetweenBaseAndMax() {
+        BackoffReconnectPolicy policy = new BackoffReconnectPolicy(100, 5000, new Random(42));
+
+        long previous = 100;
+        for (int i = 0; i < 100; i++) {
+            long delay = policy.nextReconnectInterval();
+            assertTrue("Delay below base: " + delay, delay >= 100);
+            assertTrue("Delay above max: " + delay, delay <= 5000);
+            assertTrue("Delay grew more than three times: " + delay, delay <= previous * 3);
+            previous = delay;
+        }
+    }
+
+    public void testDelaysAreJittered() {
+        BackoffReconnectPolicy first = new BackoffReconnectPolicy(100, 5000, new Random(1));
+        BackoffReconnectPolicy second = new BackoffReconnectPolicy(100, 5000, new Random(2));
+
+        boolean differ = false;
+        for (int i = 0; i < 10; i++) {
+            if (first.nextReconnectInterval() != second.nextReconnectInterval()) {
+                differ = true;
+            }
+        }
+        assertTrue("Clients should not reconnect in lockstep", differ);
+    }
+
+    public void testResetStartsOverFromBase() {
+        BackoffReconnectPolicy policy = new BackoffReconnectPolicy(100, 5000, new Random(7));
+
+        for (int i = 0; i < 20; i++) {
+            policy.nextReconnectInterval();
+        }
+        policy.reset();
+
+        assertTrue(policy.nextReconnectInterval() <= 300);
+    }
+
+}
@@ -0,0 +1,93 @@
+package com.simperium.android;
+
+import com.simperium.client.BucketSchema.Index;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class IndexTuplesTest extends TestCase {
+
+    public void testHashIgnoresOrder() {
+        List<Index> indexes = new ArrayList<>();
+        indexes.add(new Index("title", "Hola"));
+        indexes.add(new Index("tags", "a"));
+        indexes.add(new Index("tags", "b"));
+
+        List<Index> reordered = new ArrayList<>();
+        reordered.add(new Index("tags", "b"));
+        reordered.add(new Index("title", "Hola"));
+        reordered.add(new Index("tags", "a"));
+
+        assertEquals(IndexTuples.from(indexes).hash(), IndexTuples.from(reordered).hash());
+    }
+
+    public void testHashChangesWithValues() {
+        List<Index> indexes = new ArrayList<>();
+        indexes.add(new Index("title", "Hola"));
+        long hash = IndexTuples.from(indexes).hash();
+
+        indexes.set(0, new Index("title", "Hello"));
+        assertFalse(hash == IndexTuples.from(indexes).hash());
+
+        indexes.set(0, new Index("name", "Hola"));
+        assertFalse(hash == IndexTuples.from(indexes).hash());
+
+        // a string and a number that print the same are stored differently
+        List<Index> string = new ArrayList<>();
+        string.add(new Index("count", "1"));
+        List<Index> number = new ArrayList<>();
+        number.add(new Index("count", 1));
+        assertFalse(IndexTuples.from(string).hash() == IndexTuples.from(number).hash());
+    }
+
+    public void testCompareWithStoredValues() {
+        List<Index> indexes = new ArrayList<>();
+        indexes.add(new Index("pinned", true));
+        indexes.add(new Index("count", 3));
+        indexes.add(new Index("ratio", 1.5f));
+        indexes.add(new Index("tags", "a"));
+        indexes.add(new Index("tags", "b"));
+        indexes.add(new Index("empty", null));
+        IndexTuples tuples = IndexTuples.from(indexes);
+
+        // the way the values are read back from SQLite
+        IndexTuples stored = new IndexTuples();
+        stored.add("pinned", 1L);
+        stored.add("count", 3L);
+        stored.add("ratio", 1.5d);
+        stored.add("tags", "b");
+        stored.add("tags", "a");
+        stored.add("empty", null);
+
+        for (String name : tuples.names()) {
+            assertTrue(name, tuples.sameValues(stored, name));
+        }
+        assertEquals(tuples.hash(), stored.hash());
+
+        stored.add("tags", "c");
+        assertFalse(tuples.sameValues(stored, "tags"));
+        // neither has the index
+        assertTrue(tuples.sameValues(stored, "missing"));
+    }
+
+    public void testFullTextHash() {
+        Map<String,String> values = new HashMap<>();
+        values.put("content", "Hola mundo");
+        values.put("tags", "work");
+        long hash = IndexTuples.hash(values);
+
+        Map<String,String> same = new HashMap<>(values);
+        assertEquals(hash, IndexTuples.hash(same));
+
+        values.put("tags", "home");
+        assertFalse(hash == IndexTuples.hash(values));
+
+        values.put("tags", null);
+        assertFalse(hash == IndexTuples.hash(values));
+    }
+
+}
@@ -0,0 +1,177 @@
+package com.simperium.android;
+
+import junit.framework.TestCase;
+
+import java.io.Flushable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class OutboundQueueTest extends TestCase {
+
+    private List<String> mWritten;
+    private CountDownLatch mClosed;
+    private CountDownLatch mRelease;
+    private CountDownLatch mWriting;
+    private AtomicInteger mFlushes;
+    private CountDownLatch mOverflowed;
+    private OutboundQueue mQueue;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        mWritten = Collections.synchronizedList(new ArrayList<String>());
+        mClosed = new CountDownLatch(1);
+        mRelease = new CountDownLatch(0);
+        mWriting = new CountDownLatch(1);
+        mFlushes = new AtomicInteger();
+        mOverflowed = new CountDownLatch(1);
+        mQueue = new OutboundQueue("simperium.test.writer", new TestWriter());
+    }
+
+    protected void tearDown() throws Exception {
+        mRelease.countDown();
+        mQueue.close();
+        super.tearDown();
+    }
+
+    public void testWritesMessagesInOrderBeforeClosing() throws Exception {
+        mQueue.start();
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(mQueue.send("0:e:key" + i));
+        }
+        mQueue.close();
+
+        assertTrue("Writer was not closed", mClosed.await(2, TimeUnit.SECONDS));
+        assertEquals(1000, mWritten.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("0:e:key" + i, mWritten.get(i));
+        }
+        assertFalse("Closed queue should not accept messages", mQueue.send("0:e:late"));
+    }
+
+    public void testFlushesOncePerBatch() throws Exception {
+        mRelease = new CountDownLatch(1);
+        mQueue.start();
+        fillQueue();
+        mRelease.countDown();
+        mQueue.close();
+
+        assertTrue("Writer was not closed", mClosed.await(2, TimeUnit.SECONDS));
+        int batches = (mWritten.size() + OutboundQueue.BATCH_SIZE - 1) / OutboundQueue.BATCH_SIZE;
+        // the first message may have been taken on its own before the queue filled up
+        assertTrue("Flushed " + mFlushes.get() + " times", mFlushes.get() <= batches + 2);
+    }
+
+    public void testSendWaitsForRoomWhenFull() throws Exception {
+        mRelease = new CountDownLatch(1);
+        mQueue.start();
+
+        fillQueue();
+
+        final CountDownLatch sent = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mQueue.send("waiting");
+                sent.countDown();
+            }
+        }).start();
+
+        assertFalse("Sender should wait while the queue is full", sent.await(200, TimeUnit.MILLISECONDS));
+
+        mRelease.countDown();
+        assertTrue("Sender should continue once the writer catches up", sent.await(1, TimeUnit.SECONDS));
+    }
+
+    public void testInboundThreadDoesNotWait() throws Exception {
+        mRelease = new CountDownLatch(1);
+        mQueue.start();
+        fillQueue();
+
+        final CountDownLatch sent = new CountDownLatch(1);
+        Thread inbound = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mQueue.send("reply");
+                sent.countDown();
+            }
+        });
+        mQueue.setInboundThread(inbound);
+        inbound.start();
+
+        assertTrue("Inbound thread should not wait for room", sent.await(200, TimeUnit.MILLISECONDS));
+    }
+
+    public void testOverflowDropsQueuedMessages() throws Exception {
+        mRelease = new CountDownLatch(1);
+        mQueue.start();
+        fillQueue();
+
+        final AtomicInteger accepted = new AtomicInteger();
+        Thread inbound = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (mQueue.send("reply")) {
+                    accepted.incrementAndGet();
+                }
+            }
+        });
+        mQueue.setInboundThread(inbound);
+        inbound.start();
+        inbound.join(2000);
+
+        assertTrue("Writer was not told about the overflow", mOverflowed.await(1, TimeUnit.SECONDS));
+        assertEquals(OutboundQueue.MAX_SIZE - OutboundQueue.CAPACITY, accepted.get());
+        assertFalse("Overflowed queue should not accept messages", mQueue.send("0:e:late"));
+
+        mRelease.countDown();
+        assertTrue("Writer was not closed", mClosed.await(2, TimeUnit.SECONDS));
+        // only the message the writer was stuck on was written
+        assertEquals(1, mWritten.size());
+    }
+
+    /**
+     * Wait for the writer to get stuck on its first message, then send until the queue is full
+     */
+    private void fillQueue() throws InterruptedException {
+        mQueue.send("message");
+        assertTrue("Writer did not start", mWriting.await(2, TimeUnit.SECONDS));
+        while (mQueue.size() < OutboundQueue.CAPACITY) {
+            mQueue.send("message");
+        }
+    }
+
+    private class TestWriter implements OutboundQueue.Writer, Flushable {
+
+        @Override
+        public void write(String message) {
+            mWriting.countDown();
+            try {
+                mRelease.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            mWritten.add(message);
+        }
+
+        @Override
+        public void flush() {
+            mFlushes.incrementAndGet();
+        }
+
+        @Override
+        public void onClose() {
+            mClosed.countDown();
+        }
+
+        @Override
+        public void onOverflow() {
+            mOverflowed.countDown();
+        }
+
+    }
+
+}
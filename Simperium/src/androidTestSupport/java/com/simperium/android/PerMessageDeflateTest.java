@@ -0,0 +1,88 @@
+package com.simperium.android;
+
+import junit.framework.TestCase;
+
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+public class PerMessageDeflateTest extends TestCase {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private CompressionStats mClientStats, mServerStats;
+    private PerMessageDeflate mClient, mServer;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        mClientStats = new CompressionStats();
+        mServerStats = new CompressionStats();
+        mClient = PerMessageDeflate.negotiate(PerMessageDeflate.EXTENSION, PerMessageDeflate.MIN_COMPRESS_SIZE, mClientStats);
+        mServer = new PerMessageDeflate(false, false, PerMessageDeflate.MIN_COMPRESS_SIZE, mServerStats);
+    }
+
+    protected void tearDown() throws Exception {
+        mClient.release();
+        mServer.release();
+        super.tearDown();
+    }
+
+    public void testNegotiateExtension() {
+        assertNull(PerMessageDeflate.negotiate(null, 0, null));
+        assertNull(PerMessageDeflate.negotiate("x-webkit-deflate-frame", 0, null));
+        assertNull(PerMessageDeflate.negotiate("permessage-deflate; client_max_window_bits=10", 0, null));
+        assertNotNull(PerMessageDeflate.negotiate("permessage-deflate; server_no_context_takeover; server_max_window_bits=12", 0, null));
+        assertNotNull(PerMessageDeflate.negotiate("foo, permessage-deflate", 0, null));
+    }
+
+    public void testRoundTripMessages() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            String message = entity(i);
+            byte[] payload = message.getBytes(UTF_8);
+            assertTrue(mClient.shouldCompress(payload.length));
+
+            byte[] compressed = mClient.compress(payload);
+            byte[] decompressed = mServer.decompress(compressed, 0, compressed.length);
+
+            assertEquals(message, new String(decompressed, UTF_8));
+        }
+    }
+
+    public void testSharedContextCompressesRepeatedContent() throws Exception {
+        byte[] payload = entity(1).getBytes(UTF_8);
+
+        int first = mClient.compress(payload).length;
+        int second = mClient.compress(payload).length;
+
+        assertTrue(String.format(Locale.US, "Second message %d should be smaller than %d", second, first), second < first / 2);
+    }
+
+    public void testSkipSmallMessages() {
+        assertFalse(mClient.shouldCompress(PerMessageDeflate.MIN_COMPRESS_SIZE - 1));
+
+        mClient.sentUncompressed(10);
+
+        assertEquals(1, mClientStats.getSentMessages());
+        assertEquals(0, mClientStats.getSentCompressedMessages());
+        assertEquals(1.0, mClientStats.getSentRatio());
+    }
+
+    public void testReportCompressionRatio() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            byte[] compressed = mServer.compress(entity(i).getBytes(UTF_8));
+            mClient.decompress(compressed, 0, compressed.length);
+        }
+
+        assertEquals(100, mClientStats.getReceivedCompressedMessages());
+        assertTrue("Ratio was " + mClientStats.getReceivedRatio(), mClientStats.getReceivedRatio() > 5);
+        assertEquals(mClientStats.getReceivedBytes(), mServerStats.getSentBytes());
+        assertEquals(mClientStats.getReceivedWireBytes(), mServerStats.getSentWireBytes());
+    }
+
+    private static String entity(int index) {
+        return String.format(Locale.US, "0:e:note-%d.3\n{\"data\":{\"tags\":[\"work\",\"ideas\"],\"deleted\":false," +
+            "\"shareURL\":\"\",\"publishURL\":\"\",\"systemTags\":[\"markdown\"],\"modificationDate\":1.4%d," +
+            "\"creationDate\":1.3%d,\"content\":\"Meeting notes for the weekly planning session %d, " +
+            "remember to follow up with the team about the release schedule.\"}}", index, index, index, index);
+    }
+
+}
@@ -4,6 +4,7 @@ import android.test.MoreAsserts;
 
 import com.simperium.android.PersistentStore.QueryBuilder;
 import com.simperium.android.PersistentStore.DataStore;
+import com.simperium.client.IndexColumns;
 import com.simperium.client.Query;
 
 import com.simperium.models.Note;
@@ -47,6 +48,54 @@ public class PersistentStoreQueryBuilderTest extends PersistentStoreBaseTest {
 
     }
 
+    public void testIndexColumnQuery() {
+
+        Query query = new Query();
+        query.where("title", Query.ComparisonType.EQUAL_TO, "lol");
+        query.order("modified", Query.SortType.DESCENDING);
+        QueryBuilder builder = buildColumnsQuery(query);
+
+        String[] args = new String[] {
+            "bucket", // bucket name
+            "lol" // value to compare to
+        };
+        String condition = " FROM `objects`  JOIN `bucket_columns` AS c ON objects.key = c.object_key WHERE objects.bucket = ? AND (  c.`title` IS NOT NULL AND c.`title` =  ?) ORDER BY c.`modified` DESC";
+
+        MoreAsserts.assertEquals(args, builder.mArgs);
+        assertEquals(condition, builder.mStatement);
+        assertTrue(builder.mSelection.toString().startsWith("SELECT objects.rowid"));
+
+    }
+
+    public void testIndexColumnWithIndexesQuery() {
+
+        Query query = new Query();
+        query.where("title", Query.ComparisonType.NOT_EQUAL_TO, "lol");
+        query.where("preview", Query.ComparisonType.LIKE, "lol%");
+        QueryBuilder builder = buildColumnsQuery(query);
+
+        String[] args = new String[] {
+            "preview", // index name
+            "bucket", // bucket name
+            "lol", // value to compare to
+            "lol%" // value to compare to
+        };
+        String condition = " FROM `objects`  LEFT JOIN `bucket_columns` AS c ON objects.key = c.object_key LEFT JOIN indexes AS i0 ON objects.bucket = i0.bucket AND objects.key = i0.key AND i0.name=? WHERE objects.bucket = ? AND (  c.`title` IS NULL OR c.`title` !=  ?) AND (  i0.value IS NOT NULL AND i0.value LIKE  ?) ";
+
+        MoreAsserts.assertEquals(args, builder.mArgs);
+        assertEquals(condition, builder.mStatement);
+        assertTrue(builder.mSelection.toString().startsWith("SELECT DISTINCT"));
+
+    }
+
+    protected QueryBuilder buildColumnsQuery(Query query) {
+        Note.Schema schema = new Note.Schema();
+        schema.addIndexColumn("title", IndexColumns.Type.TEXT);
+        schema.addIndexColumn("modified", IndexColumns.Type.INTEGER)
+            .addCompositeIndex("title", "modified");
+        return new QueryBuilder((DataStore<Note>) mStore.createStore(BUCKET_NAME, schema), query);
+    }
+
     protected QueryBuilder buildQuery(Query query) {
         return new QueryBuilder((DataStore<Note>) mNoteStore, query);
     }
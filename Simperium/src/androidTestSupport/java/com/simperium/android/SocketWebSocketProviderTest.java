@@ -0,0 +1,219 @@
+package com.simperium.android;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.ProtocolException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class SocketWebSocketProviderTest extends TestCase {
+
+    static public final String PATH = "/sock/1/mock-app-id/websocket";
+
+    private LocalWebSocketServer mServer;
+    private SocketWebSocketProvider mProvider;
+    private Listener mListener;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new LocalWebSocketServer();
+        mProvider = new SocketWebSocketProvider(mServer.getUrl(PATH), "android-test", null);
+        mListener = new Listener();
+    }
+
+    protected void tearDown() throws Exception {
+        if (mListener.connection != null) {
+            mListener.connection.close();
+        }
+        mServer.stop();
+        super.tearDown();
+    }
+
+    public void testEchoCompressedMessages() throws Exception {
+        connect();
+
+        assertEquals("android-test", mServer.getClients().get(0).request.getHeader(AndroidClient.USER_AGENT_HEADER));
+
+        List<String> sent = new ArrayList<>();
+        sent.add("0:cv:abc");
+        for (int i = 0; i < 50; i++) {
+            sent.add(entity(i));
+        }
+        for (String message : sent) {
+            mListener.connection.send(message);
+        }
+
+        mListener.waitForMessages(sent.size());
+        assertEquals(sent, mListener.messages);
+
+        CompressionStats stats = mProvider.getCompressionStats();
+        assertEquals(51, stats.getSentMessages());
+        assertEquals(50, stats.getSentCompressedMessages());
+        assertEquals(50, stats.getReceivedCompressedMessages());
+        assertTrue("Ratio was " + stats.getCompressionRatio(), stats.getCompressionRatio() > 5);
+    }
+
+    public void testUncompressedWhenDisabled() throws Exception {
+        mProvider.setCompression(false, PerMessageDeflate.MIN_COMPRESS_SIZE);
+        connect();
+
+        assertNull(mServer.getClients().get(0).request.getHeader(PerMessageDeflate.EXTENSIONS_HEADER));
+
+        mListener.connection.send(entity(1));
+        mListener.waitForMessages(1);
+
+        assertEquals(entity(1), mListener.messages.get(0));
+        assertEquals(0, mProvider.getCompressionStats().getSentMessages());
+    }
+
+    public void testStreamLargeMessagesWithSmallBuffers() throws Exception {
+        mProvider.setBufferSizes(512, 512);
+        connect();
+
+        StringBuilder page = new StringBuilder("0:i:{\"index\":[");
+        for (int i = 0; i < 5000; i++) {
+            if (i > 0) page.append(',');
+            page.append("{\"id\":\"note-").append(i).append("\",\"v\":").append(i % 7 + 1).append('}');
+        }
+        page.append("]}");
+
+        mListener.connection.send(page.toString());
+        mListener.waitForMessages(1);
+
+        assertEquals(page.toString(), mListener.messages.get(0));
+    }
+
+    public void testAnswerHeartbeats() throws Exception {
+        connect();
+
+        mListener.connection.send("h:1");
+        mListener.waitForMessages(1);
+
+        assertEquals("h:2", mListener.messages.get(0));
+    }
+
+    public void testDisconnectWhenServerCloses() throws Exception {
+        connect();
+
+        mServer.getClients().get(0).close();
+
+        assertTrue("Listener was not disconnected", mListener.disconnected.await(2, TimeUnit.SECONDS));
+    }
+
+    public void testCloseOnBinaryMessage() throws Exception {
+        byte[] frame = {(byte) 0x82, 3, 1, 2, 3};
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WebSocketFrameStream stream = new WebSocketFrameStream(new ByteArrayInputStream(frame), out, false, null, 64, 1024);
+
+        try {
+            stream.readMessage();
+            fail("Binary message should not be read");
+        } catch (ProtocolException e) {
+            // closed
+        }
+
+        byte[] close = out.toByteArray();
+        assertEquals(0x88, close[0] & 0xFF);
+        assertEquals(WebSocketFrameStream.CLOSE_UNSUPPORTED_DATA, ((close[2] & 0xFF) << 8) | (close[3] & 0xFF));
+    }
+
+    public void testCloseOnNegativeLength() throws Exception {
+        // 64 bit length with the most significant bit set
+        byte[] frame = {(byte) 0x81, 127, (byte) 0x80, 0, 0, 0, 0, 0, 0, 1};
+
+        assertClosedWith(WebSocketFrameStream.CLOSE_PROTOCOL_ERROR, frame);
+    }
+
+    public void testCloseOnReservedBits() throws Exception {
+        // RSV1 without permessage-deflate
+        assertClosedWith(WebSocketFrameStream.CLOSE_PROTOCOL_ERROR, new byte[]{(byte) 0xC1, 1, 'a'});
+        // RSV2 is never used
+        assertClosedWith(WebSocketFrameStream.CLOSE_PROTOCOL_ERROR, new byte[]{(byte) 0xA1, 1, 'a'});
+    }
+
+    public void testErrorWhenServerUnavailable() throws Exception {
+        mServer.stop();
+
+        mProvider.connect(mListener);
+
+        assertTrue("Listener did not receive error", mListener.error.await(2, TimeUnit.SECONDS));
+        assertNull(mListener.connection);
+    }
+
+    private static void assertClosedWith(int code, byte[] frame) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WebSocketFrameStream stream = new WebSocketFrameStream(new ByteArrayInputStream(frame), out, false, null, 64, 1024);
+
+        try {
+            stream.readMessage();
+            fail("Invalid frame should not be read");
+        } catch (ProtocolException e) {
+            // closed
+        }
+
+        byte[] close = out.toByteArray();
+        assertEquals(0x88, close[0] & 0xFF);
+        assertEquals(code, ((close[2] & 0xFF) << 8) | (close[3] & 0xFF));
+    }
+
+    private void connect() throws Exception {
+        mProvider.connect(mListener);
+        assertTrue("Did not connect", mListener.connected.await(2, TimeUnit.SECONDS));
+        long deadline = System.currentTimeMillis() + 2000;
+        while (mServer.getClients().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static String entity(int index) {
+        return String.format("0:e:note-%d.3\n{\"data\":{\"tags\":[\"work\",\"ideas\"],\"deleted\":false," +
+            "\"systemTags\":[\"markdown\"],\"content\":\"Meeting notes for the weekly planning session %d, " +
+            "remember to follow up with the team about the release schedule and the open questions " +
+            "from the last review.\"}}", index, index);
+    }
+
+    static class Listener implements WebSocketManager.ConnectionListener {
+
+        volatile WebSocketManager.Connection connection;
+        final List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch connected = new CountDownLatch(1);
+        final CountDownLatch disconnected = new CountDownLatch(1);
+        final CountDownLatch error = new CountDownLatch(1);
+
+        @Override
+        public void onConnect(WebSocketManager.Connection connection) {
+            this.connection = connection;
+            connected.countDown();
+        }
+
+        @Override
+        public void onDisconnect(Exception exception) {
+            disconnected.countDown();
+        }
+
+        @Override
+        public void onError(Exception exception) {
+            error.countDown();
+        }
+
+        @Override
+        public void onMessage(String message) {
+            messages.add(message);
+        }
+
+        void waitForMessages(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (messages.size() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(count, messages.size());
+        }
+
+    }
+
+}
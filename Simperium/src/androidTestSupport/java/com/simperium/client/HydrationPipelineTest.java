@@ -0,0 +1,239 @@
+package com.simperium.client;
+
+import com.simperium.client.BucketSchema.Index;
+import com.simperium.models.Note;
+import com.simperium.test.MockBucket;
+import com.simperium.test.MockBucketStore;
+import com.simperium.test.MockExecutor;
+import com.simperium.test.MockGhostStore;
+import com.simperium.test.MockUser;
+
+import junit.framework.TestCase;
+
+import org.json.JSONObject;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.simperium.TestHelpers.Flag;
+import static com.simperium.TestHelpers.waitUntil;
+
+public class HydrationPipelineTest extends TestCase {
+
+    private MockBucket<Note> mBucket;
+    private MockBucketStore<Note> mStore;
+    private MockGhostStore mGhostStore;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        Note.Schema schema = new Note.Schema();
+        mStore = new MockBucketStore<Note>();
+        mGhostStore = new MockGhostStore();
+        mBucket = new MockBucket<Note>(MockExecutor.immediate(), schema.getRemoteName(), schema,
+            MockUser.buildUser(), mStore, mGhostStore);
+    }
+
+    public void testStoresObjectsInBatches() throws Exception {
+        final int total = HydrationPipeline.BATCH_SIZE * 3;
+        final AtomicInteger hydrated = new AtomicInteger();
+        final AtomicInteger batches = new AtomicInteger();
+
+        HydrationPipeline.Listener listener = new HydrationPipeline.Listener() {
+            @Override
+            public void onHydrated(int count) {
+                batches.incrementAndGet();
+                hydrated.addAndGet(count);
+            }
+
+            @Override
+            public void onFailed(Ghost ghost) {
+                // storage never fails here
+            }
+        };
+
+        for (int i = 0; i < total; i++) {
+            JSONObject properties = new JSONObject();
+            properties.put("title", "Note " + i);
+            mBucket.addObjectWithGhost(new Ghost("note" + i, 1, properties), listener);
+        }
+
+        waitUntil(new Flag() {
+            @Override
+            public boolean isComplete() {
+                return hydrated.get() == total;
+            }
+        }, "Objects were never stored", 5000);
+
+        assertEquals(batches.get(), mStore.transactionCount);
+        assertTrue("Objects should be stored in batches", mStore.transactionCount < total);
+        assertEquals("Note 7", mBucket.get("note7").getProperties().getString("title"));
+        assertEquals(1, mGhostStore.getGhostVersion(mBucket, "note7"));
+    }
+
+    public void testWriterSurvivesFailedBatch() throws Exception {
+        final AtomicInteger hydrated = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        MockBucketStore<Note> store = new MockBucketStore<Note>() {
+            @Override
+            public void save(Note object, String simperiumKey, String json, List<Index> indexes) {
+                if (simperiumKey.equals("broken")) {
+                    throw new IllegalStateException("Indexer failed");
+                }
+                super.save(object, simperiumKey, json, indexes);
+            }
+        };
+        HydrationPipeline<Note> pipeline = new HydrationPipeline<>(mBucket, MockExecutor.immediate(), store, mGhostStore);
+        HydrationPipeline.Listener listener = new HydrationPipeline.Listener() {
+            @Override
+            public void onHydrated(int count) {
+                hydrated.addAndGet(count);
+            }
+
+            @Override
+            public void onFailed(Ghost ghost) {
+                failed.incrementAndGet();
+            }
+        };
+
+        pipeline.add(new Ghost("broken", 1, new JSONObject()), listener);
+        waitUntil(new Flag() {
+            @Override
+            public boolean isComplete() {
+                return failed.get() == 1;
+            }
+        }, "Failed batch was never reported", 5000);
+
+        pipeline.add(new Ghost("working", 1, new JSONObject()), listener);
+        waitUntil(new Flag() {
+            @Override
+            public boolean isComplete() {
+                return hydrated.get() == 1;
+            }
+        }, "Writer stopped after a failed batch", 5000);
+
+        assertEquals(1, failed.get());
+        assertNull(store.get("broken"));
+        assertNotNull(store.get("working"));
+    }
+
+    public void testStoreRestOfFailedBatch() throws Exception {
+        final AtomicInteger hydrated = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        MockBucketStore<Note> store = new MockBucketStore<Note>() {
+            @Override
+            public void save(Note object, String simperiumKey, String json, List<Index> indexes) {
+                if (simperiumKey.equals("first")) {
+                    // hold the writer so the rest of the objects are written as one batch
+                    writing.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                if (simperiumKey.equals("broken")) {
+                    throw new IllegalStateException("Indexer failed");
+                }
+                super.save(object, simperiumKey, json, indexes);
+            }
+        };
+        HydrationPipeline<Note> pipeline = new HydrationPipeline<>(mBucket, MockExecutor.immediate(), store, mGhostStore);
+        HydrationPipeline.Listener listener = new HydrationPipeline.Listener() {
+            @Override
+            public void onHydrated(int count) {
+                hydrated.addAndGet(count);
+            }
+
+            @Override
+            public void onFailed(Ghost ghost) {
+                failed.incrementAndGet();
+            }
+        };
+
+        pipeline.add(new Ghost("first", 1, new JSONObject()), listener);
+        assertTrue("Writer did not start", writing.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 8; i++) {
+            pipeline.add(new Ghost("note" + i, 1, new JSONObject()), listener);
+        }
+        pipeline.add(new Ghost("broken", 1, new JSONObject()), listener);
+        release.countDown();
+
+        waitUntil(new Flag() {
+            @Override
+            public boolean isComplete() {
+                return hydrated.get() + failed.get() == 10;
+            }
+        }, "Objects were never written", 5000);
+
+        assertEquals(9, hydrated.get());
+        assertEquals(1, failed.get());
+        assertNotNull(store.get("note0"));
+        assertNull(store.get("broken"));
+    }
+
+    public void testClearDropsObjectsBeingBuilt() throws Exception {
+        MockExecutor.Playable executor = new MockExecutor.Playable();
+        HydrationPipeline<Note> pipeline = new HydrationPipeline<>(mBucket, executor, mStore, mGhostStore);
+        final AtomicInteger hydrated = new AtomicInteger();
+        HydrationPipeline.Listener listener = new HydrationPipeline.Listener() {
+            @Override
+            public void onHydrated(int count) {
+                hydrated.addAndGet(count);
+            }
+
+            @Override
+            public void onFailed(Ghost ghost) {
+                // storage never fails here
+            }
+        };
+
+        pipeline.add(new Ghost("before", 1, new JSONObject()), listener);
+        pipeline.clear();
+        pipeline.add(new Ghost("after", 1, new JSONObject()), listener);
+        executor.play();
+
+        waitUntil(new Flag() {
+            @Override
+            public boolean isComplete() {
+                return hydrated.get() == 1;
+            }
+        }, "Object added after clear was never stored", 5000);
+
+        assertNull(mStore.get("before"));
+        assertNotNull(mStore.get("after"));
+    }
+
+    public void testReportObjectsThatFailToBuild() throws Exception {
+        Note.Schema schema = new Note.Schema();
+        schema.addIndex(new BucketSchema.Indexer<Note>() {
+            @Override
+            public List<Index> index(Note note) {
+                throw new IllegalStateException("Indexer failed");
+            }
+        });
+        MockBucket<Note> bucket = new MockBucket<Note>(MockExecutor.immediate(), schema.getRemoteName(), schema,
+            MockUser.buildUser(), mStore, mGhostStore);
+        final AtomicInteger failed = new AtomicInteger();
+
+        bucket.addObjectWithGhost(new Ghost("broken", 1, new JSONObject()), new HydrationPipeline.Listener() {
+            @Override
+            public void onHydrated(int count) {
+                // the object never builds
+            }
+
+            @Override
+            public void onFailed(Ghost ghost) {
+                failed.incrementAndGet();
+            }
+        });
+
+        assertEquals(1, failed.get());
+        assertNull(mStore.get("broken"));
+    }
+
+}
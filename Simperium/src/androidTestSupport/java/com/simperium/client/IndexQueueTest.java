@@ -0,0 +1,146 @@
+package com.simperium.client;
+
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+public class IndexQueueTest extends TestCase {
+
+    public static final String TAG = "Simperium.Test";
+
+    static final int BENCHMARK_PAGE_SIZE = 10000;
+
+    public void testPollInInsertionOrder() {
+        IndexQueue queue = new IndexQueue();
+        queue.add("a", 1);
+        queue.add("b", 2);
+        queue.add("c", 3);
+
+        assertEquals("a", queue.poll().getKey());
+        assertEquals("b", queue.poll().getKey());
+        assertEquals("c", queue.poll().getKey());
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+        assertEquals(3, queue.requestedCount());
+    }
+
+    public void testCompleteRequiresMatchingRequestedVersion() {
+        IndexQueue queue = new IndexQueue();
+        queue.add("a", 1);
+
+        // not requested yet
+        assertNull(queue.complete("a", 1));
+
+        queue.poll();
+
+        assertNull(queue.complete("a", 2));
+        assertNull(queue.complete("b", 1));
+        assertNotNull(queue.complete("a", 1));
+        assertNull(queue.complete("a", 1));
+        assertEquals(0, queue.size());
+        assertEquals(0, queue.requestedCount());
+    }
+
+    public void testAddReplacesQueuedVersion() {
+        IndexQueue queue = new IndexQueue();
+        assertTrue(queue.add("a", 1));
+        assertFalse(queue.add("a", 2));
+
+        assertEquals(1, queue.waitingCount());
+        assertEquals(2, queue.poll().getVersion());
+
+        // newer version of a requested key replaces the outstanding request
+        assertFalse(queue.add("a", 3));
+        assertEquals(0, queue.requestedCount());
+        assertEquals(1, queue.waitingCount());
+        assertNull(queue.complete("a", 2));
+    }
+
+    public void testAddKeepsNewerVersion() {
+        IndexQueue queue = new IndexQueue();
+        queue.add("a", 3, 0);
+        assertFalse(queue.add("a", 2, 1));
+        assertEquals(3, queue.get("a").getVersion());
+        assertEquals(1, queue.get("a").getPage());
+
+        // an older or the same version doesn't replace the outstanding request
+        queue.poll();
+        assertFalse(queue.add("a", 2, 2));
+        assertFalse(queue.add("a", 3, 3));
+        assertEquals(1, queue.requestedCount());
+        assertEquals(0, queue.waitingCount());
+        assertEquals(3, queue.get("a").getPage());
+        assertNotNull(queue.complete("a", 3));
+    }
+
+    /**
+     * Compares a 10k entry index page processed with the previous synchronized list of
+     * "key.version" strings against IndexQueue. The list is quadratic in the page size since every
+     * received entity is found with a linear search, the queue is linear. Wall clock times depend
+     * on the device so only how the queue's time grows with the page size is checked.
+     */
+    public void testBenchmarkTenThousandEntryPage() {
+        int smallPage = BENCHMARK_PAGE_SIZE / 8;
+
+        // warm up both implementations
+        runListPage(smallPage);
+        runQueuePage(smallPage);
+
+        long listTime = runListPage(BENCHMARK_PAGE_SIZE);
+        long smallQueueTime = fastestQueuePage(smallPage);
+        long queueTime = fastestQueuePage(BENCHMARK_PAGE_SIZE);
+
+        Log.d(TAG, String.format(Locale.US, "Index page of %d entries: list %dms, IndexQueue %dms",
+            BENCHMARK_PAGE_SIZE, listTime / 1000000, queueTime / 1000000));
+
+        // a page 8 times larger takes about 8 times as long, a quadratic queue would take 64 times
+        double ratio = (double) queueTime / Math.max(smallQueueTime, 1);
+        assertTrue(String.format(Locale.US, "IndexQueue time grew %.1f times for an 8 times larger page", ratio),
+            ratio < 32);
+    }
+
+    private long fastestQueuePage(int size) {
+        long fastest = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            fastest = Math.min(fastest, runQueuePage(size));
+        }
+        return fastest;
+    }
+
+    /**
+     * Requests entities from the front of the page and receives them from the back, the worst
+     * case for a linear search.
+     */
+    private long runListPage(int size) {
+        List<String> queue = Collections.synchronizedList(new ArrayList<String>());
+        long start = System.nanoTime();
+        for (int i = 0; i < size; i++) {
+            queue.add(String.format(Locale.US, "%s.%d", "key" + i, 1));
+        }
+        for (int i = size - 1; i >= 0; i--) {
+            assertTrue(queue.remove(String.format(Locale.US, "%s.%d", "key" + i, 1)));
+        }
+        return System.nanoTime() - start;
+    }
+
+    private long runQueuePage(int size) {
+        IndexQueue queue = new IndexQueue();
+        long start = System.nanoTime();
+        for (int i = 0; i < size; i++) {
+            queue.add("key" + i, 1);
+        }
+        while (queue.poll() != null) {
+            // request everything
+        }
+        for (int i = size - 1; i >= 0; i--) {
+            assertNotNull(queue.complete("key" + i, 1));
+        }
+        return System.nanoTime() - start;
+    }
+
+}
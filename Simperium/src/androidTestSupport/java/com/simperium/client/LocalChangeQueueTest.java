@@ -0,0 +1,92 @@
+package com.simperium.client;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+
+public class LocalChangeQueueTest extends TestCase {
+
+    private LocalChangeQueue mQueue;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        mQueue = new LocalChangeQueue();
+    }
+
+    public void testModifyReplacesQueuedChanges() {
+        Change first = modify("note");
+        Change second = modify("note");
+
+        assertTrue(mQueue.queue(first).isEmpty());
+        List<Change> replaced = mQueue.queue(second);
+
+        assertEquals(1, replaced.size());
+        assertSame(first, replaced.get(0));
+        assertEquals(1, mQueue.size());
+        assertSame(second, mQueue.poll());
+    }
+
+    public void testRemoveKeepsQueuedModify() {
+        Change modify = modify("note");
+        Change remove = new Change(Change.OPERATION_REMOVE, "notes", "note");
+
+        mQueue.queue(modify);
+        assertTrue(mQueue.queue(remove).isEmpty());
+
+        assertEquals(2, mQueue.size());
+        assertSame(modify, mQueue.poll());
+        // the key is blocked until the modify is acknowledged
+        assertNull(mQueue.poll());
+
+        mQueue.unblock("note");
+        assertSame(remove, mQueue.poll());
+        assertTrue(mQueue.isEmpty());
+    }
+
+    public void testBlockedKeysAreSkipped() {
+        mQueue.block("pending");
+        mQueue.queue(modify("pending"));
+        mQueue.queue(modify("other"));
+
+        assertTrue(mQueue.hasReady());
+        assertEquals("other", mQueue.poll().getKey());
+        assertFalse(mQueue.hasReady());
+        assertEquals(1, mQueue.size());
+
+        mQueue.unblockAll();
+        assertEquals("pending", mQueue.poll().getKey());
+    }
+
+    public void testRemoveAllForKey() {
+        mQueue.queue(modify("note"));
+        mQueue.queue(new Change(Change.OPERATION_REMOVE, "notes", "note"));
+        mQueue.queue(modify("other"));
+
+        assertEquals(2, mQueue.removeAll("note").size());
+        assertEquals(1, mQueue.size());
+        assertFalse(mQueue.keys().contains("note"));
+        assertEquals("other", mQueue.poll().getKey());
+    }
+
+    public void testBulkEditsCompress() {
+        int count = 10000;
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < count; i++) {
+                mQueue.queue(modify("note" + i));
+            }
+        }
+
+        assertEquals(count, mQueue.size());
+
+        int sent = 0;
+        while (mQueue.poll() != null) {
+            sent ++;
+        }
+        assertEquals(count, sent);
+    }
+
+    private Change modify(String key) {
+        return new Change(Change.OPERATION_MODIFY, "notes", key);
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.simperium.client;
+
+import com.simperium.client.Channel.ObjectVersion;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+
+public class OutboxTest extends TestCase {
+
+    private Outbox mOutbox;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        mOutbox = new Outbox();
+    }
+
+    public void testKeepsRequestsInOrderOnce() {
+        assertTrue(mOutbox.add(new ObjectVersion("note", 2)));
+        assertTrue(mOutbox.add(new ObjectVersion("other", 1)));
+        assertFalse(mOutbox.add(new ObjectVersion("note", 2)));
+        assertTrue(mOutbox.add(new ObjectVersion("third", 1)));
+
+        List<ObjectVersion> pending = mOutbox.pending();
+        assertEquals(3, pending.size());
+        assertEquals("note.2", pending.get(0).toString());
+        assertEquals("other.1", pending.get(1).toString());
+        assertEquals("third.1", pending.get(2).toString());
+    }
+
+    public void testNewerVersionReplacesRequest() {
+        assertTrue(mOutbox.add(new ObjectVersion("note", 2)));
+        assertTrue(mOutbox.add(new ObjectVersion("other", 1)));
+        assertTrue(mOutbox.add(new ObjectVersion("note", 3)));
+        assertFalse(mOutbox.add(new ObjectVersion("note", 2)));
+
+        List<ObjectVersion> pending = mOutbox.pending();
+        assertEquals(2, pending.size());
+        assertEquals("other.1", pending.get(0).toString());
+        assertEquals("note.3", pending.get(1).toString());
+
+        // the response for the replaced version doesn't answer the newer request
+        assertFalse(mOutbox.remove(new ObjectVersion("note", 2)));
+        assertTrue(mOutbox.remove(new ObjectVersion("note", 3)));
+    }
+
+    public void testRemoveAnsweredRequest() {
+        mOutbox.add(new ObjectVersion("note", 2));
+
+        assertTrue(mOutbox.remove(new ObjectVersion("note", 2)));
+        assertFalse(mOutbox.remove(new ObjectVersion("note", 2)));
+        assertEquals(0, mOutbox.size());
+    }
+
+    public void testDropsOldestWhenFull() {
+        for (int i = 0; i <= Outbox.MAX_SIZE; i++) {
+            mOutbox.add(new ObjectVersion("note" + i, 1));
+        }
+
+        assertEquals(Outbox.MAX_SIZE, mOutbox.size());
+        assertEquals("note1.1", mOutbox.pending().get(0).toString());
+        assertEquals(1, mOutbox.getDroppedCount());
+
+        mOutbox.clearDropped();
+        assertEquals(0, mOutbox.getDroppedCount());
+    }
+
+}
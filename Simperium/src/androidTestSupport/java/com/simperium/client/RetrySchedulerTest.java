@@ -0,0 +1,84 @@
+package com.simperium.client;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class RetrySchedulerTest extends TestCase {
+
+    private ScheduledExecutorService mExecutor;
+    private RetryScheduler mScheduler;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        mExecutor = Executors.newSingleThreadScheduledExecutor();
+        mScheduler = new RetryScheduler(mExecutor, new Random(42));
+    }
+
+    protected void tearDown() throws Exception {
+        mExecutor.shutdownNow();
+        super.tearDown();
+    }
+
+    public void testDelayBacksOffWithJitter() {
+        for (int attempt = 0; attempt < 4; attempt++) {
+            long max = RetryScheduler.INITIAL_DELAY_MS << attempt;
+            for (int i = 0; i < 100; i++) {
+                long delay = mScheduler.getDelay(attempt);
+                assertTrue("Delay below half the backoff: " + delay, delay >= max / 2);
+                assertTrue("Delay above the backoff: " + delay, delay <= max);
+            }
+        }
+    }
+
+    public void testDelayIsCapped() {
+        assertTrue(mScheduler.getDelay(100) <= RetryScheduler.MAX_DELAY_MS);
+        assertTrue(mScheduler.getDelay(100) >= RetryScheduler.MAX_DELAY_MS / 2);
+    }
+
+    public void testResumeDelaySpreadsLargeBacklogs() {
+        long window = 10000 * RetryScheduler.RESUME_SPACING_MS;
+        long largest = 0;
+        for (int i = 0; i < 1000; i++) {
+            long delay = mScheduler.getResumeDelay(10000);
+            assertTrue(delay >= 0 && delay < window);
+            largest = Math.max(largest, delay);
+        }
+        assertTrue("Backlog should be spread beyond the initial delay", largest > RetryScheduler.INITIAL_DELAY_MS);
+    }
+
+    public void testChangeRetryMetadata() throws Exception {
+        final CountDownLatch retried = new CountDownLatch(1);
+        Change change = new Change(Change.OPERATION_MODIFY, "notes", "note");
+        change.setOnRetryListener(new Change.OnRetryListener() {
+            @Override
+            public void onRetry(Change change) {
+                retried.countDown();
+            }
+        });
+
+        change.scheduleRetry(mScheduler, 10);
+        assertTrue(change.isRetryScheduled());
+        assertTrue(change.getNextRetryTime() > 0);
+
+        assertTrue("Change was never retried", retried.await(1, TimeUnit.SECONDS));
+        assertEquals(1, change.getRetryAttempts());
+        assertFalse(change.isRetryScheduled());
+    }
+
+    public void testCancelRetry() throws Exception {
+        Change change = new Change(Change.OPERATION_MODIFY, "notes", "note");
+        change.scheduleRetry(mScheduler, 10);
+        change.cancelRetry();
+
+        Thread.sleep(50);
+
+        assertEquals(0, change.getRetryAttempts());
+        assertEquals(0, change.getNextRetryTime());
+    }
+
+}
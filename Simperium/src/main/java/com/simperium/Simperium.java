@@ -120,17 +120,32 @@ public class Simperium implements User.StatusChangeListener {
         return bucket(bucketName, schema, mStorageProvider.createStore(bucketName, schema));
     }
 
+    /**
+     * Creates a bucket that syncs over the named connection instead of the one shared by the
+     * other buckets, see ChannelProvider.buildChannel(Bucket, String)
+     */
+    public <T extends Syncable> Bucket<T> bucket(String bucketName, BucketSchema<T> schema, String connection)
+    throws BucketNameInvalid {
+        return bucket(bucketName, schema, mStorageProvider.createStore(bucketName, schema), connection);
+    }
+
     /**
      * Allow alternate storage mechanisms
      */
     public <T extends Syncable> Bucket<T> bucket(String bucketName, BucketSchema<T> schema, BucketStore<T> storage)
+    throws BucketNameInvalid {
+        return bucket(bucketName, schema, storage, ChannelProvider.DEFAULT_CONNECTION);
+    }
+
+    public <T extends Syncable> Bucket<T> bucket(String bucketName, BucketSchema<T> schema, BucketStore<T> storage,
+        String connection)
     throws BucketNameInvalid {
 
         // initialize the bucket
         Bucket<T> bucket = new Bucket<T>(mExecutor, bucketName, schema, user, storage, mGhostStorageProvider);
 
         // initialize the communication method for the bucket
-        Bucket.Channel channel = mChannelProvider.buildChannel(bucket);
+        Bucket.Channel channel = mChannelProvider.buildChannel(bucket, connection);
 
         // tell the bucket about the channel
         bucket.setChannel(channel);
@@ -14,9 +14,12 @@ import com.simperium.Version;
 import com.simperium.client.ClientFactory;
 import com.simperium.util.Uuid;
 
+import java.security.GeneralSecurityException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ExecutorService;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
 
 import android.util.Log;
@@ -35,12 +38,18 @@ public class AndroidClient implements ClientFactory {
     public static final String WEBSOCKET_URL = "https://api.simperium.com/sock/1/%s/websocket";
     public static final String USER_AGENT_HEADER = "User-Agent";
 
+    // websocket transports buildChannelProvider can use
+    public static final int TRANSPORT_ANDROID_ASYNC = 0;
+    public static final int TRANSPORT_SOCKET = 1;
+
     protected Context mContext;
     protected SQLiteDatabase mDatabase;
     protected final String mSessionId;
 
     protected ExecutorService mExecutor;
     protected AsyncHttpClient mHttpClient = AsyncHttpClient.getDefaultInstance();
+    protected int mTransport = TRANSPORT_ANDROID_ASYNC;
+    private SSLSocketFactory mSSLSocketFactory;
 
     public AndroidClient(Context context){
         int threads = Runtime.getRuntime().availableProcessors();
@@ -84,6 +93,30 @@ public class AndroidClient implements ClientFactory {
                                        new String[] { BuildConfig.SIMPERIUM_COM_SPKI }, 0);
     }
 
+    /**
+     * Choose the websocket transport used by channel providers built after this call
+     */
+    public void setTransport(int transport) {
+        mTransport = transport;
+    }
+
+    /**
+     * Pinned socket factory shared by every socket transport connection so TLS sessions are
+     * resumed when reconnecting
+     */
+    protected synchronized SSLSocketFactory getSSLSocketFactory() {
+        if (mSSLSocketFactory == null) {
+            try {
+                SSLContext context = SSLContext.getInstance("TLS");
+                context.init(null, new TrustManager[] { buildPinnedTrustManager(mContext) }, null);
+                mSSLSocketFactory = context.getSocketFactory();
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Unable to initialize TLS", e);
+            }
+        }
+        return mSSLSocketFactory;
+    }
+
     public static SharedPreferences sharedPreferences(Context context){
         return context.getSharedPreferences(SHARED_PREFERENCES_NAME, Context.MODE_PRIVATE);
     }
@@ -96,7 +129,12 @@ public class AndroidClient implements ClientFactory {
     @Override
     public WebSocketManager buildChannelProvider(String appId){
         // Simperium Bucket API
-        WebSocketManager.ConnectionProvider provider = new AsyncWebSocketProvider(appId, mSessionId, mHttpClient);
+        WebSocketManager.ConnectionProvider provider;
+        if (mTransport == TRANSPORT_SOCKET) {
+            provider = new SocketWebSocketProvider(String.format(WEBSOCKET_URL, appId), mSessionId, getSSLSocketFactory());
+        } else {
+            provider = new AsyncWebSocketProvider(appId, mSessionId, mHttpClient);
+        }
         return new WebSocketManager(mExecutor, appId, mSessionId, new QueueSerializer(mDatabase), provider, mContext);
     }
 
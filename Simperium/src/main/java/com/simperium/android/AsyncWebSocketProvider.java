@@ -1,8 +1,6 @@
 package com.simperium.android;
 
 import android.net.Uri;
-import android.os.Handler;
-import android.os.Looper;
 
 import com.koushikdutta.async.callback.CompletedCallback;
 import com.koushikdutta.async.http.AsyncHttpClient;
@@ -17,7 +15,6 @@ class AsyncWebSocketProvider implements WebSocketManager.ConnectionProvider {
     public static final String TAG = "Simperium.AsyncWebSocketProvider";
 
     private final AsyncHttpClient mAsyncClient;
-    private final Handler mHandler;
     private final String mAppId;
     private final String mSessionId;
 
@@ -25,7 +22,6 @@ class AsyncWebSocketProvider implements WebSocketManager.ConnectionProvider {
         mAppId = appId;
         mAsyncClient = asyncClient;
         mSessionId = sessionId;
-        mHandler = new Handler(Looper.getMainLooper());
     }
 
     @Override
@@ -48,31 +44,12 @@ class AsyncWebSocketProvider implements WebSocketManager.ConnectionProvider {
                     return;
                 }
 
-                final WebSocketManager.Connection connection = new WebSocketManager.Connection() {
-                    @Override
-                    public void close() {
-                        mHandler.post(new Runnable() {
-                                @Override
-                            public void run() {
-                                webSocket.close();
-                            }
-                        });
-                    }
-
-                    @Override
-                    public void send(final String message) {
-                        mHandler.post(new Runnable() {
-                            @Override
-                            public void run() {
-                                webSocket.send(message);
-                            }
-                        });
-                    }
-                };
+                final QueuedConnection connection = new QueuedConnection(webSocket);
 
                 webSocket.setStringCallback(new WebSocket.StringCallback() {
                    @Override
                    public void onStringAvailable(String s) {
+                       connection.setInboundThread(Thread.currentThread());
                        listener.onMessage(s);
                    }
                 });
@@ -80,6 +57,7 @@ class AsyncWebSocketProvider implements WebSocketManager.ConnectionProvider {
                 webSocket.setEndCallback(new CompletedCallback() {
                     @Override
                     public void onCompleted(Exception ex) {
+                        connection.close();
                         listener.onDisconnect(ex);
                     }
                 });
@@ -87,12 +65,72 @@ class AsyncWebSocketProvider implements WebSocketManager.ConnectionProvider {
                 webSocket.setClosedCallback(new CompletedCallback() {
                     @Override
                     public void onCompleted(Exception ex) {
+                        connection.close();
                         listener.onDisconnect(ex);
                     }
                 });
 
+                connection.start();
                 listener.onConnect(connection);
             }
         });
     }
+
+    /**
+     * Writes to the websocket from its own thread instead of the main looper
+     */
+    static class QueuedConnection implements WebSocketManager.Connection, OutboundQueue.Writer {
+
+        private final WebSocket mWebSocket;
+        private final OutboundQueue mQueue;
+
+        QueuedConnection(WebSocket webSocket) {
+            mWebSocket = webSocket;
+            mQueue = new OutboundQueue("simperium.websocket.writer", this);
+        }
+
+        void start() {
+            mQueue.start();
+        }
+
+        /**
+         * Messages are delivered on the given thread, sends from it don't wait for the writer
+         */
+        void setInboundThread(Thread thread) {
+            mQueue.setInboundThread(thread);
+        }
+
+        @Override
+        public void send(String message) {
+            mQueue.send(message);
+        }
+
+        @Override
+        public void close() {
+            mQueue.close();
+        }
+
+        @Override
+        public void write(String message) {
+            mWebSocket.send(message);
+        }
+
+        /**
+         * Called by the queue's writer after the queued messages have been written
+         */
+        @Override
+        public void onClose() {
+            mWebSocket.close();
+        }
+
+        /**
+         * The queue is full and dropped its messages, the closed callback reports the disconnect
+         */
+        @Override
+        public void onOverflow() {
+            mWebSocket.close();
+        }
+
+    }
+
 }
@@ -0,0 +1,49 @@
+package com.simperium.android;
+
+import java.util.Random;
+
+/**
+ * Reconnect delays that back off exponentially with decorrelated jitter: each delay is picked
+ * at random between the base delay and three times the previous delay, capped at the maximum.
+ *
+ * Clients dropped by the same server restart spread their reconnects out instead of all coming
+ * back together.
+ */
+public class BackoffReconnectPolicy implements WebSocketManager.ReconnectPolicy {
+
+    public static final long BASE_DELAY_MS = 1000;
+    public static final long MAX_DELAY_MS = 60 * 1000;
+
+    final private long mBaseDelay;
+    final private long mMaxDelay;
+    final private Random mRandom;
+    private long mLastDelay;
+
+    public BackoffReconnectPolicy() {
+        this(BASE_DELAY_MS, MAX_DELAY_MS, new Random());
+    }
+
+    public BackoffReconnectPolicy(long baseDelay, long maxDelay, Random random) {
+        mBaseDelay = baseDelay;
+        mMaxDelay = maxDelay;
+        mRandom = random;
+        mLastDelay = baseDelay;
+    }
+
+    @Override
+    synchronized public long nextReconnectInterval() {
+        long upper = Math.min(mMaxDelay, mLastDelay * 3);
+        long delay = mBaseDelay;
+        if (upper > mBaseDelay) {
+            delay += (long) (mRandom.nextDouble() * (upper - mBaseDelay));
+        }
+        mLastDelay = delay;
+        return delay;
+    }
+
+    @Override
+    synchronized public void reset() {
+        mLastDelay = mBaseDelay;
+    }
+
+}
@@ -0,0 +1,135 @@
+package com.simperium.android;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * SQLiteStatements compiled the first time they are run and reused after that, so frequent
+ * writes don't build SQL or ContentValues and arguments are bound directly by their type.
+ *
+ * Each statement is compiled once for the store and shared by every thread. A statement is
+ * bound and run inside a transaction, so the thread using it holds the database's write
+ * connection and no other thread can bind it at the same time. Taking the write connection
+ * before the statement lock keeps a thread that already holds a transaction from waiting on a
+ * thread that waits for that transaction.
+ */
+class CompiledStatements {
+
+    final private SQLiteDatabase mDatabase;
+    final private Map<String,SQLiteStatement> mStatements = new HashMap<>();
+
+    CompiledStatements(SQLiteDatabase database) {
+        mDatabase = database;
+    }
+
+    /**
+     * The compiled statement for the SQL, only use it while holding the lock on mStatements
+     */
+    private SQLiteStatement compile(String sql) {
+        SQLiteStatement statement = mStatements.get(sql);
+        if (statement == null) {
+            statement = mDatabase.compileStatement(sql);
+            mStatements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    /**
+     * Run an INSERT, returns the row id of the new row or -1
+     */
+    long insert(String sql, Object... args) {
+        beginWrite();
+        try {
+            synchronized(mStatements) {
+                SQLiteStatement statement = compile(sql);
+                try {
+                    bind(statement, args);
+                    return statement.executeInsert();
+                } finally {
+                    statement.clearBindings();
+                }
+            }
+        } finally {
+            endWrite();
+        }
+    }
+
+    /**
+     * Run an UPDATE or DELETE, returns the number of rows changed
+     */
+    int update(String sql, Object... args) {
+        beginWrite();
+        try {
+            synchronized(mStatements) {
+                SQLiteStatement statement = compile(sql);
+                try {
+                    bind(statement, args);
+                    return statement.executeUpdateDelete();
+                } finally {
+                    statement.clearBindings();
+                }
+            }
+        } finally {
+            endWrite();
+        }
+    }
+
+    private void beginWrite() {
+        mDatabase.beginTransactionNonExclusive();
+    }
+
+    private void endWrite() {
+        // SQLite undoes a failed statement on its own, it doesn't fail the caller's transaction
+        mDatabase.setTransactionSuccessful();
+        mDatabase.endTransaction();
+    }
+
+    /**
+     * Update the row and insert it when the update didn't change anything. The insert should be
+     * an INSERT OR REPLACE so a row added by another thread in between is replaced instead of
+     * failing the unique constraint.
+     *
+     * Android's SQLite only supports INSERT ... ON CONFLICT DO UPDATE from API 30.
+     */
+    void upsert(String update, Object[] updateArgs, String insert, Object[] insertArgs) {
+        beginWrite();
+        try {
+            if (update(update, updateArgs) == 0) {
+                insert(insert, insertArgs);
+            }
+        } finally {
+            endWrite();
+        }
+    }
+
+    static void bind(SQLiteStatement statement, Object[] args) {
+        for (int i = 0; i < args.length; i++) {
+            bind(statement, i + 1, args[i]);
+        }
+    }
+
+    /**
+     * Binds values the way ContentValues stores them
+     */
+    static void bind(SQLiteStatement statement, int index, Object value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else if (value instanceof String) {
+            statement.bindString(index, (String) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            statement.bindDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            statement.bindLong(index, ((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            statement.bindLong(index, (Boolean) value ? 1 : 0);
+        } else if (value instanceof byte[]) {
+            statement.bindBlob(index, (byte[]) value);
+        } else {
+            statement.bindString(index, value.toString());
+        }
+    }
+
+}
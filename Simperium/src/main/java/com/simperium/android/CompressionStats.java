@@ -0,0 +1,98 @@
+package com.simperium.android;
+
+import java.util.Locale;
+
+/**
+ * Counts the bytes of messages sent and received over a websocket before and after compression.
+ * A compression ratio of 5 means the messages took a fifth of their size on the wire.
+ */
+public class CompressionStats {
+
+    private long mSentMessages, mSentCompressed, mSentBytes, mSentWireBytes;
+    private long mReceivedMessages, mReceivedCompressed, mReceivedBytes, mReceivedWireBytes;
+
+    synchronized void recordSent(int size, int wireSize, boolean compressed) {
+        mSentMessages ++;
+        if (compressed) mSentCompressed ++;
+        mSentBytes += size;
+        mSentWireBytes += wireSize;
+    }
+
+    synchronized void recordReceived(int size, int wireSize, boolean compressed) {
+        mReceivedMessages ++;
+        if (compressed) mReceivedCompressed ++;
+        mReceivedBytes += size;
+        mReceivedWireBytes += wireSize;
+    }
+
+    public synchronized long getSentMessages() {
+        return mSentMessages;
+    }
+
+    public synchronized long getSentCompressedMessages() {
+        return mSentCompressed;
+    }
+
+    public synchronized long getSentBytes() {
+        return mSentBytes;
+    }
+
+    public synchronized long getSentWireBytes() {
+        return mSentWireBytes;
+    }
+
+    public synchronized long getReceivedMessages() {
+        return mReceivedMessages;
+    }
+
+    public synchronized long getReceivedCompressedMessages() {
+        return mReceivedCompressed;
+    }
+
+    public synchronized long getReceivedBytes() {
+        return mReceivedBytes;
+    }
+
+    public synchronized long getReceivedWireBytes() {
+        return mReceivedWireBytes;
+    }
+
+    /**
+     * Size of sent messages divided by the bytes they took on the wire, 1 when nothing was sent
+     */
+    public synchronized double getSentRatio() {
+        return ratio(mSentBytes, mSentWireBytes);
+    }
+
+    /**
+     * Size of received messages divided by the bytes they took on the wire, 1 when nothing was
+     * received
+     */
+    public synchronized double getReceivedRatio() {
+        return ratio(mReceivedBytes, mReceivedWireBytes);
+    }
+
+    /**
+     * Compression ratio of everything sent and received
+     */
+    public synchronized double getCompressionRatio() {
+        return ratio(mSentBytes + mReceivedBytes, mSentWireBytes + mReceivedWireBytes);
+    }
+
+    public synchronized void reset() {
+        mSentMessages = mSentCompressed = mSentBytes = mSentWireBytes = 0;
+        mReceivedMessages = mReceivedCompressed = mReceivedBytes = mReceivedWireBytes = 0;
+    }
+
+    private static double ratio(long bytes, long wireBytes) {
+        if (wireBytes == 0) return 1;
+        return (double) bytes / wireBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "CompressionStats sent %d bytes as %d, received %d bytes as %d (%.2fx)",
+            mSentBytes, mSentWireBytes, mReceivedBytes, mReceivedWireBytes, getCompressionRatio());
+    }
+
+}
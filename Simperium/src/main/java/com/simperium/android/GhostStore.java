@@ -1,6 +1,5 @@
 package com.simperium.android;
 
-import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.text.TextUtils;
@@ -9,34 +8,54 @@ import com.simperium.client.Bucket;
 import com.simperium.client.Ghost;
 import com.simperium.client.GhostMissingException;
 import com.simperium.client.GhostStorageProvider;
+import com.simperium.client.IndexCheckpoint;
 import com.simperium.util.Logger;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 public class GhostStore implements GhostStorageProvider {
 
     private static final String GHOSTS_TABLE_NAME="ghosts";
     private static final String VERSIONS_TABLE_NAME="changeVersions";
     private static final String CREATE_TABLE_GHOSTS="CREATE TABLE IF NOT EXISTS ghosts (id INTEGER PRIMARY KEY AUTOINCREMENT, bucketName VARCHAR(63), simperiumKey VARCHAR(255), version INTEGER, payload TEXT, UNIQUE(bucketName, simperiumKey) ON CONFLICT REPLACE)";
     private static final String CREATE_TABLE_CHANGE_VERSIONS="CREATE TABLE IF NOT EXISTS changeVersions (id INTEGER PRIMARY KEY AUTOINCREMENT, bucketName VARCHAR(63), changeVersion VARCHAR(255), UNIQUE(bucketName))";
+    private static final String CHECKPOINTS_TABLE_NAME="indexCheckpoints";
+    private static final String CREATE_TABLE_INDEX_CHECKPOINTS="CREATE TABLE IF NOT EXISTS indexCheckpoints (id INTEGER PRIMARY KEY AUTOINCREMENT, bucketName VARCHAR(63), mark VARCHAR(255), changeVersion VARCHAR(255), UNIQUE(bucketName) ON CONFLICT REPLACE)";
     private static final Integer VERSION=1;
     private static final String BUCKET_NAME_FIELD="bucketName";
     private static final String VERSION_FIELD="version";
     private static final String OBJECT_KEY_FIELD="simperiumKey";
     private static final String PAYLOAD_FIELD="payload";
     private static final String CHANGE_VERSION_FIELD="changeVersion";
+    private static final String MARK_FIELD="mark";
+    // stay well below SQLITE_MAX_VARIABLE_NUMBER (999) when binding keys
+    private static final int MAX_KEYS_PER_QUERY=500;
+    private static final String UPDATE_CHANGE_VERSION="UPDATE changeVersions SET changeVersion=? WHERE bucketName=?";
+    private static final String INSERT_CHANGE_VERSION="INSERT OR REPLACE INTO changeVersions (bucketName, changeVersion) VALUES (?, ?)";
+    private static final String INSERT_GHOST="INSERT OR REPLACE INTO ghosts (bucketName, simperiumKey, version, payload) VALUES (?, ?, ?, ?)";
+    private static final String DELETE_GHOST="DELETE FROM ghosts WHERE bucketName=? AND simperiumKey=?";
+    private static final String INSERT_CHECKPOINT="INSERT OR REPLACE INTO indexCheckpoints (bucketName, mark, changeVersion) VALUES (?, ?, ?)";
 
     private SQLiteDatabase database;
+    final private CompiledStatements statements;
 
     public GhostStore(SQLiteDatabase database) {
         this.database = database;
         prepare();
+        statements = new CompiledStatements(database);
     }
 
     private void prepare() {
         database.execSQL(CREATE_TABLE_GHOSTS);
         database.execSQL(CREATE_TABLE_CHANGE_VERSIONS);
+        database.execSQL(CREATE_TABLE_INDEX_CHECKPOINTS);
         database.execSQL(String.format("CREATE UNIQUE INDEX IF NOT EXISTS ghost_version ON ghosts (bucketName, simperiumKey, version)"));
         database.setVersion(VERSION);
     }
@@ -44,6 +63,7 @@ public class GhostStore implements GhostStorageProvider {
     protected void reset() {
         database.delete(GHOSTS_TABLE_NAME, null, null);
         database.delete(VERSIONS_TABLE_NAME, null, null);
+        database.delete(CHECKPOINTS_TABLE_NAME, null, null);
     }
 
     @Override
@@ -52,6 +72,7 @@ public class GhostStore implements GhostStorageProvider {
         String where = "bucketName=?";
         database.delete(GHOSTS_TABLE_NAME, where, args);
         database.delete(VERSIONS_TABLE_NAME, where, args);
+        database.delete(CHECKPOINTS_TABLE_NAME, where, args);
     }
 
     protected Cursor queryChangeVersion(Bucket bucket) {
@@ -93,29 +114,39 @@ public class GhostStore implements GhostStorageProvider {
             return;
         }
 
-        ContentValues values = new ContentValues();
-        String where = "bucketName=?";
+        // the update tells if the row exists instead of reading the version first
+        statements.upsert(UPDATE_CHANGE_VERSION, new Object[]{ cv, bucket.getName() },
+            INSERT_CHANGE_VERSION, new Object[]{ bucket.getName(), cv });
+    }
+
+    @Override
+    public IndexCheckpoint getIndexCheckpoint(Bucket bucket) {
+        String[] columns = { MARK_FIELD, CHANGE_VERSION_FIELD };
         String[] args = { bucket.getName() };
-        values.put(CHANGE_VERSION_FIELD, cv);
-        values.put(BUCKET_NAME_FIELD, bucket.getName());
-        if (hasChangeVersion(bucket)) {
-            database.update(VERSIONS_TABLE_NAME, values, where, args);
-        } else {
-            database.insert(VERSIONS_TABLE_NAME, null, values);
+        try (Cursor cursor = database.query(CHECKPOINTS_TABLE_NAME, columns, "bucketName=?", args, null, null, null)) {
+            if (cursor.moveToFirst()) {
+                return new IndexCheckpoint(cursor.getString(0), cursor.getString(1));
+            }
         }
+        return null;
+    }
+
+    @Override
+    public void setIndexCheckpoint(Bucket bucket, IndexCheckpoint checkpoint) {
+        statements.insert(INSERT_CHECKPOINT, bucket.getName(), checkpoint.getMark(), checkpoint.getChangeVersion());
+    }
+
+    @Override
+    public void clearIndexCheckpoint(Bucket bucket) {
+        String[] args = { bucket.getName() };
+        database.delete(CHECKPOINTS_TABLE_NAME, "bucketName=?", args);
     }
 
     @Override
     public void saveGhost(Bucket bucket, Ghost ghost) {
         // CREATE/UPDATE
-        ContentValues values = new ContentValues();
-        values.put(BUCKET_NAME_FIELD, bucket.getName());
-        values.put(VERSION_FIELD, ghost.getVersion());
-        values.put(OBJECT_KEY_FIELD, ghost.getSimperiumKey());
-        String payload = serializeGhostData(ghost);
-        values.put(PAYLOAD_FIELD, payload);
-
-        database.insertWithOnConflict(GHOSTS_TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+        statements.insert(INSERT_GHOST, bucket.getName(), ghost.getSimperiumKey(), ghost.getVersion(),
+            serializeGhostData(ghost));
     }
 
     @Override
@@ -153,6 +184,48 @@ public class GhostStore implements GhostStorageProvider {
         return version;
     }
 
+    /**
+     * Reads only the version column, the (bucketName, simperiumKey, version) index covers the
+     * query so the ghost payloads are never loaded.
+     */
+    @Override
+    public Map<String,Integer> getGhostVersions(Bucket bucket, Collection<String> keys) {
+        Map<String,Integer> versions = new HashMap<>(keys.size());
+        List<String> batch = new ArrayList<>(Math.min(keys.size(), MAX_KEYS_PER_QUERY));
+
+        for (String key : keys) {
+            batch.add(key);
+            if (batch.size() == MAX_KEYS_PER_QUERY) {
+                queryGhostVersions(bucket, batch, versions);
+                batch.clear();
+            }
+        }
+
+        if (batch.size() > 0) {
+            queryGhostVersions(bucket, batch, versions);
+        }
+
+        return versions;
+    }
+
+    private void queryGhostVersions(Bucket bucket, List<String> keys, Map<String,Integer> versions) {
+        StringBuilder where = new StringBuilder("bucketName=? AND simperiumKey IN (");
+        String[] args = new String[keys.size() + 1];
+        args[0] = bucket.getName();
+        for (int i = 0; i < keys.size(); i++) {
+            where.append(i == 0 ? "?" : ",?");
+            args[i + 1] = keys.get(i);
+        }
+        where.append(")");
+
+        String[] columns = { OBJECT_KEY_FIELD, VERSION_FIELD };
+        try (Cursor cursor = database.query(GHOSTS_TABLE_NAME, columns, where.toString(), args, null, null, null)) {
+            while (cursor.moveToNext()) {
+                versions.put(cursor.getString(0), cursor.getInt(1));
+            }
+        }
+    }
+
     @Override
     public boolean hasGhost(Bucket bucket, String key) {
         try {
@@ -165,9 +238,7 @@ public class GhostStore implements GhostStorageProvider {
 
     @Override
     public void deleteGhost(Bucket bucket, String key) {
-        String where = "bucketName=? AND simperiumKey=?";
-        String[] args = { bucket.getName(), key };
-        database.delete(GHOSTS_TABLE_NAME, where, args);
+        statements.update(DELETE_GHOST, bucket.getName(), key);
     }
 
     private String serializeGhostData(Ghost ghost) {
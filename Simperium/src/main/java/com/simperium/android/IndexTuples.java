@@ -0,0 +1,128 @@
+package com.simperium.android;
+
+import com.simperium.client.BucketSchema.Index;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The index values of an object grouped by index name. Values are kept the way SQLite stores
+ * them so values read back from the indexes table compare equal to freshly computed ones.
+ *
+ * The hash identifies the values of an object so a save that doesn't change them can skip
+ * index maintenance, names whose values differ are the only rows that need rewriting.
+ */
+class IndexTuples {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    final private Map<String,List<Object>> mValues = new TreeMap<>();
+
+    static IndexTuples from(List<Index> indexes) {
+        IndexTuples tuples = new IndexTuples();
+        for (Index index : indexes) {
+            tuples.add(index.getName(), index.getValue());
+        }
+        return tuples;
+    }
+
+    void add(String name, Object value) {
+        List<Object> values = mValues.get(name);
+        if (values == null) {
+            values = new ArrayList<>(1);
+            mValues.put(name, values);
+        }
+        values.add(storedValue(value));
+    }
+
+    Set<String> names() {
+        return mValues.keySet();
+    }
+
+    /**
+     * Values of the index in the order they were added, empty when there are none
+     */
+    List<Object> get(String name) {
+        List<Object> values = mValues.get(name);
+        return values == null ? Collections.emptyList() : values;
+    }
+
+    /**
+     * If both have the same values for the index, in any order
+     */
+    boolean sameValues(IndexTuples other, String name) {
+        return encoded(get(name)).equals(encoded(other.get(name)));
+    }
+
+    long hash() {
+        long hash = FNV_OFFSET;
+        for (Map.Entry<String,List<Object>> entry : mValues.entrySet()) {
+            hash = hash(hash, entry.getKey());
+            for (String value : encoded(entry.getValue())) {
+                hash = hash(hash, value);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Hash of full text column values
+     */
+    static long hash(Map<String,String> values) {
+        long hash = FNV_OFFSET;
+        for (Map.Entry<String,String> entry : new TreeMap<>(values).entrySet()) {
+            hash = hash(hash, entry.getKey());
+            hash = hash(hash, entry.getValue() == null ? "n" : "s" + entry.getValue());
+        }
+        return hash;
+    }
+
+    /**
+     * The value as it is read back after CompiledStatements binds it
+     */
+    static Object storedValue(Object value) {
+        if (value == null || value instanceof String) {
+            return value;
+        } else if (value instanceof Double || value instanceof Float) {
+            return ((Number) value).doubleValue();
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        } else if (value instanceof Boolean) {
+            return (Boolean) value ? 1L : 0L;
+        }
+        return value.toString();
+    }
+
+    private static List<String> encoded(List<Object> values) {
+        List<String> encoded = new ArrayList<>(values.size());
+        for (Object value : values) {
+            if (value == null) {
+                encoded.add("n");
+            } else if (value instanceof String) {
+                encoded.add("s" + value);
+            } else if (value instanceof Double) {
+                encoded.add("d" + value);
+            } else {
+                encoded.add("l" + value);
+            }
+        }
+        Collections.sort(encoded);
+        return encoded;
+    }
+
+    private static long hash(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+            hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+        }
+        // separates the value from the next one
+        return (hash ^ 0xff) * FNV_PRIME;
+    }
+
+}
@@ -0,0 +1,192 @@
+package com.simperium.android;
+
+import com.simperium.util.Logger;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Messages waiting to be written to a websocket. Any thread can add messages, a single writer
+ * thread drains up to BATCH_SIZE of them at a time, writes them in order and, when the writer is
+ * Flushable, flushes once.
+ *
+ * Senders wait while the queue holds CAPACITY messages so a socket that can't keep up slows down
+ * the channels instead of buffering without limit. The writer thread and the thread delivering
+ * the socket's messages never wait, replies sent while handling a message must not hold up
+ * reading the socket, they may queue up to MAX_SIZE messages instead.
+ *
+ * A send that still finds no room after waiting MAX_WAIT_MS overflows the queue: the queued
+ * messages are dropped, the queue is closed and the writer's onOverflow drops the connection.
+ * The channels resend what they were waiting on once they reconnect.
+ */
+class OutboundQueue implements Runnable {
+
+    public static final String TAG = "Simperium.OutboundQueue";
+    public static final int CAPACITY = 256;
+    public static final int MAX_SIZE = CAPACITY * 2;
+    public static final int BATCH_SIZE = 32;
+    public static final long MAX_WAIT_MS = 2000;
+
+    /**
+     * Writers that are also Flushable are flushed after each batch of writes
+     */
+    interface Writer {
+        void write(String message);
+        // called by the writer thread once the messages queued before close() are written
+        void onClose();
+        // called by the overflowing sender, the writer thread may be stuck in write()
+        void onOverflow();
+    }
+
+    // compared by identity so no sent message can be mistaken for it
+    private static final String CLOSE = new String("close");
+
+    final private Writer mWriter;
+    final private String mName;
+    final private LinkedBlockingQueue<String> mQueue = new LinkedBlockingQueue<>();
+    final private Object mCapacityLock = new Object();
+    private volatile Thread mThread;
+    private volatile Thread mInboundThread;
+    private volatile boolean mClosed = false;
+
+    OutboundQueue(String name, Writer writer) {
+        mName = name;
+        mWriter = writer;
+    }
+
+    synchronized public void start() {
+        if (mThread != null) {
+            return;
+        }
+        mThread = new Thread(this, mName);
+        mThread.start();
+    }
+
+    /**
+     * The thread the socket's messages are delivered on, its sends are queued without waiting
+     */
+    public void setInboundThread(Thread thread) {
+        mInboundThread = thread;
+    }
+
+    /**
+     * Queue the message, waiting for room if the writer is behind. Returns false when the queue
+     * has been closed or overflowed.
+     */
+    public boolean send(String message) {
+        if (mClosed) {
+            return false;
+        }
+
+        Thread current = Thread.currentThread();
+        boolean full = false;
+        if (mQueue.size() >= CAPACITY && current != mThread && current != mInboundThread) {
+            long deadline = System.currentTimeMillis() + MAX_WAIT_MS;
+            synchronized(mCapacityLock) {
+                try {
+                    long remaining;
+                    while (!mClosed && mQueue.size() >= CAPACITY &&
+                            (remaining = deadline - System.currentTimeMillis()) > 0) {
+                        mCapacityLock.wait(remaining);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            full = mQueue.size() >= CAPACITY;
+        }
+
+        if (mClosed) {
+            return false;
+        }
+        if (full || mQueue.size() >= MAX_SIZE) {
+            overflow();
+            return false;
+        }
+        mQueue.add(message);
+        return true;
+    }
+
+    /**
+     * Number of messages waiting to be written
+     */
+    public int size() {
+        return mQueue.size();
+    }
+
+    /**
+     * Close the writer once the messages already queued have been written
+     */
+    public void close() {
+        mClosed = true;
+        mQueue.add(CLOSE);
+        synchronized(mCapacityLock) {
+            mCapacityLock.notifyAll();
+        }
+    }
+
+    /**
+     * The writer is not keeping up, drop what is queued and let the writer drop the connection
+     */
+    private void overflow() {
+        synchronized(mCapacityLock) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            mCapacityLock.notifyAll();
+        }
+        Logger.log(TAG, String.format("%s is full, dropping %d messages", mName, mQueue.size()));
+        mQueue.clear();
+        mQueue.add(CLOSE);
+        mWriter.onOverflow();
+    }
+
+    @Override
+    public void run() {
+        List<String> batch = new ArrayList<>(BATCH_SIZE);
+        while (true) {
+            try {
+                batch.add(mQueue.take());
+                mQueue.drainTo(batch, BATCH_SIZE - 1);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            synchronized(mCapacityLock) {
+                mCapacityLock.notifyAll();
+            }
+
+            for (String message : batch) {
+                if (message == CLOSE) {
+                    flush();
+                    mWriter.onClose();
+                    return;
+                }
+                try {
+                    mWriter.write(message);
+                } catch (RuntimeException e) {
+                    Logger.log(TAG, String.format("%s failed to write message", mName), e);
+                }
+            }
+            batch.clear();
+            flush();
+        }
+    }
+
+    private void flush() {
+        if (!(mWriter instanceof Flushable)) {
+            return;
+        }
+        try {
+            ((Flushable) mWriter).flush();
+        } catch (IOException | RuntimeException e) {
+            Logger.log(TAG, String.format("%s failed to flush", mName), e);
+        }
+    }
+
+}
@@ -0,0 +1,171 @@
+package com.simperium.android;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Locale;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The permessage-deflate websocket extension (RFC 7692) for one connection.
+ *
+ * Messages are compressed with raw deflate and the trailing empty block of each flush is
+ * stripped. Unless the peer asked for no context takeover the compression window is kept
+ * between messages, so the keys and field names that repeat across index pages and changes
+ * compress to a few bytes. Messages smaller than the threshold are sent as they are.
+ */
+class PerMessageDeflate {
+
+    public static final String EXTENSION = "permessage-deflate";
+    public static final String EXTENSIONS_HEADER = "Sec-WebSocket-Extensions";
+    public static final String CLIENT_NO_CONTEXT_TAKEOVER = "client_no_context_takeover";
+    public static final String SERVER_NO_CONTEXT_TAKEOVER = "server_no_context_takeover";
+    // messages smaller than this aren't worth compressing
+    public static final int MIN_COMPRESS_SIZE = 256;
+
+    private static final byte[] TAIL = new byte[]{0x00, 0x00, (byte) 0xff, (byte) 0xff};
+    private static final int BUFFER_SIZE = 8192;
+
+    final private Deflater mDeflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    final private Inflater mInflater = new Inflater(true);
+    final private byte[] mBuffer = new byte[BUFFER_SIZE];
+    final private boolean mCompressNoContextTakeover, mDecompressNoContextTakeover;
+    final private int mThreshold;
+    final private CompressionStats mStats;
+
+    PerMessageDeflate(boolean compressNoContextTakeover, boolean decompressNoContextTakeover,
+        int threshold, CompressionStats stats) {
+        mCompressNoContextTakeover = compressNoContextTakeover;
+        mDecompressNoContextTakeover = decompressNoContextTakeover;
+        mThreshold = threshold;
+        mStats = stats;
+    }
+
+    /**
+     * The extension offered by a client in its handshake request
+     */
+    public static String offer() {
+        return EXTENSION;
+    }
+
+    /**
+     * Client side of the extension agreed in the server's handshake response, null when the
+     * server did not accept it or accepted it with parameters we can't honor
+     */
+    public static PerMessageDeflate negotiate(String extensions, int threshold, CompressionStats stats) {
+        if (extensions == null) return null;
+
+        for (String extension : extensions.split(",")) {
+            String[] params = extension.split(";");
+            if (!EXTENSION.equalsIgnoreCase(params[0].trim())) continue;
+
+            boolean clientNoContextTakeover = false, serverNoContextTakeover = false;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim().toLowerCase(Locale.US);
+                if (param.equals(CLIENT_NO_CONTEXT_TAKEOVER)) {
+                    clientNoContextTakeover = true;
+                } else if (param.equals(SERVER_NO_CONTEXT_TAKEOVER)) {
+                    serverNoContextTakeover = true;
+                } else if (!param.startsWith("server_max_window_bits")) {
+                    // we didn't offer client_max_window_bits and java.util.zip always uses a
+                    // 15 bit window, a smaller server window inflates fine
+                    return null;
+                }
+            }
+            return new PerMessageDeflate(clientNoContextTakeover, serverNoContextTakeover, threshold, stats);
+        }
+        return null;
+    }
+
+    /**
+     * If a message of this many bytes should be compressed
+     */
+    public boolean shouldCompress(int length) {
+        return length >= mThreshold;
+    }
+
+    /**
+     * Compress a message payload, the result is sent in a frame with the RSV1 bit set
+     */
+    synchronized public byte[] compress(byte[] payload) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(payload.length / 4 + 16);
+        mDeflater.setInput(payload);
+        int count;
+        do {
+            count = mDeflater.deflate(mBuffer, 0, mBuffer.length, Deflater.SYNC_FLUSH);
+            out.write(mBuffer, 0, count);
+        } while (count == mBuffer.length);
+
+        if (mCompressNoContextTakeover) {
+            mDeflater.reset();
+        }
+
+        byte[] compressed = out.toByteArray();
+        int length = compressed.length;
+        if (endsWithTail(compressed)) {
+            length -= TAIL.length;
+        }
+        byte[] message = new byte[length];
+        System.arraycopy(compressed, 0, message, 0, length);
+
+        if (mStats != null) mStats.recordSent(payload.length, length, true);
+        return message;
+    }
+
+    /**
+     * Record a message that was sent without compression
+     */
+    public void sentUncompressed(int length) {
+        if (mStats != null) mStats.recordSent(length, length, false);
+    }
+
+    /**
+     * Decompress the payload of a frame that had the RSV1 bit set
+     */
+    synchronized public byte[] decompress(byte[] payload, int offset, int length)
+    throws DataFormatException {
+        byte[] input = new byte[length + TAIL.length];
+        System.arraycopy(payload, offset, input, 0, length);
+        System.arraycopy(TAIL, 0, input, length, TAIL.length);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length * 4);
+        mInflater.setInput(input);
+        int count;
+        do {
+            count = mInflater.inflate(mBuffer);
+            out.write(mBuffer, 0, count);
+        } while (count > 0 && (count == mBuffer.length || !mInflater.needsInput()));
+
+        if (mDecompressNoContextTakeover) {
+            mInflater.reset();
+        }
+
+        byte[] message = out.toByteArray();
+        if (mStats != null) mStats.recordReceived(message.length, length, true);
+        return message;
+    }
+
+    /**
+     * Record a message that was received without compression
+     */
+    public void receivedUncompressed(int length) {
+        if (mStats != null) mStats.recordReceived(length, length, false);
+    }
+
+    /**
+     * Free the native zlib state once the connection is closed
+     */
+    synchronized public void release() {
+        mDeflater.end();
+        mInflater.end();
+    }
+
+    private static boolean endsWithTail(byte[] data) {
+        if (data.length < TAIL.length) return false;
+        for (int i = 0; i < TAIL.length; i++) {
+            if (data[data.length - TAIL.length + i] != TAIL[i]) return false;
+        }
+        return true;
+    }
+
+}
@@ -14,6 +14,7 @@ import com.simperium.client.BucketObjectMissingException;
 import com.simperium.client.BucketSchema;
 import com.simperium.client.BucketSchema.Index;
 import com.simperium.client.FullTextIndex;
+import com.simperium.client.IndexColumns;
 import com.simperium.client.Query;
 import com.simperium.client.Syncable;
 import com.simperium.storage.StorageProvider;
@@ -22,22 +23,52 @@ import com.simperium.util.Logger;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class PersistentStore implements StorageProvider {
     public static final String TAG="Simperium.Store";
     public static final String OBJECTS_TABLE="objects";
     public static final String INDEXES_TABLE="indexes";
     public static final String REINDEX_QUEUE_TABLE="reindex_queue";
+    public static final String INDEX_HASHES_TABLE="index_hashes";
+    public static final String INDEX_FINGERPRINTS_TABLE="index_fingerprints";
+
+    // objects reindexed in one transaction
+    static final int REINDEX_CHUNK_SIZE = 100;
+
+    private static final String UPDATE_OBJECT="UPDATE objects SET data=? WHERE bucket=? AND key=?";
+    private static final String INSERT_OBJECT="INSERT OR REPLACE INTO objects (bucket, key, data) VALUES (?, ?, ?)";
+    private static final String DELETE_OBJECT="DELETE FROM objects WHERE bucket=? AND key=?";
+    private static final String INSERT_INDEX="INSERT INTO indexes (bucket, key, name, value) VALUES (?, ?, ?, ?)";
+    private static final String DELETE_INDEXES="DELETE FROM indexes WHERE bucket=? AND key=?";
+    private static final String DELETE_INDEX_NAME="DELETE FROM indexes WHERE bucket=? AND key=? AND name=?";
+    private static final String SELECT_INDEXES="SELECT name, value FROM indexes WHERE bucket=? AND key=?";
+    private static final String SELECT_INDEX_HASHES="SELECT indexes, fulltext FROM index_hashes WHERE bucket=? AND key=?";
+    private static final String UPDATE_INDEX_HASHES="UPDATE index_hashes SET indexes=?, fulltext=? WHERE bucket=? AND key=?";
+    private static final String INSERT_INDEX_HASHES="INSERT OR REPLACE INTO index_hashes (bucket, key, indexes, fulltext) VALUES (?, ?, ?, ?)";
+    private static final String DELETE_INDEX_HASHES="DELETE FROM index_hashes WHERE bucket=? AND key=?";
+    private static final String DELETE_REINDEX_KEY="DELETE FROM reindex_queue WHERE bucket=? AND key=?";
+    private static final String SELECT_REINDEX_CHUNK="SELECT reindex_queue.key, objects.data FROM reindex_queue " +
+        "LEFT JOIN objects ON objects.bucket = reindex_queue.bucket AND objects.key = reindex_queue.key " +
+        "WHERE reindex_queue.bucket=? LIMIT " + REINDEX_CHUNK_SIZE;
+    private static final String COUNT_REINDEX_QUEUE="SELECT count(*) FROM reindex_queue WHERE bucket=?";
+    private static final String SELECT_FINGERPRINT="SELECT fingerprint FROM index_fingerprints WHERE bucket=?";
+    private static final String INSERT_FINGERPRINT="INSERT OR REPLACE INTO index_fingerprints (bucket, fingerprint) VALUES (?, ?)";
 
     private SQLiteDatabase mDatabase;
+    final private CompiledStatements mStatements;
 
     public PersistentStore(SQLiteDatabase database) {
         mDatabase = database;
+        mStatements = new CompiledStatements(database);
         configure();
     }
 
@@ -45,6 +76,14 @@ public class PersistentStore implements StorageProvider {
         return mDatabase.query(OBJECTS_TABLE, new String[]{"objects.rowid AS _id", "objects.bucket", "objects.key as `object_key`", "objects.data as `object_data`"}, "bucket=? AND key=?", new String[]{bucketName, key}, null, null, null, "1");
     }
 
+    /**
+     * Update the object's data or add it when it isn't stored yet
+     */
+    void saveObject(String bucketName, String key, String json) {
+        mStatements.upsert(UPDATE_OBJECT, new Object[]{ json, bucketName, key },
+            INSERT_OBJECT, new Object[]{ bucketName, key, json });
+    }
+
     @Override
     public <T extends Syncable> BucketStore<T> createStore(String bucketName, BucketSchema<T> schema) {
         return new DataStore<T>(bucketName, schema);
@@ -54,27 +93,87 @@ public class PersistentStore implements StorageProvider {
 
         final protected BucketSchema<T> mSchema;
         final protected String mBucketName;
-        private Reindexer mReindexer;
+        final private String mDeleteFullText;
+        final private String mInsertColumns;
+        final private String mDeleteColumns;
+        // foreground writes in progress, the reindexer waits for them
+        final private AtomicInteger mWriters = new AtomicInteger();
+        // replaced by reindex(), read by the threads saving objects
+        private volatile Reindexer mReindexer;
 
         DataStore(String bucketName, BucketSchema<T> schema) {
             mSchema = schema;
             mBucketName = bucketName;
+            mDeleteFullText = String.format(Locale.US, "DELETE FROM `%s` WHERE key=?", getFullTextTableName());
+            mDeleteColumns = String.format(Locale.US, "DELETE FROM `%s` WHERE object_key=?", getColumnsTableName());
+            if (schema.hasIndexColumns()) {
+                StringBuilder names = new StringBuilder("object_key");
+                StringBuilder values = new StringBuilder("?");
+                for (String name : schema.getIndexColumns().getNames()) {
+                    names.append(", `").append(name).append("`");
+                    values.append(", ?");
+                }
+                mInsertColumns = String.format(Locale.US, "INSERT OR REPLACE INTO `%s` (%s) VALUES (%s)", getColumnsTableName(), names, values);
+            } else {
+                mInsertColumns = null;
+            }
         }
 
+        /**
+         * Stops a reindex that is still running and indexes every object again
+         */
         public void reindex(final Bucket<T> bucket) {
-            mReindexer = new Reindexer(bucket);
-
-            mReindexer.start();
+            stopReindexer();
+            Reindexer reindexer = new Reindexer(bucket);
+            reindexer.queueAll();
+            mReindexer = reindexer;
+            reindexer.start();
         }
 
+        /**
+         * Objects are only reindexed when the schema's index fingerprint is not the one they
+         * were indexed with. Index rows and full text rows whose values didn't change are kept,
+         * so a new indexer only writes its own rows.
+         */
         @Override
         public void prepare(Bucket<T> bucket) {
-            setupFullText();
+            boolean rebuilt = setupFullText();
+            rebuilt = setupIndexColumns() || rebuilt;
+
+            stopReindexer();
+            Reindexer reindexer = new Reindexer(bucket);
+            String fingerprint = mSchema.getIndexFingerprint();
+            if (rebuilt || !fingerprint.equals(getIndexFingerprint())) {
+                mDatabase.beginTransaction();
+                try {
+                    reindexer.queueAll();
+                    mStatements.insert(INSERT_FINGERPRINT, mBucketName, fingerprint);
+                    mDatabase.setTransactionSuccessful();
+                } finally {
+                    mDatabase.endTransaction();
+                }
+            }
 
-            // Clear reindex table to stop any other indexing operations
-            mDatabase.delete(REINDEX_QUEUE_TABLE, "bucket=?", new String[]{ mBucketName });
+            // otherwise only the keys left by a reindex that didn't finish are queued
+            mReindexer = reindexer;
+            reindexer.start();
+        }
 
-            reindex(bucket);
+        /**
+         * Stop the running reindex and wait for it to commit, its queue is kept for the next one
+         */
+        private void stopReindexer() {
+            Reindexer reindexer = mReindexer;
+            if (reindexer != null) reindexer.stop();
+        }
+
+        /**
+         * The fingerprint of the schema the bucket was last reindexed with
+         */
+        protected String getIndexFingerprint() {
+            try (Cursor cursor = mDatabase.rawQuery(SELECT_FINGERPRINT, new String[]{ mBucketName })) {
+                return cursor.moveToFirst() ? cursor.getString(0) : null;
+            }
         }
 
         /**
@@ -82,32 +181,74 @@ public class PersistentStore implements StorageProvider {
          */
         @Override
         public void save(T object, String simperiumKey, String json, List<Index> indexes) {
-            mReindexer.skip(simperiumKey);
-            ContentValues values = new ContentValues();
-            values.put("bucket", mBucketName);
-            values.put("key", simperiumKey);
-            values.put("data", json);
-            Cursor cursor = queryObject(mBucketName, simperiumKey);
-            if (cursor.getCount() == 0) {
-                mDatabase.insert(OBJECTS_TABLE, null, values);
-            } else {
-                mDatabase.update(OBJECTS_TABLE, values, "bucket=? AND key=?", new String[]{mBucketName, simperiumKey});
+            beginWrite();
+            try {
+                mReindexer.skip(simperiumKey);
+                saveObject(mBucketName, simperiumKey, json);
+                index(object, indexes);
+            } finally {
+                endWrite();
             }
-
-            cursor.close();
-            index(object, indexes);
             if (BuildConfig.DEBUG) Log.d(TAG, "Saved indexes for " + object);
         }
 
+        /**
+         * Ghosts are stored in the same database so they are committed along with the objects
+         */
+        @Override
+        public void transaction(Runnable runnable) {
+            beginWrite();
+            try {
+                mDatabase.beginTransaction();
+                try {
+                    runnable.run();
+                    mDatabase.setTransactionSuccessful();
+                } finally {
+                    mDatabase.endTransaction();
+                }
+            } finally {
+                endWrite();
+            }
+        }
+
         /**
          * Remove the given object from the storage
          */
         @Override
         public void delete(T object) {
             String key = object.getSimperiumKey();
-            mReindexer.skip(key);
-            mDatabase.delete(OBJECTS_TABLE, "bucket=? AND key=?", new String[]{mBucketName, key});
-            deleteIndexes(object);
+            beginWrite();
+            try {
+                mReindexer.skip(key);
+                mStatements.update(DELETE_OBJECT, mBucketName, key);
+                deleteIndexes(object);
+            } finally {
+                endWrite();
+            }
+        }
+
+        /**
+         * Signals the reindexer that a foreground write is waiting for the database so it
+         * commits the objects it indexed so far and waits for the write to finish
+         */
+        private void beginWrite() {
+            mWriters.incrementAndGet();
+        }
+
+        private void endWrite() {
+            if (mWriters.decrementAndGet() == 0) {
+                synchronized (mWriters) {
+                    mWriters.notifyAll();
+                }
+            }
+        }
+
+        private void awaitWriters() throws InterruptedException {
+            synchronized (mWriters) {
+                while (mWriters.get() > 0) {
+                    mWriters.wait();
+                }
+            }
         }
 
         /**
@@ -115,7 +256,8 @@ public class PersistentStore implements StorageProvider {
          */
         @Override
         public void reset() {
-            if (mReindexer != null) mReindexer.stop();
+            stopReindexer();
+            mDatabase.delete(REINDEX_QUEUE_TABLE, "bucket=?", new String[]{mBucketName});
             mDatabase.delete(OBJECTS_TABLE, "bucket=?", new String[]{mBucketName});
             if (mSchema.hasFullTextIndex())
                 mDatabase.delete(getFullTextTableName(), null, null);
@@ -172,89 +314,147 @@ public class PersistentStore implements StorageProvider {
             return buildCursor(mSchema, cursor);
         }
         
+        /**
+         * Brings the object's index rows up to date. The hashes stored with the last indexed
+         * values tell which of the indexes and the full text row changed, only index names
+         * whose values differ are rewritten.
+         */
         protected void index(T object, List<Index> indexValues)
         throws SQLException {
-            // delete all current idexes
+            String key = object.getSimperiumKey();
+            IndexTuples tuples = IndexTuples.from(indexValues);
+            long indexHash = tuples.hash();
+            Map<String,String> fullTextValues = null;
+            Long fullTextHash = null;
+            if (mSchema.hasFullTextIndex()) {
+                fullTextValues = mSchema.getFullTextIndex().index(object);
+                fullTextHash = IndexTuples.hash(fullTextValues);
+            }
+
             mDatabase.beginTransaction();
-            deleteIndexes(object);
-
-            for(Index index : indexValues) {
-                ContentValues values = new ContentValues(4);
-                values.put("bucket", mBucketName);
-                values.put("key", object.getSimperiumKey());
-                values.put("name", index.getName());
-                String key = "value";
-                // figure out the type of value
-                Object value = index.getValue();
-                if (value instanceof Byte) {
-                    values.put(key, (Byte) value);
-                } else if(value instanceof Integer) {
-                    values.put(key, (Integer) value);
-                } else if(value instanceof Float) {
-                    values.put(key, (Float) value);
-                } else if(value instanceof Short) {
-                    values.put(key, (Short) value);
-                } else if(value instanceof String) {
-                    values.put(key, (String) value);
-                } else if(value instanceof Double) {
-                    values.put(key, (Double) value);
-                } else if(value instanceof Long) {
-                    values.put(key, (Long) value);
-                } else if(value instanceof Boolean) {
-                    values.put(key, (Boolean) value);
-                } else if(value != null) {
-                    values.put(key, value.toString());
+            try {
+                boolean indexed = false;
+                Long storedIndexHash = null, storedFullTextHash = null;
+                try (Cursor cursor = mDatabase.rawQuery(SELECT_INDEX_HASHES, new String[]{ mBucketName, key })) {
+                    if (cursor.moveToFirst()) {
+                        indexed = true;
+                        storedIndexHash = cursor.isNull(0) ? null : cursor.getLong(0);
+                        storedFullTextHash = cursor.isNull(1) ? null : cursor.getLong(1);
+                    }
                 }
-                try {
-                    mDatabase.insertOrThrow(INDEXES_TABLE, key, values);
-                } catch (SQLException e) {
-                    mDatabase.endTransaction();
-                    throw e;
+
+                boolean indexesChanged = storedIndexHash == null || storedIndexHash != indexHash;
+                boolean fullTextChanged = fullTextHash != null && !fullTextHash.equals(storedFullTextHash);
+
+                if (!indexed) {
+                    // nothing is known about rows written before hashes were kept
+                    mStatements.update(DELETE_INDEXES, mBucketName, key);
+                    insertIndexes(key, tuples, tuples.names());
+                } else if (indexesChanged) {
+                    updateIndexes(key, tuples);
                 }
+
+                if ((!indexed || indexesChanged) && mSchema.hasIndexColumns()) {
+                    indexColumns(key, tuples);
+                }
+
+                if (fullTextChanged) {
+                    indexFullText(key, fullTextValues);
+                }
+
+                if (indexesChanged || fullTextChanged) {
+                    mStatements.upsert(UPDATE_INDEX_HASHES, new Object[]{ indexHash, fullTextHash, mBucketName, key },
+                        INSERT_INDEX_HASHES, new Object[]{ mBucketName, key, indexHash, fullTextHash });
+                }
+                mDatabase.setTransactionSuccessful();
+            } finally {
+                mDatabase.endTransaction();
             }
+        }
 
-            // If we have a fulltext index, let's add a record
-            if (mSchema.hasFullTextIndex()) {
-                Map<String,String> fullTextValues = mSchema.getFullTextIndex().index(object);
-                ContentValues fullTextIndexes = new ContentValues(fullTextValues.size());
+        /**
+         * Rewrite the rows of the indexes whose values are not the ones stored
+         */
+        private void updateIndexes(String key, IndexTuples tuples) {
+            IndexTuples stored = new IndexTuples();
+            try (Cursor cursor = mDatabase.rawQuery(SELECT_INDEXES, new String[]{ mBucketName, key })) {
+                while (cursor.moveToNext()) {
+                    stored.add(cursor.getString(0), readValue(cursor, 1));
+                }
+            }
 
-                for(Map.Entry<String,String> entry : fullTextValues.entrySet()) {
-                    fullTextIndexes.put(entry.getKey(), entry.getValue());
+            Set<String> names = new HashSet<>(stored.names());
+            names.addAll(tuples.names());
+            List<String> changed = new ArrayList<>();
+            for (String name : names) {
+                if (!tuples.sameValues(stored, name)) {
+                    mStatements.update(DELETE_INDEX_NAME, mBucketName, key, name);
+                    changed.add(name);
                 }
+            }
+            insertIndexes(key, tuples, changed);
+        }
 
-                String ftTableName = getFullTextTableName();
-                mDatabase.delete(ftTableName, "key=?", new String[]{ object.getSimperiumKey() });
-                if (fullTextIndexes.size() > 0) {
-                    fullTextIndexes.put("key", object.getSimperiumKey());
-                    try {
-                        mDatabase.insertOrThrow(ftTableName, null, fullTextIndexes);
-                    } catch (SQLException e) {
-                        mDatabase.endTransaction();
-                        throw e;
-                    }
+        private void insertIndexes(String key, IndexTuples tuples, Collection<String> names) {
+            for (String name : names) {
+                for (Object value : tuples.get(name)) {
+                    // the value is bound by its type
+                    mStatements.insert(INSERT_INDEX, mBucketName, key, name, value);
                 }
+            }
+        }
 
+        /**
+         * Replace the object's row of typed columns, each column gets the first value of its index
+         */
+        private void indexColumns(String key, IndexTuples tuples) {
+            Set<String> names = mSchema.getIndexColumns().getNames();
+            Object[] args = new Object[names.size() + 1];
+            args[0] = key;
+            int i = 1;
+            for (String name : names) {
+                List<Object> values = tuples.get(name);
+                args[i++] = values.isEmpty() ? null : values.get(0);
+            }
+            mStatements.insert(mInsertColumns, args);
+        }
+
+        private void indexFullText(String key, Map<String,String> fullTextValues) {
+            mStatements.update(mDeleteFullText, key);
+            if (fullTextValues.size() > 0) {
+                ContentValues fullTextIndexes = new ContentValues(fullTextValues.size() + 1);
+                for(Map.Entry<String,String> entry : fullTextValues.entrySet()) {
+                    fullTextIndexes.put(entry.getKey(), entry.getValue());
+                }
+                fullTextIndexes.put("key", key);
+                mDatabase.insertOrThrow(getFullTextTableName(), null, fullTextIndexes);
             }
-            mDatabase.setTransactionSuccessful();
-            mDatabase.endTransaction();
         }
 
         private void deleteIndexes(T object) {
-            mDatabase.delete(INDEXES_TABLE, "bucket=? AND key=?", new String[]{mBucketName, object.getSimperiumKey()});
+            mStatements.update(DELETE_INDEXES, mBucketName, object.getSimperiumKey());
+            mStatements.update(DELETE_INDEX_HASHES, mBucketName, object.getSimperiumKey());
             if (mSchema.hasFullTextIndex()) {
-                String tableName = getFullTextTableName();
-                mDatabase.delete(tableName, "key=?", new String[]{ object.getSimperiumKey() });
+                mStatements.update(mDeleteFullText, object.getSimperiumKey());
+            }
+            if (mSchema.hasIndexColumns()) {
+                mStatements.update(mDeleteColumns, object.getSimperiumKey());
             }
         }
 
         private void deleteAllIndexes() {
             mDatabase.delete(INDEXES_TABLE, "bucket=?", new String[]{mBucketName});
+            mDatabase.delete(INDEX_HASHES_TABLE, "bucket=?", new String[]{mBucketName});
+            if (mSchema.hasIndexColumns())
+                mDatabase.delete(getColumnsTableName(), null, null);
         }
 
-        private void setupFullText() {
+        /**
+         * Create the full text table, returns true when it was created empty
+         */
+        private boolean setupFullText() {
+            boolean rebuild = false;
             if (mSchema.hasFullTextIndex()) {
-                boolean rebuild = false;
-
                 FullTextIndex index = mSchema.getFullTextIndex();
                 String[] keys = index.getKeys();
                 List<String> columns = new ArrayList<String>(keys.length + 1);
@@ -273,6 +473,8 @@ public class PersistentStore implements StorageProvider {
                 tableInfo.close();
 
                 if (rebuild) {
+                    // the new table is empty so every object's full text row is written again
+                    mDatabase.execSQL("UPDATE index_hashes SET fulltext=NULL WHERE bucket=?", new Object[]{ mBucketName });
                     mDatabase.execSQL(String.format(Locale.US, "DROP TABLE IF EXISTS `%s`", tableName));
                     StringBuilder fields = new StringBuilder();
                     if (supportsUnicodeFullText()) {
@@ -289,16 +491,88 @@ public class PersistentStore implements StorageProvider {
                     mDatabase.execSQL(query);
                 }
             }
+            return rebuild;
         }
 
         protected String getFullTextTableName() {
             return String.format(Locale.US, "%s_ft", mBucketName);
         }
 
+        /**
+         * Create the table of typed index columns, rebuilding it when the schema's columns or
+         * their types changed. Returns true when it was created empty.
+         */
+        private boolean setupIndexColumns() {
+            String tableName = getColumnsTableName();
+            if (!mSchema.hasIndexColumns()) {
+                mDatabase.execSQL(String.format(Locale.US, "DROP TABLE IF EXISTS `%s`", tableName));
+                return false;
+            }
+
+            IndexColumns indexColumns = mSchema.getIndexColumns();
+            Map<String,String> columns = new HashMap<String,String>();
+            columns.put("object_key", "TEXT");
+            for (String name : indexColumns.getNames()) {
+                columns.put(name, indexColumns.getType(name).name());
+            }
+
+            boolean rebuild;
+            try (Cursor tableInfo = tableInfo(tableName)) {
+                int nameColumn = tableInfo.getColumnIndex("name");
+                int typeColumn = tableInfo.getColumnIndex("type");
+                rebuild = tableInfo.getCount() != columns.size();
+                while (!rebuild && tableInfo.moveToNext()) {
+                    String type = columns.get(tableInfo.getString(nameColumn));
+                    rebuild = type == null || !type.equalsIgnoreCase(tableInfo.getString(typeColumn));
+                }
+            }
+
+            if (rebuild) {
+                // the new table is empty so every object's columns are written again
+                mDatabase.execSQL("UPDATE index_hashes SET indexes=NULL WHERE bucket=?", new Object[]{ mBucketName });
+                mDatabase.execSQL(String.format(Locale.US, "DROP TABLE IF EXISTS `%s`", tableName));
+                StringBuilder fields = new StringBuilder("object_key TEXT PRIMARY KEY");
+                for (String name : indexColumns.getNames()) {
+                    fields.append(", `").append(name).append("` ").append(indexColumns.getType(name).name());
+                }
+                mDatabase.execSQL(String.format(Locale.US, "CREATE TABLE `%s` (%s)", tableName, fields));
+            }
+
+            for (String name : indexColumns.getNames()) {
+                createColumnsIndex(tableName, name);
+            }
+            for (String[] names : indexColumns.getCompositeIndexes()) {
+                createColumnsIndex(tableName, names);
+            }
+            return rebuild;
+        }
+
+        private void createColumnsIndex(String tableName, String ... names) {
+            StringBuilder indexName = new StringBuilder(tableName);
+            StringBuilder fields = new StringBuilder();
+            for (String name : names) {
+                indexName.append("_").append(name);
+                if (fields.length() > 0) fields.append(", ");
+                fields.append("`").append(name).append("`");
+            }
+            mDatabase.execSQL(String.format(Locale.US, "CREATE INDEX IF NOT EXISTS `%s` ON `%s`(%s)", indexName, tableName, fields));
+        }
+
+        protected String getColumnsTableName() {
+            return String.format(Locale.US, "%s_columns", mBucketName);
+        }
+
+        /**
+         * Indexes the queued objects in chunks, each chunk is written in one transaction along
+         * with removing its keys from the queue so a reindex that is stopped continues from the
+         * last committed chunk. Objects are built from their stored JSON without their ghosts.
+         */
         private class Reindexer implements Runnable {
 
             final private Thread mReindexThread;
             final private Bucket<T> mBucket;
+            // saves only need to remove their key from the queue while reindexing
+            private volatile boolean mPending;
 
             Reindexer(Bucket<T> bucket) {
                 mBucket = bucket;
@@ -306,32 +580,45 @@ public class PersistentStore implements StorageProvider {
                 mReindexThread.setPriority(Thread.MIN_PRIORITY);
             }
 
-            public void start() {
+            /**
+             * Queue every object of the bucket, replacing the keys queued by an earlier reindex
+             */
+            public void queueAll() {
+                mDatabase.delete(REINDEX_QUEUE_TABLE, "bucket=?", new String[]{ mBucket.getName() });
                 String query = String.format(Locale.US, "INSERT INTO reindex_queue SELECT bucket, key FROM objects WHERE bucket = '%s'", mBucket.getName());
                 mDatabase.execSQL(query);
+            }
+
+            public void start() {
+                mPending = true;
                 mReindexThread.start();
             }
 
+            /**
+             * Interrupt the thread and wait for it to finish, unless called from the thread
+             */
             public void stop() {
                 mReindexThread.interrupt();
+                if (Thread.currentThread() == mReindexThread) return;
+                try {
+                    mReindexThread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
             }
 
             public void skip(String key) {
-                mDatabase.delete(REINDEX_QUEUE_TABLE, "bucket=? AND key=?", new String[]{ mBucket.getName(), key});
+                if (mPending) {
+                    mStatements.update(DELETE_REINDEX_KEY, mBucket.getName(), key);
+                }
             }
 
             @Override
             public void run() {
                 String bucketName = mBucket.getName();
-                String[] fields = new String[]{ "key" };
-                String[] args = new String[]{ bucketName };
-                String conditions = "bucket=?";
-                String deleteConditions = "bucket=? AND key=?";
-                String limit = "1";
+                int indexed = 0;
                 try {
 
-                    Thread.sleep(1000);
-
                     if (BuildConfig.DEBUG) {
                         Log.d(TAG, "Starting reindex process for: " + mBucket.getName());
                     }
@@ -339,41 +626,85 @@ public class PersistentStore implements StorageProvider {
                     while(true) {
                         if (Thread.interrupted()) throw new InterruptedException();
 
-                        Cursor next = mDatabase.query(REINDEX_QUEUE_TABLE, fields, conditions, args, null, null, null, limit);
-                        if (next.getCount() == 0) {
-                            next.close();
+                        awaitWriters();
+                        int count = indexChunk();
+                        if (count == 0) {
                             break;
                         }
-                        next.moveToFirst();
-                        String key = next.getString(0);
-                        try {
-                            T object = mBucket.get(key);
-                            index(object, mSchema.indexesFor(object));
-                        } catch (BucketObjectMissingException e) {
-                            // object is gone
-                            if (BuildConfig.DEBUG) {
-                                Log.d(TAG, "Reindexer could not find object `" + key + "` in bucket " + mBucket.getName());
-                            }
-                        } finally {
-                            next.close();
-                        }
+                        indexed += count;
 
                         if (BuildConfig.DEBUG) {
-                            Log.d(TAG, "Reindexed `" + bucketName + "." + key + "`");
+                            Log.d(TAG, "Reindexed " + indexed + " objects in " + bucketName);
                         }
-                        mDatabase.delete(REINDEX_QUEUE_TABLE, deleteConditions, new String[]{bucketName, key});
-                        Thread.sleep(1);
+                        mBucket.notifyOnReindexProgressListeners(indexed, queuedCount());
                     }
                 } catch (InterruptedException e) {
+                    // the keys left in the queue are indexed by the next reindexer
                     Logger.log(TAG, String.format("Indexing interrupted %s", bucketName), e);
-                    mDatabase.delete(REINDEX_QUEUE_TABLE, conditions, args);
                 } catch (SQLException e) {
                     Logger.log(TAG, String.format("SQL Error %s", bucketName), e);
+                } finally {
+                    mPending = false;
                 }
                 if (BuildConfig.DEBUG) Logger.log(TAG, String.format("Done indexing %s", bucketName));
                 mBucket.notifyOnNetworkChangeListeners(Bucket.ChangeType.INDEX);
             }
 
+            /**
+             * Index the next chunk of queued objects, stops early when a foreground write is
+             * waiting. Returns how many keys were removed from the queue.
+             */
+            private int indexChunk() {
+                String bucketName = mBucket.getName();
+                int count = 0;
+                mDatabase.beginTransaction();
+                try {
+                    List<String> keys = new ArrayList<>(REINDEX_CHUNK_SIZE);
+                    List<String> data = new ArrayList<>(REINDEX_CHUNK_SIZE);
+                    try (Cursor cursor = mDatabase.rawQuery(SELECT_REINDEX_CHUNK, new String[]{ bucketName })) {
+                        while (cursor.moveToNext()) {
+                            keys.add(cursor.getString(0));
+                            data.add(cursor.getString(1));
+                        }
+                    }
+
+                    for (; count < keys.size(); count++) {
+                        if (count > 0 && mWriters.get() > 0) break;
+
+                        String key = keys.get(count);
+                        if (data.get(count) != null) {
+                            T object = buildObject(key, data.get(count));
+                            index(object, mSchema.indexesFor(object));
+                        } else if (BuildConfig.DEBUG) {
+                            // object is gone
+                            Log.d(TAG, "Reindexer could not find object `" + key + "` in bucket " + bucketName);
+                        }
+                        mStatements.update(DELETE_REINDEX_KEY, bucketName, key);
+                    }
+                    mDatabase.setTransactionSuccessful();
+                } finally {
+                    mDatabase.endTransaction();
+                }
+                return count;
+            }
+
+            private T buildObject(String key, String data) {
+                T object;
+                try {
+                    object = mSchema.buildWithDefaults(key, new JSONObject(data));
+                } catch (org.json.JSONException e) {
+                    object = mSchema.buildWithDefaults(key, new JSONObject());
+                }
+                object.setBucket(mBucket);
+                return object;
+            }
+
+            private int queuedCount() {
+                try (Cursor cursor = mDatabase.rawQuery(COUNT_REINDEX_QUEUE, new String[]{ mBucket.getName() })) {
+                    return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+                }
+            }
+
         }
 
     }
@@ -430,6 +761,12 @@ public class PersistentStore implements StorageProvider {
         mDatabase.execSQL(String.format(Locale.US, "CREATE INDEX IF NOT EXISTS index_name ON %s(bucket, key, name)", INDEXES_TABLE));
         mDatabase.execSQL(String.format(Locale.US, "CREATE INDEX IF NOT EXISTS index_value ON %s(bucket, key, value)", INDEXES_TABLE));
         mDatabase.execSQL(String.format(Locale.US, "CREATE INDEX IF NOT EXISTS index_key ON %s(bucket, key)", INDEXES_TABLE));
+        // hashes of the values each object was last indexed with
+        mDatabase.execSQL(String.format(Locale.US, "CREATE TABLE IF NOT EXISTS %s (bucket, key, indexes, fulltext)", INDEX_HASHES_TABLE));
+        mDatabase.execSQL(String.format(Locale.US, "CREATE UNIQUE INDEX IF NOT EXISTS index_hashes_key ON %s(bucket, key)", INDEX_HASHES_TABLE));
+        // the index fingerprint of the schema each bucket was last reindexed with
+        mDatabase.execSQL(String.format(Locale.US, "CREATE TABLE IF NOT EXISTS %s (bucket, fingerprint)", INDEX_FINGERPRINTS_TABLE));
+        mDatabase.execSQL(String.format(Locale.US, "CREATE UNIQUE INDEX IF NOT EXISTS index_fingerprints_bucket ON %s(bucket)", INDEX_FINGERPRINTS_TABLE));
     }
 
     private void configureObjects() {
@@ -446,6 +783,19 @@ public class PersistentStore implements StorageProvider {
         mDatabase.execSQL("CREATE INDEX IF NOT EXISTS reindex_key ON reindex_queue(key)");
     }
 
+    private static Object readValue(Cursor cursor, int column) {
+        switch (cursor.getType(column)) {
+            case Cursor.FIELD_TYPE_NULL:
+                return null;
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cursor.getLong(column);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return cursor.getDouble(column);
+            default:
+                return cursor.getString(column);
+        }
+    }
+
     protected Cursor tableInfo(String tableName) {
         return mDatabase.rawQuery(String.format(Locale.US, "PRAGMA table_info(`%s`)", tableName), null);
     }
@@ -486,7 +836,11 @@ public class PersistentStore implements StorageProvider {
             List<Query.Field> fields = mQuery.getFields();
             String bucketName = mDataStore.mBucketName;
             String ftName = mDataStore.getFullTextTableName();
+            IndexColumns columns = mDataStore.mSchema.getIndexColumns();
             Boolean usesFullText = false;
+            // typed columns are read from a single table aliased c
+            boolean usesColumns = false;
+            boolean filtersColumns = false;
 
             mSelection = new StringBuilder("objects.rowid AS `_id`, objects.bucket || objects.key AS `key`, objects.key as `object_key`, objects.data as `object_data` ");
 
@@ -525,10 +879,20 @@ public class PersistentStore implements StorageProvider {
                     continue;
                 }
 
-                // store which keys have been joined in and which alias
-                includedKeys.put(key, String.format(Locale.US, "i%d", i));
-                names.add(condition.getKey());
-                filters.append(String.format(Locale.US, " LEFT JOIN indexes AS i%d ON objects.bucket = i%d.bucket AND objects.key = i%d.key AND i%d.name=?", i, i, i, i));
+                // store which keys have been joined in and the value they're compared with
+                String value;
+                boolean column = columns != null && columns.has(key);
+                if (column) {
+                    value = String.format(Locale.US, "c.`%s`", key);
+                    usesColumns = true;
+                } else {
+                    // every condition joins its own rows so multiple values can each match
+                    value = String.format(Locale.US, "i%d.value", i);
+                    names.add(condition.getKey());
+                    filters.append(String.format(Locale.US, " LEFT JOIN indexes AS i%d ON objects.bucket = i%d.bucket AND objects.key = i%d.key AND i%d.name=?", i, i, i, i));
+                    i++;
+                }
+                includedKeys.put(key, value);
                 Object subject = condition.getSubject();
 
                 // short circuit for null subjects
@@ -538,12 +902,13 @@ public class PersistentStore implements StorageProvider {
 
                         case EQUAL_TO :
                         case LIKE :
-                            where.append(String.format(Locale.US, " AND ( i%d.value IS NULL ) ", i));
+                            where.append(String.format(Locale.US, " AND ( %s IS NULL ) ", value));
                             break;
 
                         case NOT_EQUAL_TO :
                         case NOT_LIKE :
-                            where.append(String.format(Locale.US, " AND ( i%d.value NOT NULL ) ", i));
+                            where.append(String.format(Locale.US, " AND ( %s NOT NULL ) ", value));
+                            filtersColumns |= column;
                             break;
 
                         default :
@@ -552,13 +917,12 @@ public class PersistentStore implements StorageProvider {
 
                     }
 
-                    i++;
-
                     continue;
                 }
 
-                String null_condition = condition.includesNull() ? String.format(Locale.US, " i%d.value IS NULL OR", i) : String.format(Locale.US, " i%d.value IS NOT NULL AND", i);
-                where.append(String.format(Locale.US, " AND ( %s i%d.value %s ", null_condition, i, condition.getComparisonType()));
+                filtersColumns |= column && !condition.includesNull();
+                String null_condition = condition.includesNull() ? String.format(Locale.US, " %s IS NULL OR", value) : String.format(Locale.US, " %s IS NOT NULL AND", value);
+                where.append(String.format(Locale.US, " AND ( %s %s %s ", null_condition, value, condition.getComparisonType()));
                 if (subject instanceof Float) {
                     where.append(String.format(Locale.US, " %f)", (Float)subject));
                 } else if (subject instanceof Integer) {
@@ -569,8 +933,6 @@ public class PersistentStore implements StorageProvider {
                     where.append(" ?)");
                     replacements.add(subject.toString());
                 }
-
-                i++;
             }
 
             if(includedFullText) filters.insert(0, fullTextFilter);
@@ -591,12 +953,17 @@ public class PersistentStore implements StorageProvider {
 
                 String fieldName = field.getName();
                 if (!includedKeys.containsKey(fieldName)) {
-                    includedKeys.put(fieldName, String.format(Locale.US, "i%d", i));
-                    names.add(fieldName);
-                    filters.append(String.format(Locale.US, " LEFT JOIN indexes AS i%d ON objects.bucket = i%d.bucket AND objects.key = i%d.key AND i%d.name=?", i, i, i, i));
-                    i++;
+                    if (columns != null && columns.has(fieldName)) {
+                        includedKeys.put(fieldName, String.format(Locale.US, "c.`%s`", fieldName));
+                        usesColumns = true;
+                    } else {
+                        includedKeys.put(fieldName, String.format(Locale.US, "i%d.value", i));
+                        names.add(fieldName);
+                        filters.append(String.format(Locale.US, " LEFT JOIN indexes AS i%d ON objects.bucket = i%d.bucket AND objects.key = i%d.key AND i%d.name=?", i, i, i, i));
+                        i++;
+                    }
                 }
-                mSelection.append(String.format(Locale.US, ", %s.value AS `%s`", includedKeys.get(fieldName), fieldName));
+                mSelection.append(String.format(Locale.US, ", %s AS `%s`", includedKeys.get(fieldName), fieldName));
                 
             }
 
@@ -611,7 +978,10 @@ public class PersistentStore implements StorageProvider {
                     if (sorter instanceof Query.KeySorter) {
                         order.append(String.format(Locale.US, " objects.key %s", sorter.getType()));
                     } else if (includedKeys.containsKey(sortKey)) {
-                        order.append(String.format(Locale.US, " %s.value %s", includedKeys.get(sortKey), sorter.getType()));
+                        order.append(String.format(Locale.US, " %s %s", includedKeys.get(sortKey), sorter.getType()));
+                    } else if (columns != null && columns.has(sortKey)) {
+                        order.append(String.format(Locale.US, " c.`%s` %s", sortKey, sorter.getType()));
+                        usesColumns = true;
                     } else {
                         // join in the sorting field it wasn't used in a search
                         filters.append(String.format(Locale.US, " LEFT JOIN indexes AS i%d ON objects.bucket = i%d.bucket AND objects.key = i%d.key AND i%d.name=?", i, i, i, i));
@@ -625,7 +995,16 @@ public class PersistentStore implements StorageProvider {
             }
 
 
-            mSelection.insert(0, (supportsDistinct(usesFullText) ? "SELECT DISTINCT " : "SELECT "));
+            if (usesColumns) {
+                // an inner join lets SQLite start from the columns table's indexes, objects
+                // that haven't been indexed yet only match conditions that include null
+                String join = filtersColumns ? "JOIN" : "LEFT JOIN";
+                filters.insert(0, String.format(Locale.US, " %s `%s` AS c ON objects.key = c.object_key", join, mDataStore.getColumnsTableName()));
+            }
+
+            // the columns table has one row per object, only the indexes table repeats them
+            boolean distinct = !usesColumns || i > 0 || usesFullText;
+            mSelection.insert(0, (distinct && supportsDistinct(usesFullText) ? "SELECT DISTINCT " : "SELECT "));
             mStatement = " FROM `objects` " + filters.toString() + " " + where.toString() + " " + order.toString();
             names.addAll(replacements);
             mArgs = names.toArray(new String[names.size()]);
@@ -1,6 +1,5 @@
 package com.simperium.android;
 
-import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
@@ -24,7 +23,16 @@ public class QueueSerializer implements Channel.Serializer {
     static public final String FIELD_OPERATION = "operation";
     static public final String FIELD_CCID      = "ccid";
 
+    static private final String INSERT_STATE = String.format("INSERT INTO %s (%s, %s, %s, %s, %s) VALUES (?, ?, ?, ?, ?)",
+        TABLE_NAME, FIELD_BUCKET, FIELD_KEY, FIELD_STATUS, FIELD_OPERATION, FIELD_CCID);
+    static private final String UPDATE_STATE = String.format("UPDATE %s SET %s = ? WHERE %s = ? AND %s = ?",
+        TABLE_NAME, FIELD_STATUS, FIELD_BUCKET, FIELD_CCID);
+    static private final String DELETE_STATE = String.format("DELETE FROM %s WHERE %s = ? AND %s = ?",
+        TABLE_NAME, FIELD_BUCKET, FIELD_CCID);
+
     protected SQLiteDatabase mDatabase;
+    // every change goes through an insert, an update and a delete
+    final private CompiledStatements mStatements;
 
     private enum Status {
         QUEUED("Q"), PENDING("P");
@@ -44,6 +52,7 @@ public class QueueSerializer implements Channel.Serializer {
     public QueueSerializer(SQLiteDatabase database) {
         mDatabase = database;
         prepare();
+        mStatements = new CompiledStatements(database);
     }
 
     private void prepare(){
@@ -140,16 +149,9 @@ public class QueueSerializer implements Channel.Serializer {
     }
 
     private void insertState(Status status, Change change) {
-
-        ContentValues values = new ContentValues(6);
-        values.put(FIELD_BUCKET, change.getBucketName());
-        values.put(FIELD_KEY, change.getKey());
-        values.put(FIELD_STATUS, status.toString());
-        values.put(FIELD_OPERATION, change.getOperation());
-        values.put(FIELD_CCID, change.getChangeId());
-
         try {
-            mDatabase.insertOrThrow(TABLE_NAME, null, values);
+            mStatements.insert(INSERT_STATE, change.getBucketName(), change.getKey(), status.toString(),
+                change.getOperation(), change.getChangeId());
         } catch (SQLException e) {
             Logger.log(TAG, "Unable to insert status change", e);
         }
@@ -159,18 +161,11 @@ public class QueueSerializer implements Channel.Serializer {
         FIELD_BUCKET, FIELD_CCID);
 
     private void updateState(Status status, Change change) {
-        ContentValues values = new ContentValues(1);
-        String[] args = new String[] { change.getBucketName(), change.getChangeId() };
-        values.put(FIELD_STATUS, status.toString());
-        mDatabase.update(TABLE_NAME, values, UPDATE_CLAUSE, args);
+        mStatements.update(UPDATE_STATE, status.toString(), change.getBucketName(), change.getChangeId());
     }
 
-    static private final String REMOVE_CLAUSE = String.format("%s = ? AND %s = ?",
-        FIELD_BUCKET, FIELD_CCID );
-
     private void removeState(Status status, Change change) {
-        String[] conditions = new String[] { change.getBucketName(), change.getChangeId() };
-        mDatabase.delete(TABLE_NAME, REMOVE_CLAUSE, conditions);
+        mStatements.update(DELETE_STATE, change.getBucketName(), change.getChangeId());
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,330 @@
+package com.simperium.android;
+
+import com.simperium.util.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Websocket transport that frames messages itself over a java.net socket instead of going
+ * through AndroidAsync and the main looper.
+ *
+ * Each connection reads on its own thread, streaming frames into a reused message buffer, and
+ * writes through an OutboundQueue. Messages are compressed with permessage-deflate when the
+ * server agrees to it. Every connection is made with the same SSLSocketFactory so reconnects
+ * resume the cached TLS session instead of doing a full handshake.
+ */
+class SocketWebSocketProvider implements WebSocketManager.CompressingConnectionProvider {
+
+    public static final String TAG = "Simperium.SocketWebSocketProvider";
+    public static final int DEFAULT_READ_BUFFER_SIZE = 16 * 1024;
+    public static final int DEFAULT_WRITE_BUFFER_SIZE = 8 * 1024;
+    public static final int DEFAULT_MAX_MESSAGE_SIZE = 16 * 1024 * 1024;
+    public static final int DEFAULT_CONNECT_TIMEOUT = 30000;
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    final private String mHost;
+    final private int mPort;
+    final private String mPath;
+    final private String mUserAgent;
+    final private SSLSocketFactory mSSLSocketFactory;
+    final private CompressionStats mCompressionStats = new CompressionStats();
+
+    private int mReadBufferSize = DEFAULT_READ_BUFFER_SIZE;
+    private int mWriteBufferSize = DEFAULT_WRITE_BUFFER_SIZE;
+    private int mMaxMessageSize = DEFAULT_MAX_MESSAGE_SIZE;
+    private int mConnectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private boolean mCompress = true;
+    private int mCompressThreshold = PerMessageDeflate.MIN_COMPRESS_SIZE;
+
+    /**
+     * Connects to an http(s) or ws(s) url, secure connections are made with the socket factory
+     */
+    SocketWebSocketProvider(String url, String userAgent, SSLSocketFactory socketFactory) {
+        URI uri = URI.create(url);
+        String scheme = uri.getScheme();
+        boolean secure = "https".equals(scheme) || "wss".equals(scheme);
+        mHost = uri.getHost();
+        mPort = uri.getPort() != -1 ? uri.getPort() : (secure ? 443 : 80);
+        mPath = uri.getRawPath() + (uri.getRawQuery() != null ? "?" + uri.getRawQuery() : "");
+        mUserAgent = userAgent;
+        mSSLSocketFactory = secure ? socketFactory : null;
+    }
+
+    /**
+     * Buffer sizes used by the socket streams of new connections
+     */
+    public synchronized void setBufferSizes(int readBufferSize, int writeBufferSize) {
+        mReadBufferSize = readBufferSize;
+        mWriteBufferSize = writeBufferSize;
+    }
+
+    public synchronized void setMaxMessageSize(int maxMessageSize) {
+        mMaxMessageSize = maxMessageSize;
+    }
+
+    public synchronized void setConnectTimeout(int timeout) {
+        mConnectTimeout = timeout;
+    }
+
+    /**
+     * Offer permessage-deflate to the server, messages smaller than threshold are sent raw
+     */
+    public synchronized void setCompression(boolean enabled, int threshold) {
+        mCompress = enabled;
+        mCompressThreshold = threshold;
+    }
+
+    @Override
+    public CompressionStats getCompressionStats() {
+        return mCompressionStats;
+    }
+
+    @Override
+    public void connect(WebSocketManager.ConnectionListener listener) {
+        ConnectionReader reader;
+        synchronized(this) {
+            reader = new ConnectionReader(listener, mReadBufferSize, mWriteBufferSize, mMaxMessageSize,
+                mConnectTimeout, mCompress, mCompressThreshold);
+        }
+        new Thread(reader, "simperium.websocket.reader").start();
+    }
+
+    /**
+     * Opens the connection and reads from it until it closes
+     */
+    private class ConnectionReader implements Runnable {
+
+        final private WebSocketManager.ConnectionListener mListener;
+        final private int mReadBufferSize, mWriteBufferSize, mMaxMessageSize, mConnectTimeout, mCompressThreshold;
+        final private boolean mCompress;
+
+        ConnectionReader(WebSocketManager.ConnectionListener listener, int readBufferSize, int writeBufferSize,
+            int maxMessageSize, int connectTimeout, boolean compress, int compressThreshold) {
+            mListener = listener;
+            mReadBufferSize = readBufferSize;
+            mWriteBufferSize = writeBufferSize;
+            mMaxMessageSize = maxMessageSize;
+            mConnectTimeout = connectTimeout;
+            mCompress = compress;
+            mCompressThreshold = compressThreshold;
+        }
+
+        @Override
+        public void run() {
+            Socket socket = null;
+            SocketConnection connection = null;
+            try {
+                socket = new Socket();
+                socket.setTcpNoDelay(true);
+                socket.connect(new InetSocketAddress(mHost, mPort), mConnectTimeout);
+                if (mSSLSocketFactory != null) {
+                    socket = secure(socket);
+                }
+
+                InputStream in = new BufferedInputStream(socket.getInputStream(), mReadBufferSize);
+                OutputStream out = new BufferedOutputStream(socket.getOutputStream(), mWriteBufferSize);
+                PerMessageDeflate deflate = handshake(in, out);
+
+                WebSocketFrameStream stream = new WebSocketFrameStream(in, out, true, deflate,
+                    mReadBufferSize, mMaxMessageSize);
+                connection = new SocketConnection(socket, stream, deflate);
+                connection.setInboundThread(Thread.currentThread());
+                connection.start();
+                mListener.onConnect(connection);
+
+                String message;
+                while ((message = stream.readMessage()) != null) {
+                    mListener.onMessage(message);
+                }
+                connection.close();
+                mListener.onDisconnect(null);
+            } catch (IOException e) {
+                if (connection == null) {
+                    closeSocket(socket);
+                    mListener.onError(e);
+                } else {
+                    connection.close();
+                    mListener.onDisconnect(e);
+                }
+            } finally {
+                if (connection != null) {
+                    connection.release();
+                }
+            }
+        }
+
+        private Socket secure(Socket socket)
+        throws IOException {
+            SSLSocket sslSocket = (SSLSocket) mSSLSocketFactory.createSocket(socket, mHost, mPort, true);
+            sslSocket.startHandshake();
+            if (!HttpsURLConnection.getDefaultHostnameVerifier().verify(mHost, sslSocket.getSession())) {
+                sslSocket.close();
+                throw new SSLPeerUnverifiedException(String.format("Certificate does not match %s", mHost));
+            }
+            return sslSocket;
+        }
+
+        /**
+         * Upgrade the connection, returns the negotiated compression or null
+         */
+        private PerMessageDeflate handshake(InputStream in, OutputStream out)
+        throws IOException {
+            String key = WebSocketHandshake.generateKey();
+            StringBuilder request = new StringBuilder();
+            request.append("GET ").append(mPath).append(" HTTP/1.1\r\n");
+            request.append("Host: ").append(mHost).append("\r\n");
+            request.append(WebSocketHandshake.HEADER_UPGRADE).append(": websocket\r\n");
+            request.append(WebSocketHandshake.HEADER_CONNECTION).append(": Upgrade\r\n");
+            request.append(WebSocketHandshake.HEADER_KEY).append(": ").append(key).append("\r\n");
+            request.append(WebSocketHandshake.HEADER_VERSION).append(": ").append(WebSocketHandshake.VERSION).append("\r\n");
+            request.append(AndroidClient.USER_AGENT_HEADER).append(": ").append(mUserAgent).append("\r\n");
+            if (mCompress) {
+                request.append(PerMessageDeflate.EXTENSIONS_HEADER).append(": ").append(PerMessageDeflate.offer()).append("\r\n");
+            }
+            request.append("\r\n");
+            out.write(request.toString().getBytes(ISO_8859_1));
+            out.flush();
+
+            WebSocketHandshake.Message response = WebSocketHandshake.read(in);
+            String[] status = response.startLine.split(" ", 3);
+            if (status.length < 2 || !status[1].equals("101")) {
+                throw new ProtocolException(String.format("Websocket upgrade failed: %s", response.startLine));
+            }
+            if (!WebSocketHandshake.accept(key).equals(response.getHeader(WebSocketHandshake.HEADER_ACCEPT))) {
+                throw new ProtocolException("Invalid Sec-WebSocket-Accept");
+            }
+
+            String extensions = response.getHeader(PerMessageDeflate.EXTENSIONS_HEADER);
+            if (extensions == null) {
+                return null;
+            }
+            PerMessageDeflate deflate = mCompress ?
+                PerMessageDeflate.negotiate(extensions, mCompressThreshold, mCompressionStats) : null;
+            if (deflate == null) {
+                throw new ProtocolException(String.format("Unsupported extensions: %s", extensions));
+            }
+            return deflate;
+        }
+
+    }
+
+    /**
+     * Writes queued messages to the socket from the queue's thread
+     */
+    static class SocketConnection implements WebSocketManager.Connection, OutboundQueue.Writer, Flushable {
+
+        final private Socket mSocket;
+        final private WebSocketFrameStream mStream;
+        final private PerMessageDeflate mDeflate;
+        final private OutboundQueue mQueue;
+        // the reader and the writer both use the compression contexts, the last one done frees them
+        final private AtomicInteger mUsers = new AtomicInteger(2);
+
+        SocketConnection(Socket socket, WebSocketFrameStream stream, PerMessageDeflate deflate) {
+            mSocket = socket;
+            mStream = stream;
+            mDeflate = deflate;
+            mQueue = new OutboundQueue("simperium.websocket.writer", this);
+        }
+
+        void start() {
+            mQueue.start();
+        }
+
+        /**
+         * Messages are read on the given thread, sends from it don't wait for the writer
+         */
+        void setInboundThread(Thread thread) {
+            mQueue.setInboundThread(thread);
+        }
+
+        @Override
+        public void send(String message) {
+            mQueue.send(message);
+        }
+
+        @Override
+        public void close() {
+            mQueue.close();
+        }
+
+        @Override
+        public void write(String message) {
+            try {
+                mStream.sendText(message);
+            } catch (IOException e) {
+                Logger.log(TAG, "Unable to write message", e);
+                // the reader sees the closed socket and reports the disconnect
+                closeSocket(mSocket);
+            }
+        }
+
+        @Override
+        public void flush() {
+            try {
+                mStream.flush();
+            } catch (IOException e) {
+                Logger.log(TAG, "Unable to flush messages", e);
+                closeSocket(mSocket);
+            }
+        }
+
+        /**
+         * Called by the queue's writer after the queued messages have been written
+         */
+        @Override
+        public void onClose() {
+            try {
+                mStream.sendClose(WebSocketFrameStream.CLOSE_NORMAL);
+            } catch (IOException e) {
+                Logger.log(TAG, String.format(Locale.US, "Unable to send close: %s", e));
+            }
+            closeSocket(mSocket);
+            release();
+        }
+
+        void release() {
+            if (mUsers.decrementAndGet() == 0 && mDeflate != null) {
+                mDeflate.release();
+            }
+        }
+
+        /**
+         * The queue is full and dropped its messages, the reader sees the closed socket and
+         * reports the disconnect
+         */
+        @Override
+        public void onOverflow() {
+            closeSocket(mSocket);
+        }
+
+    }
+
+    private static void closeSocket(Socket socket) {
+        if (socket == null) return;
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+
+}
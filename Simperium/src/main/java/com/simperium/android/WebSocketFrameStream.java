@@ -0,0 +1,288 @@
+package com.simperium.android;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.nio.charset.Charset;
+import java.security.SecureRandom;
+import java.util.zip.DataFormatException;
+
+/**
+ * Reads and writes RFC 6455 websocket frames over a socket's streams.
+ *
+ * Frame payloads are read straight into a message buffer that is reused for every message, so
+ * reading a large index page doesn't allocate per frame. Pings are answered as they arrive.
+ * Text frames are only buffered, the writer flushes once it has written what it had queued.
+ * Clients mask the frames they send, servers don't. When permessage-deflate was negotiated
+ * messages are compressed and decompressed with it. Only text messages are accepted, the
+ * connection is closed with 1003 when any other kind arrives and with 1002 when a frame breaks
+ * the protocol.
+ */
+class WebSocketFrameStream {
+
+    public static final int OPCODE_CONTINUATION = 0x0;
+    public static final int OPCODE_TEXT = 0x1;
+    public static final int OPCODE_BINARY = 0x2;
+    public static final int OPCODE_CLOSE = 0x8;
+    public static final int OPCODE_PING = 0x9;
+    public static final int OPCODE_PONG = 0xA;
+
+    public static final int CLOSE_NORMAL = 1000;
+    public static final int CLOSE_PROTOCOL_ERROR = 1002;
+    public static final int CLOSE_UNSUPPORTED_DATA = 1003;
+    public static final int CLOSE_TOO_BIG = 1009;
+
+    private static final int FIN = 0x80;
+    private static final int RSV1 = 0x40;
+    private static final int RSV = 0x70;
+    private static final int MASK = 0x80;
+    private static final int MAX_CONTROL_PAYLOAD = 125;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final SecureRandom sRandom = new SecureRandom();
+
+    final private InputStream mIn;
+    final private OutputStream mOut;
+    final private boolean mMaskFrames;
+    final private PerMessageDeflate mDeflate;
+    final private int mMaxMessageSize;
+
+    // the reading and the writing thread each have their own header and mask buffers
+    final private byte[] mReadHeader = new byte[8];
+    final private byte[] mReadMask = new byte[4];
+    final private byte[] mWriteHeader = new byte[14];
+    final private byte[] mWriteMask = new byte[4];
+    final private byte[] mControl = new byte[MAX_CONTROL_PAYLOAD];
+    private byte[] mMessage;
+    private boolean mCloseSent = false;
+
+    /**
+     * Streams should be buffered, their buffer sizes decide how much is read and written per
+     * system call
+     */
+    WebSocketFrameStream(InputStream in, OutputStream out, boolean maskFrames, PerMessageDeflate deflate,
+        int initialMessageSize, int maxMessageSize) {
+        mIn = in;
+        mOut = out;
+        mMaskFrames = maskFrames;
+        mDeflate = deflate;
+        mMessage = new byte[initialMessageSize];
+        mMaxMessageSize = maxMessageSize;
+    }
+
+    /**
+     * Block until a complete message has been received, returns null once the peer closes
+     * the connection
+     */
+    public String readMessage()
+    throws IOException {
+        int length = 0;
+        boolean compressed = false, started = false;
+
+        while (true) {
+            int first = mIn.read();
+            if (first == -1) throw new EOFException("Connection closed without a close frame");
+            int second = readByte();
+
+            boolean fin = (first & FIN) != 0;
+            int opcode = first & 0x0F;
+            long payloadLength = second & 0x7F;
+            if (payloadLength == 126) {
+                readFully(mReadHeader, 0, 2);
+                payloadLength = ((mReadHeader[0] & 0xFF) << 8) | (mReadHeader[1] & 0xFF);
+            } else if (payloadLength == 127) {
+                readFully(mReadHeader, 0, 8);
+                payloadLength = 0;
+                for (int i = 0; i < 8; i++) {
+                    payloadLength = (payloadLength << 8) | (mReadHeader[i] & 0xFF);
+                }
+                // the most significant bit must be 0
+                if (payloadLength < 0) throw protocolError("Invalid frame length");
+            }
+            // RSV1 only marks the first frame of a compressed message, no other bits are defined
+            int reserved = first & RSV;
+            if (reserved != 0 && (reserved != RSV1 || mDeflate == null || opcode != OPCODE_TEXT)) {
+                throw protocolError(String.format("Unexpected reserved bits 0x%x", reserved));
+            }
+            boolean masked = (second & MASK) != 0;
+            if (masked) {
+                readFully(mReadMask, 0, 4);
+            }
+
+            if (opcode >= OPCODE_CLOSE) {
+                if (!fin || payloadLength > MAX_CONTROL_PAYLOAD) {
+                    throw protocolError("Invalid control frame");
+                }
+                int size = (int) payloadLength;
+                readFully(mControl, 0, size);
+                if (masked) unmask(mControl, 0, size, mReadMask);
+
+                if (opcode == OPCODE_PING) {
+                    writePong(copy(mControl, size));
+                } else if (opcode == OPCODE_CLOSE) {
+                    int code = size >= 2 ? ((mControl[0] & 0xFF) << 8) | (mControl[1] & 0xFF) : CLOSE_NORMAL;
+                    sendClose(code);
+                    return null;
+                }
+                continue;
+            }
+
+            if (opcode == OPCODE_CONTINUATION) {
+                if (!started) throw protocolError("Continuation frame without a message");
+            } else if (opcode != OPCODE_TEXT) {
+                // simperium only sends text, don't decode anything else as a message
+                sendClose(CLOSE_UNSUPPORTED_DATA);
+                throw new ProtocolException(String.format("Unsupported frame opcode 0x%x", opcode));
+            } else {
+                if (started) throw protocolError("New message before the last one finished");
+                started = true;
+                compressed = (first & RSV1) != 0;
+            }
+
+            if (length + payloadLength > mMaxMessageSize) {
+                sendClose(CLOSE_TOO_BIG);
+                throw new ProtocolException("Message larger than " + mMaxMessageSize + " bytes");
+            }
+            int size = (int) payloadLength;
+            ensureCapacity(length + size);
+            readFully(mMessage, length, size);
+            if (masked) unmask(mMessage, length, size, mReadMask);
+            length += size;
+
+            if (fin) break;
+        }
+
+        if (compressed) {
+            try {
+                byte[] message = mDeflate.decompress(mMessage, 0, length);
+                return new String(message, UTF_8);
+            } catch (DataFormatException e) {
+                throw protocolError("Invalid compressed message: " + e.getMessage());
+            }
+        }
+
+        if (mDeflate != null) mDeflate.receivedUncompressed(length);
+        return new String(mMessage, 0, length, UTF_8);
+    }
+
+    synchronized public void sendText(String message)
+    throws IOException {
+        byte[] payload = message.getBytes(UTF_8);
+        boolean compress = mDeflate != null && mDeflate.shouldCompress(payload.length);
+        if (compress) {
+            payload = mDeflate.compress(payload);
+        } else if (mDeflate != null) {
+            mDeflate.sentUncompressed(payload.length);
+        }
+        writeFrame(OPCODE_TEXT, compress, payload);
+    }
+
+    /**
+     * Write out the frames buffered by sendText
+     */
+    synchronized public void flush()
+    throws IOException {
+        mOut.flush();
+    }
+
+    synchronized public void sendPing()
+    throws IOException {
+        writeFrame(OPCODE_PING, false, new byte[0]);
+        mOut.flush();
+    }
+
+    /**
+     * Send a close frame unless one was already sent
+     */
+    synchronized public void sendClose(int code)
+    throws IOException {
+        if (mCloseSent) return;
+        mCloseSent = true;
+        writeFrame(OPCODE_CLOSE, false, new byte[]{(byte) (code >> 8), (byte) code});
+        mOut.flush();
+    }
+
+    /**
+     * Close the connection with 1002, returns the exception to throw
+     */
+    private ProtocolException protocolError(String message)
+    throws IOException {
+        sendClose(CLOSE_PROTOCOL_ERROR);
+        return new ProtocolException(message);
+    }
+
+    synchronized private void writePong(byte[] payload)
+    throws IOException {
+        writeFrame(OPCODE_PONG, false, payload);
+        mOut.flush();
+    }
+
+    /**
+     * Payloads are masked in place, the frame is left in the output buffer
+     */
+    synchronized private void writeFrame(int opcode, boolean compressed, byte[] payload)
+    throws IOException {
+        int length = payload.length;
+        int header = 0;
+        mWriteHeader[header++] = (byte) (FIN | (compressed ? RSV1 : 0) | opcode);
+        int mask = mMaskFrames ? MASK : 0;
+        if (length < 126) {
+            mWriteHeader[header++] = (byte) (mask | length);
+        } else if (length <= 0xFFFF) {
+            mWriteHeader[header++] = (byte) (mask | 126);
+            mWriteHeader[header++] = (byte) (length >> 8);
+            mWriteHeader[header++] = (byte) length;
+        } else {
+            mWriteHeader[header++] = (byte) (mask | 127);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                mWriteHeader[header++] = (byte) ((long) length >> shift);
+            }
+        }
+        if (mMaskFrames) {
+            sRandom.nextBytes(mWriteMask);
+            System.arraycopy(mWriteMask, 0, mWriteHeader, header, 4);
+            header += 4;
+            unmask(payload, 0, length, mWriteMask);
+        }
+        mOut.write(mWriteHeader, 0, header);
+        mOut.write(payload, 0, length);
+    }
+
+    private static void unmask(byte[] data, int offset, int length, byte[] mask) {
+        for (int i = 0; i < length; i++) {
+            data[offset + i] ^= mask[i & 3];
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mMessage.length) return;
+        byte[] message = new byte[Math.max(capacity, Math.min(mMessage.length * 2, mMaxMessageSize))];
+        System.arraycopy(mMessage, 0, message, 0, mMessage.length);
+        mMessage = message;
+    }
+
+    private int readByte()
+    throws IOException {
+        int value = mIn.read();
+        if (value == -1) throw new EOFException("Connection closed mid frame");
+        return value;
+    }
+
+    private void readFully(byte[] buffer, int offset, int length)
+    throws IOException {
+        while (length > 0) {
+            int count = mIn.read(buffer, offset, length);
+            if (count == -1) throw new EOFException("Connection closed mid frame");
+            offset += count;
+            length -= count;
+        }
+    }
+
+    private static byte[] copy(byte[] data, int length) {
+        byte[] copy = new byte[length];
+        System.arraycopy(data, 0, copy, 0, length);
+        return copy;
+    }
+
+}
@@ -0,0 +1,104 @@
+package com.simperium.android;
+
+import android.util.Base64;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The HTTP upgrade that opens a websocket (RFC 6455 section 4)
+ */
+class WebSocketHandshake {
+
+    public static final String HEADER_UPGRADE = "Upgrade";
+    public static final String HEADER_CONNECTION = "Connection";
+    public static final String HEADER_KEY = "Sec-WebSocket-Key";
+    public static final String HEADER_ACCEPT = "Sec-WebSocket-Accept";
+    public static final String HEADER_VERSION = "Sec-WebSocket-Version";
+    public static final String VERSION = "13";
+
+    private static final String GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final int MAX_LINE = 8192;
+    private static final SecureRandom sRandom = new SecureRandom();
+
+    /**
+     * The start line and headers of a handshake request or response, header names are lower case
+     */
+    static class Message {
+
+        final public String startLine;
+        final public Map<String,String> headers;
+
+        Message(String startLine, Map<String,String> headers) {
+            this.startLine = startLine;
+            this.headers = headers;
+        }
+
+        public String getHeader(String name) {
+            return headers.get(name.toLowerCase(Locale.US));
+        }
+
+    }
+
+    public static String generateKey() {
+        byte[] key = new byte[16];
+        sRandom.nextBytes(key);
+        return Base64.encodeToString(key, Base64.NO_WRAP);
+    }
+
+    /**
+     * The Sec-WebSocket-Accept value a server answers the key with
+     */
+    public static String accept(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            byte[] digest = sha1.digest((key + GUID).getBytes(ISO_8859_1));
+            return Base64.encodeToString(digest, Base64.NO_WRAP);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+    }
+
+    /**
+     * Read the start line and headers up to the empty line that ends them, the stream is left
+     * at the first websocket frame
+     */
+    public static Message read(InputStream in)
+    throws IOException {
+        String startLine = readLine(in);
+        Map<String,String> headers = new HashMap<>();
+        String line;
+        while (!(line = readLine(in)).isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon <= 0) throw new ProtocolException("Invalid header: " + line);
+            String name = line.substring(0, colon).trim().toLowerCase(Locale.US);
+            String value = line.substring(colon + 1).trim();
+            String existing = headers.get(name);
+            headers.put(name, existing == null ? value : existing + ", " + value);
+        }
+        return new Message(startLine, headers);
+    }
+
+    private static String readLine(InputStream in)
+    throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c == -1) throw new EOFException("Connection closed during handshake");
+            if (c != '\r') line.append((char) c);
+            if (line.length() > MAX_LINE) throw new ProtocolException("Handshake line too long");
+        }
+        return line.toString();
+    }
+
+}
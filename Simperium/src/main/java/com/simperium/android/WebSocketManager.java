@@ -15,6 +15,7 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.simperium.BuildConfig;
@@ -22,16 +23,25 @@ import com.simperium.client.Bucket;
 import com.simperium.client.Channel;
 import com.simperium.client.ChannelProvider;
 import com.simperium.util.Logger;
+import com.simperium.util.MessageCodec;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 public class WebSocketManager implements ChannelProvider, Channel.OnMessageListener {
 
@@ -55,10 +65,51 @@ public class WebSocketManager implements ChannelProvider, Channel.OnMessageListe
         public void connect(ConnectionListener connectionListener);
     }
 
+    /**
+     * A provider whose connections compress messages with permessage-deflate when the server
+     * agrees to it
+     */
+    public interface CompressingConnectionProvider extends ConnectionProvider {
+        public CompressionStats getCompressionStats();
+    }
+
+    /**
+     * Decides how long to wait before reconnecting after a connection is lost or fails
+     */
+    public interface ReconnectPolicy {
+        public long nextReconnectInterval();
+        // called once connected and when the network becomes available again
+        public void reset();
+    }
+
+    /**
+     * A reconnect that was scheduled, kept in the reconnect history
+     */
+    public static class ReconnectAttempt {
+
+        // elapsedRealtime() when the reconnect was scheduled
+        public final long time;
+        public final long delay;
+        public final String reason;
+
+        public ReconnectAttempt(long time, long delay, String reason) {
+            this.time = time;
+            this.delay = delay;
+            this.reason = reason;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "ReconnectAttempt %d in %d ms: %s", time, delay, reason);
+        }
+
+    }
+
     public static final String TAG = "Simperium.WebSocket";
     static public final String COMMAND_HEARTBEAT = "h";
     static public final String COMMAND_LOG = "log";
     static public final String LOG_FORMAT = "%s:%s";
+    static final int OUTBOUND_BUILDER_MAX_CAPACITY = 64 * 1024;
 
     final protected ConnectionProvider mConnectionProvider;
     protected Connection mConnection = new NullConnection();
@@ -67,19 +118,39 @@ public class WebSocketManager implements ChannelProvider, Channel.OnMessageListe
     private HashMap<Channel,Integer> mChannelIndex = new HashMap<Channel,Integer>();
     private HashMap<Integer,Channel> mChannels = new HashMap<Integer,Channel>();
     private HashSet<HeartbeatListener> mHeartbeatListeners = new HashSet<HeartbeatListener>();
+    // managers of the named connections buckets were given instead of this one
+    final private HashMap<String,WebSocketManager> mConnections = new HashMap<String,WebSocketManager>();
+    // reused to prefix outgoing messages with their channel id
+    final private StringBuilder mOutboundBuilder = new StringBuilder(256);
 
     public static final long HEARTBEAT_INTERVAL = 10000; // 10 seconds
-    static final long DEFAULT_RECONNECT_INTERVAL = 3000; // 3 seconds
+    // connection is considered dead when nothing is received this long after a heartbeat
+    public static final long HEARTBEAT_TIMEOUT = 20000; // 20 seconds
+    public static final int RECONNECT_HISTORY_SIZE = 20;
+
+    private static final int HEARTBEAT_WAIT = 0, HEARTBEAT_DUE = 1, HEARTBEAT_TIMED_OUT = 2;
 
-    private Timer mHeartbeatTimer, mReconnectTimer;
+    private static ScheduledExecutorService sScheduler;
+
+    // heartbeats and reconnects run on a scheduler shared by every WebSocketManager
+    final private ScheduledExecutorService mScheduler;
+    private ScheduledFuture<?> mHeartbeatFuture, mReconnectFuture;
     private int mHeartbeatCount = 0, mLogLevel = 0;
-    private long mReconnectInterval = DEFAULT_RECONNECT_INTERVAL;
+    private ReconnectPolicy mReconnectPolicy = new BackoffReconnectPolicy();
+    final private ArrayDeque<ReconnectAttempt> mReconnectHistory = new ArrayDeque<>(RECONNECT_HISTORY_SIZE);
+    private long mHeartbeatInterval = HEARTBEAT_INTERVAL, mHeartbeatTimeout = HEARTBEAT_TIMEOUT;
+    // time of the last received message and of the heartbeat waiting for a reply, 0 if none
+    private volatile long mLastActivity = 0;
+    private long mHeartbeatSentAt = 0;
+    // identifies the current connection attempt so callbacks of abandoned connections are ignored
+    private volatile Object mConnectionAttempt;
 
     private ConnectionStatus mConnectionStatus = ConnectionStatus.DISCONNECTED;
 
     final protected Channel.Serializer mSerializer;
     final protected Executor mExecutor;
     final protected ConnectivityManager mConnectivityManager;
+    final private Context mContext;
 
     public WebSocketManager(Executor executor, String appId, String sessionId, Channel.Serializer channelSerializer,
         ConnectionProvider connectionProvider) {
@@ -88,11 +159,18 @@ public class WebSocketManager implements ChannelProvider, Channel.OnMessageListe
 
     public WebSocketManager(Executor executor, String appId, String sessionId, Channel.Serializer channelSerializer,
         ConnectionProvider connectionProvider, Context context) {
+        this(executor, appId, sessionId, channelSerializer, connectionProvider, context, getDefaultScheduler());
+    }
+
+    public WebSocketManager(Executor executor, String appId, String sessionId, Channel.Serializer channelSerializer,
+        ConnectionProvider connectionProvider, Context context, ScheduledExecutorService scheduler) {
         mExecutor = executor;
+        mScheduler = scheduler;
         mAppId = appId;
         mSessionId = sessionId;
         mSerializer = channelSerializer;
         mConnectionProvider = connectionProvider;
+        mContext = context;
 
         if (context != null) {
             mConnectivityManager = (ConnectivityManager)context.getSystemService(Context.CONNECTIVITY_SERVICE);
@@ -104,8 +182,8 @@ public class WebSocketManager implements ChannelProvider, Channel.OnMessageListe
 
                     boolean noConnection = intent.getBooleanExtra(ConnectivityManager.EXTRA_NO_CONNECTIVITY, false);
 
-                    if (!noConnection && mReconnect) {
-                        connect();
+                    if (!noConnection) {
+                        onNetworkAvailable();
                     }
                 }
 
@@ -116,6 +194,25 @@ public class WebSocketManager implements ChannelProvider, Channel.OnMessageListe
 
     }
 
+    /**
+     * Manager of a named connection, it shares the parent's settings and the parent's
+     * connectivity receiver tells it when the network comes back
+     */
+    private WebSocketManager(WebSocketManager parent) {
+        mExecutor = parent.mExecutor;
+        mScheduler = parent.mScheduler;
+        mAppId = parent.mAppId;
+        mSessionId = parent.mSessionId;
+        mSerializer = parent.mSerializer;
+        mConnectionProvider = parent.mConnectionProvider;
+        mContext = parent.mContext;
+        mConnectivityManager = parent.mConnectivityManager;
+        mLogLevel = parent.mLogLevel;
+        mHeartbeatInterval = parent.mHeartbeatInterval;
+        mHeartbeatTimeout = parent.mHeartbeatTimeout;
+        mHeartbeatListeners.addAll(parent.mHeartbeatListeners);
+    }
+
     /**
      * Creates a channel for the bucket. Starts the websocket connection if not connected
      *
@@ -137,6 +234,40 @@ public class WebSocketManager implements ChannelProvider, Channel.OnMessageListe
         return channel;
     }
 
+    /**
+     * Creates a channel for the bucket on the named connection, each name gets a socket of its
+     * own that connects, sends heartbeats and reconnects independently of this one.
+     */
+    @Override
+    public Channel buildChannel(Bucket bucket, String connection) {
+        if (connection == null || connection.equals(DEFAULT_CONNECTION)) {
+            return buildChannel(bucket);
+        }
+        return getConnection(connection).buildChannel(bucket);
+    }
+
+    /**
+     * The manager of the named connection, created on first use with this manager's settings
+     */
+    public synchronized WebSocketManager getConnection(String connection) {
+        if (connection == null || connection.equals(DEFAULT_CONNECTION)) {
+            return this;
+        }
+        WebSocketManager manager = mConnections.get(connection);
+        if (manager == null) {
+            manager = new WebSocketManager(this);
+            mConnections.put(connection, manager);
+        }
+        return manager;
+    }
+
+    /**
+     * Managers of the named connections created so far
+     */
+    private synchronized List<WebSocketManager> getConnections() {
+        return new ArrayList<>(mConnections.values());
+    }
+
     @Override
     public void log(int level, CharSequence message) {
 
@@ -162,8 +293,70 @@ public class WebSocketManager implements ChannelProvider, Channel.OnMessageListe
         if (send) send(String.format(LOG_FORMAT, COMMAND_LOG, log));
     }
 
-    public void addHeartbeatListener(HeartbeatListener listener) {
+    public synchronized void addHeartbeatListener(HeartbeatListener listener) {
         mHeartbeatListeners.add(listener);
+        for (WebSocketManager manager : mConnections.values()) {
+            manager.addHeartbeatListener(listener);
+        }
+    }
+
+    /**
+     * The scheduler thread shared by every WebSocketManager, it is a daemon thread
+     */
+    public static synchronized ScheduledExecutorService getDefaultScheduler() {
+        if (sScheduler == null) {
+            ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "simperium.websocket");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            scheduler.setRemoveOnCancelPolicy(true);
+            sScheduler = scheduler;
+        }
+        return sScheduler;
+    }
+
+    /**
+     * Send a heartbeat after interval ms without receiving anything and drop the connection when
+     * nothing is received within timeout ms of sending it
+     */
+    public synchronized void setHeartbeatInterval(long interval, long timeout) {
+        mHeartbeatInterval = interval;
+        mHeartbeatTimeout = timeout;
+        if (isConnected()) {
+            scheduleHeartbeat(0);
+        }
+        for (WebSocketManager manager : mConnections.values()) {
+            manager.setHeartbeatInterval(interval, timeout);
+        }
+    }
+
+    /**
+     * Replace the policy deciding how long to wait between reconnect attempts
+     */
+    public synchronized void setReconnectPolicy(ReconnectPolicy policy) {
+        mReconnectPolicy = policy;
+    }
+
+    /**
+     * The most recent scheduled reconnects, oldest first
+     */
+    public synchronized List<ReconnectAttempt> getReconnectHistory() {
+        return new ArrayList<>(mReconnectHistory);
+    }
+
+    /**
+     * How well messages compress on the wire, null when the connection provider doesn't
+     * compress messages. Named connections share the provider and so the stats.
+     */
+    public CompressionStats getCompressionStats() {
+        if (mConnectionProvider instanceof CompressingConnectionProvider) {
+            return ((CompressingConnectionProvider) mConnectionProvider).getCompressionStats();
+        }
+        return null;
     }
 
     @Override
@@ -171,6 +364,16 @@ public class WebSocketManager implements ChannelProvider, Channel.OnMessageListe
         return mLogLevel;
     }
 
+    /**
+     * The level the server asked for, named connections follow the level of this one
+     */
+    private void setLogLevel(int level) {
+        mLogLevel = level;
+        for (WebSocketManager manager : getConnections()) {
+            manager.setLogLevel(level);
+        }
+    }
+
     public void connect() {
         // if we have channels, then connect, otherwise wait for a channel
         cancelReconnect();
@@ -201,23 +404,33 @@ public class WebSocketManager implements ChannelProvider, Channel.OnMessageListe
             return;
         }
 
+        final Object attempt = new Object();
+        mConnectionAttempt = attempt;
+
         mConnectionProvider.connect(new ConnectionListener() {
 
             public void onError(Exception exception) {
+                if (attempt != mConnectionAttempt) return;
                 mConnection = new NullConnection();
                 WebSocketManager.this.onError(exception);
             }
 
             public void onConnect(Connection connection) {
+                if (attempt != mConnectionAttempt) {
+                    connection.close();
+                    return;
+                }
                 mConnection = connection;
                 WebSocketManager.this.onConnect();
             }
 
             public void onMessage(String message) {
+                if (attempt != mConnectionAttempt) return;
                 WebSocketManager.this.onMessage(message);
             }
 
             public void onDisconnect(Exception exception) {
+                if (attempt != mConnectionAttempt) return;
                 mConnection = new NullConnection();
                 WebSocketManager.this.onDisconnect(exception);
             }
@@ -230,12 +443,25 @@ public class WebSocketManager implements ChannelProvider, Channel.OnMessageListe
     protected void send(String message) {
         if (!isConnected()) return;
 
+        Connection connection;
         synchronized(this) {
-            mConnection.send(message);
+            connection = mConnection;
         }
+        // the connection may wait for room to queue the message, no lock is held while it does
+        connection.send(message);
     }
 
+    /**
+     * Closes this connection and the named connections and stops them from reconnecting
+     */
     public void disconnect() {
+        closeConnection();
+        for (WebSocketManager manager : getConnections()) {
+            manager.disconnect();
+        }
+    }
+
+    private void closeConnection() {
         // disconnect the channel
         mReconnect = false;
         cancelReconnect();
@@ -284,66 +510,145 @@ public class WebSocketManager implements ChannelProvider, Channel.OnMessageListe
         }
     }
 
-    private void cancelHeartbeat() {
-        if(mHeartbeatTimer != null) mHeartbeatTimer.cancel();
+    synchronized private void cancelHeartbeat() {
+        if (mHeartbeatFuture != null) {
+            mHeartbeatFuture.cancel(false);
+            mHeartbeatFuture = null;
+        }
         mHeartbeatCount = 0;
+        mHeartbeatSentAt = 0;
     }
 
-    private void scheduleHeartbeat() {
-        cancelHeartbeat();
-        mHeartbeatTimer = new Timer();
-        mHeartbeatTimer.schedule(new TimerTask() {
-            public void run() {
-                sendHeartbeat();
+    synchronized private void scheduleHeartbeat(long delay) {
+        if (mHeartbeatFuture != null) {
+            mHeartbeatFuture.cancel(false);
+        }
+        try {
+            mHeartbeatFuture = mScheduler.schedule(new Runnable() {
+                public void run() {
+                    // channels are notified and heartbeats sent outside of the lock
+                    switch (checkHeartbeat()) {
+                        case HEARTBEAT_DUE:
+                            sendHeartbeat();
+                            break;
+                        case HEARTBEAT_TIMED_OUT:
+                            onHeartbeatTimeout();
+                            break;
+                    }
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            Logger.log(TAG, "Unable to schedule heartbeat", e);
+        }
+    }
+
+    /**
+     * Received messages only update mLastActivity, this runs when the connection may have been
+     * quiet for a full interval and either sends a heartbeat or checks again when the connection
+     * will next have been quiet long enough. Returns HEARTBEAT_DUE when a heartbeat should be sent
+     * and HEARTBEAT_TIMED_OUT when the last one was not answered in time.
+     */
+    synchronized private int checkHeartbeat() {
+        if (!isConnected()) return HEARTBEAT_WAIT;
+
+        long now = SystemClock.elapsedRealtime();
+        if (mHeartbeatSentAt > 0 && mLastActivity < mHeartbeatSentAt) {
+            long waiting = now - mHeartbeatSentAt;
+            if (waiting >= mHeartbeatTimeout) {
+                return HEARTBEAT_TIMED_OUT;
             }
-        }, HEARTBEAT_INTERVAL);
+            scheduleHeartbeat(mHeartbeatTimeout - waiting);
+            return HEARTBEAT_WAIT;
+        }
+
+        mHeartbeatSentAt = 0;
+        long idle = now - mLastActivity;
+        if (idle >= mHeartbeatInterval) {
+            mHeartbeatSentAt = now;
+            scheduleHeartbeat(mHeartbeatTimeout);
+            return HEARTBEAT_DUE;
+        }
+        scheduleHeartbeat(mHeartbeatInterval - idle);
+        return HEARTBEAT_WAIT;
     }
 
-    synchronized private void sendHeartbeat() {
-        mHeartbeatCount ++;
-        String command = String.format(Locale.US, "%s:%d", COMMAND_HEARTBEAT, mHeartbeatCount);
+    /**
+     * Sent from the executor, the scheduler is shared by every manager and must not wait for a
+     * full outbound queue
+     */
+    private void sendHeartbeat() {
+        final String command;
+        synchronized(this) {
+            mHeartbeatCount ++;
+            command = String.format(Locale.US, "%s:%d", COMMAND_HEARTBEAT, mHeartbeatCount);
+        }
 
-        send(command);
+        mExecutor.execute(new Runnable() {
+            public void run() {
+                send(command);
+            }
+        });
 
     }
 
-    private void cancelReconnect() {
-        if (mReconnectTimer != null) {
-            mReconnectTimer.cancel();
-            mReconnectTimer = null;
+    /**
+     * The heartbeat was not answered, abandon the connection and reconnect
+     */
+    private void onHeartbeatTimeout() {
+        Logger.log(TAG, String.format(Locale.US, "No heartbeat reply in %d ms, dropping connection", mHeartbeatTimeout));
+        Connection connection = mConnection;
+        mConnectionAttempt = null;
+        mConnection = new NullConnection();
+        connection.close();
+        onDisconnect(new IOException("Heartbeat timed out"));
+    }
+
+    synchronized private void cancelReconnect() {
+        if (mReconnectFuture != null) {
+            mReconnectFuture.cancel(false);
+            mReconnectFuture = null;
         }
     }
 
-    private void scheduleReconnect() {
+    synchronized private void scheduleReconnect(Exception cause) {
         // check if we're not already trying to reconnect
-        if (mReconnectTimer != null) return;
-        mReconnectTimer = new Timer();
-        // exponential backoff
-        long retryIn = nextReconnectInterval();
+        if (mReconnectFuture != null) return;
+        long retryIn = mReconnectPolicy.nextReconnectInterval();
         try {
-            mReconnectTimer.schedule(new TimerTask() {
+            mReconnectFuture = mScheduler.schedule(new Runnable() {
                 public void run() {
+                    synchronized(WebSocketManager.this) {
+                        mReconnectFuture = null;
+                    }
                     connect();
                 }
-            }, retryIn);
-        } catch (IllegalStateException | NullPointerException e) {
-            Logger.log(TAG, "Unable to schedule timer", e);
+            }, retryIn, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            Logger.log(TAG, "Unable to schedule reconnect", e);
             return;
         }
 
+        if (mReconnectHistory.size() == RECONNECT_HISTORY_SIZE) {
+            mReconnectHistory.removeFirst();
+        }
+        mReconnectHistory.addLast(new ReconnectAttempt(SystemClock.elapsedRealtime(), retryIn, String.valueOf(cause)));
+
         Logger.log(String.format(Locale.US, "Retrying in %d", retryIn));
     }
 
-    // duplicating javascript reconnect interval calculation
-    // doesn't do exponential backoff
-    private long nextReconnectInterval() {
-        long current = mReconnectInterval;
-        if (mReconnectInterval < 4000) {
-            mReconnectInterval ++;
-        } else {
-            mReconnectInterval = 15000;
+    /**
+     * The network is back, there is no point waiting out the backoff
+     */
+    private void onNetworkAvailable() {
+        if (mReconnect) {
+            synchronized(this) {
+                mReconnectPolicy.reset();
+            }
+            connect();
+        }
+        for (WebSocketManager manager : getConnections()) {
+            manager.onNetworkAvailable();
         }
-        return current;
     }
 
     /**
@@ -355,8 +660,20 @@ public class WebSocketManager implements ChannelProvider, Channel.OnMessageListe
     public void onMessage(Channel.MessageEvent event) {
         Channel channel = (Channel)event.getSource();
         Integer channelId = mChannelIndex.get(channel);
+        if (channelId == null) {
+            Logger.log(TAG, String.format(Locale.US, "Dropping message from unregistered channel %s", channel));
+            return;
+        }
         // Prefix the message with the correct channel id
-        String message = String.format(Locale.US, "%d:%s", channelId, event.getMessage());
+        String message;
+        synchronized(mOutboundBuilder) {
+            message = MessageCodec.encode(mOutboundBuilder, channelId, event.getMessage()).toString();
+            // don't hold on to the room a large change needed
+            if (mOutboundBuilder.capacity() > OUTBOUND_BUILDER_MAX_CAPACITY) {
+                mOutboundBuilder.setLength(0);
+                mOutboundBuilder.trimToSize();
+            }
+        }
 
         send(message);
 
@@ -372,7 +689,8 @@ public class WebSocketManager implements ChannelProvider, Channel.OnMessageListe
             if (channel.isStarted()) return;
         }
         Logger.log(TAG, String.format(Locale.US, "%s disconnect from socket", Thread.currentThread().getName()));
-        disconnect();
+        // the named connections have channels of their own and close on their own
+        closeConnection();
     }
 
     @Override
@@ -399,9 +717,12 @@ public class WebSocketManager implements ChannelProvider, Channel.OnMessageListe
         setConnectionStatus(ConnectionStatus.CONNECTED);
         notifyChannelsConnected();
         mHeartbeatCount = 0; // reset heartbeat count
-        scheduleHeartbeat();
+        mLastActivity = SystemClock.elapsedRealtime();
+        scheduleHeartbeat(mHeartbeatInterval);
         cancelReconnect();
-        mReconnectInterval = DEFAULT_RECONNECT_INTERVAL;
+        synchronized(this) {
+            mReconnectPolicy.reset();
+        }
     }
 
     protected void onMessage(String message) {
@@ -410,25 +731,29 @@ public class WebSocketManager implements ChannelProvider, Channel.OnMessageListe
             Log.d(TAG, "Received Message: " + message);
         }
 
-        scheduleHeartbeat();
+        // the heartbeat check reads this instead of every message rescheduling a timer
+        mLastActivity = SystemClock.elapsedRealtime();
+
+        // channel messages are handed over with the offset of their command
+        int channelId = MessageCodec.parseChannel(message);
+        if (channelId != MessageCodec.NO_CHANNEL) {
+            Channel channel = mChannels.get(channelId);
+            if (channel != null) {
+                channel.receiveMessage(message, MessageCodec.skipPrefix(message, 0));
+                return;
+            }
+        }
 
-        String[] parts = message.split(":", 2);
-        if (parts[0].equals(COMMAND_HEARTBEAT)) {
-            mHeartbeatCount = Integer.parseInt(parts[1]);
+        int payload = MessageCodec.skipPrefix(message, 0);
+        if (MessageCodec.isCommand(message, 0, COMMAND_HEARTBEAT)) {
+            mHeartbeatCount = Integer.parseInt(message.substring(payload));
             for (HeartbeatListener listener : mHeartbeatListeners) {
                 listener.onBeat();
             }
-            return;
-        } else if (parts[0].equals(COMMAND_LOG)) {
-            mLogLevel = Integer.parseInt(parts[1]);
-            return;
-        }
-        try {
-            int channelId = Integer.parseInt(parts[0]);
-            Channel channel = mChannels.get(channelId);
-            channel.receiveMessage(parts[1]);
-        } catch (NumberFormatException e) {
-            Logger.log(TAG, String.format(Locale.US, "Unhandled message %s", parts[0]));
+        } else if (MessageCodec.isCommand(message, 0, COMMAND_LOG)) {
+            setLogLevel(Integer.parseInt(message.substring(payload)));
+        } else {
+            Logger.log(TAG, String.format(Locale.US, "Unhandled message %s", message.substring(0, Math.max(payload - 1, 0))));
         }
     }
 
@@ -437,14 +762,14 @@ public class WebSocketManager implements ChannelProvider, Channel.OnMessageListe
         setConnectionStatus(ConnectionStatus.DISCONNECTED);
         notifyChannelsDisconnected();
         cancelHeartbeat();
-        if(mReconnect) scheduleReconnect();
+        if(mReconnect) scheduleReconnect(ex);
     }
 
     protected void onError(Exception error) {
         Logger.log(TAG, String.format(Locale.US, "Error: %s", error), error);
         setConnectionStatus(ConnectionStatus.DISCONNECTED);
         if (java.io.IOException.class.isAssignableFrom(error.getClass()) && mReconnect) {
-            scheduleReconnect();
+            scheduleReconnect(error);
         }
     }
 
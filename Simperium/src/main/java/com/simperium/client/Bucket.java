@@ -35,9 +35,11 @@ import com.simperium.util.Uuid;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Executor;
@@ -55,6 +57,11 @@ public class Bucket<T extends Syncable> {
         void getRevisions(String key, int sinceVersion, int maxVersionCount, RevisionsRequestCallbacks callbacks);
     }
 
+    /**
+     * Called for an object a remote change is about to update. Remote changes are applied in a
+     * storage transaction and the listener is called once it has committed, before network
+     * change listeners hear about the update.
+     */
     public interface OnBeforeUpdateObjectListener<T extends Syncable> {
         void onBeforeUpdateObject(Bucket<T> bucket, T object);
     }
@@ -75,10 +82,31 @@ public class Bucket<T extends Syncable> {
         void onSyncObject(Bucket<T> bucket, String key);
     }
 
+    /**
+     * Receives every key with unsynced local changes whenever that set changes.
+     *
+     * Prefer OnLocalQueueDeltaListener which only receives the keys that changed.
+     */
     public interface OnLocalQueueChangeListener<T extends Syncable> {
         void onLocalQueueChange(Bucket<T> bucket, Set<String> queuedObjects);
     }
 
+    /**
+     * Receives the keys that gained unsynced local changes (queued or waiting for an ack) and
+     * the keys that have been fully synced since the last call.
+     */
+    public interface OnLocalQueueDeltaListener<T extends Syncable> {
+        void onLocalQueueDelta(Bucket<T> bucket, Set<String> addedKeys, Set<String> removedKeys);
+    }
+
+    /**
+     * Receives the progress of the storage reindexing the bucket's objects in the background,
+     * the number of objects indexed so far and the number still queued
+     */
+    public interface OnReindexProgressListener<T extends Syncable> {
+        void onReindexProgress(Bucket<T> bucket, int indexed, int remaining);
+    }
+
     public interface Listener<T extends Syncable> extends
         OnSaveObjectListener<T>, OnDeleteObjectListener<T>,
         OnNetworkChangeListener<T>, OnBeforeUpdateObjectListener<T>,
@@ -170,6 +198,12 @@ public class Bucket<T extends Syncable> {
         Collections.synchronizedSet(new HashSet<OnSyncObjectListener<T>>());
     private Set<OnLocalQueueChangeListener<T>> onLocalQueueChangeListeners =
         Collections.synchronizedSet(new HashSet<OnLocalQueueChangeListener<T>>());
+    private Set<OnLocalQueueDeltaListener<T>> onLocalQueueDeltaListeners =
+        Collections.synchronizedSet(new HashSet<OnLocalQueueDeltaListener<T>>());
+    private Set<OnReindexProgressListener<T>> onReindexProgressListeners =
+        Collections.synchronizedSet(new HashSet<OnReindexProgressListener<T>>());
+    // keys with unsynced local changes, maintained from deltas for OnLocalQueueChangeListener
+    private final Set<String> mUnsyncedKeys = Collections.synchronizedSet(new HashSet<String>());
 
     private BucketStore<T> mStorage;
     private BucketSchema<T> mSchema;
@@ -178,6 +212,9 @@ public class Bucket<T extends Syncable> {
     private final Map<String,T> mBackupStore = new TimestampHashMap<>(BACKUP_STORE_RESET_DELAY);
 
     private final LockSet<String> mSaveDeleteLock = new LockSet<>();
+    private final HydrationPipeline<T> mHydrationPipeline;
+    // remote changes being applied in one transaction by the current thread
+    private final ThreadLocal<RemoteChangeBatch> mRemoteChangeBatch = new ThreadLocal<>();
 
     /**
      * Represents a Simperium bucket which is a namespace where an app syncs a user's data
@@ -193,6 +230,7 @@ public class Bucket<T extends Syncable> {
         mStorage = storage;
         mGhostStore = ghostStore;
         mSchema = schema;
+        mHydrationPipeline = new HydrationPipeline<>(this, executor, storage, ghostStore);
         validateBucketName(name);
     }
 
@@ -436,13 +474,87 @@ public class Bucket<T extends Syncable> {
 
     public void indexComplete(String changeVersion) {
         setChangeVersion(changeVersion);
+        mGhostStore.clearIndexCheckpoint(this);
         notifyOnNetworkChangeListeners(ChangeType.INDEX);
     }
 
+    /**
+     * Progress of an interrupted index download or null
+     */
+    public IndexCheckpoint getIndexCheckpoint() {
+        return mGhostStore.getIndexCheckpoint(this);
+    }
+
+    public void setIndexCheckpoint(IndexCheckpoint checkpoint) {
+        mGhostStore.setIndexCheckpoint(this, checkpoint);
+    }
+
+    public void clearIndexCheckpoint() {
+        mGhostStore.clearIndexCheckpoint(this);
+    }
+
     public void setChangeVersion(String version) {
+        RemoteChangeBatch batch = mRemoteChangeBatch.get();
+        if (batch != null) {
+            // written once when the batch is committed
+            batch.mChangeVersion = version;
+            return;
+        }
         mGhostStore.setChangeVersion(this, version);
     }
 
+    /**
+     * Apply remote changes in a single storage transaction. Every change version set by the
+     * changes is written once at the end and network change and sync listeners are notified
+     * after the transaction has been committed. If the transaction throws no listener is
+     * notified and the exception is passed on.
+     */
+    public void applyRemoteChanges(final Runnable changes) {
+        if (mRemoteChangeBatch.get() != null) {
+            changes.run();
+            return;
+        }
+
+        final RemoteChangeBatch batch = new RemoteChangeBatch();
+        mRemoteChangeBatch.set(batch);
+        try {
+            mStorage.transaction(new Runnable() {
+                @Override
+                public void run() {
+                    changes.run();
+                    if (batch.mChangeVersion != null) {
+                        mGhostStore.setChangeVersion(Bucket.this, batch.mChangeVersion);
+                    }
+                }
+            });
+        } finally {
+            mRemoteChangeBatch.remove();
+        }
+
+        // the batch is committed, a failing notification must not stop the ones after it
+        for (Runnable notification : batch.mNotifications) {
+            try {
+                notification.run();
+            } catch (RuntimeException e) {
+                Logger.log(TAG, "Notification after remote changes failed", e);
+            }
+        }
+    }
+
+    /**
+     * Run the notification now or, while a batch of remote changes is being applied, once the
+     * batch has been committed. Dropped if the batch's transaction fails, so it is also used for
+     * changes to objects kept in memory that must not outlive a rolled back batch.
+     */
+    void notifyAfterCommit(Runnable notification) {
+        RemoteChangeBatch batch = mRemoteChangeBatch.get();
+        if (batch != null) {
+            batch.mNotifications.add(notification);
+        } else {
+            notification.run();
+        }
+    }
+
     // starts tracking the object
     /**
      * Add an object to the bucket so simperium can start syncing it. Must
@@ -552,6 +664,13 @@ public class Bucket<T extends Syncable> {
                         getName(), key)));
             }
             Logger.log(TAG, String.format("Fetched backup copy for %s", key));
+            if (mRemoteChangeBatch.get() != null) {
+                // the backup is shared, remote changes that may still be rolled back change a copy
+                T copy = mSchema.build(key, JSONDiff.deepCopy(object.getDiffableValue()));
+                copy.setBucket(this);
+                copy.setGhost(object.getGhost());
+                object = copy;
+            }
         }
         return object;
     }
@@ -611,24 +730,11 @@ public class Bucket<T extends Syncable> {
     }
 
     /**
-     * 
+     * Objects are built on the executor and stored in batches by the hydration pipeline, the
+     * listener is told how many of its objects each committed batch contained
      */
-    protected void addObjectWithGhost(final Ghost ghost, final Runnable runnable) {
-        mExecutor.execute(new Runnable() {
-
-            @Override
-            public void run() {
-                mGhostStore.saveGhost(Bucket.this, ghost);
-                T object = buildObject(ghost);
-                addObject(object);
-
-                if (runnable != null) {
-                    runnable.run();
-                }
-
-            }
-
-        });
+    protected void addObjectWithGhost(final Ghost ghost, final HydrationPipeline.Listener listener) {
+        mHydrationPipeline.add(ghost, listener);
     }
 
     /**
@@ -707,11 +813,17 @@ public class Bucket<T extends Syncable> {
     /**
      * Update the ghost of an object in the backup store
      */
-    private void updateBackupStoreGhost(Ghost ghost) {
-        T object = mBackupStore.get(ghost.getSimperiumKey());
-        if (object != null) {
-            object.setGhost(ghost);
-        }
+    private void updateBackupStoreGhost(final Ghost ghost) {
+        // a ghost stored by remote changes only replaces the backup's once they are committed
+        notifyAfterCommit(new Runnable() {
+            @Override
+            public void run() {
+                T object = mBackupStore.get(ghost.getSimperiumKey());
+                if (object != null) {
+                    object.setGhost(ghost);
+                }
+            }
+        });
     }
 
     public Ghost getGhost(String key) throws GhostMissingException {
@@ -822,6 +934,22 @@ public class Bucket<T extends Syncable> {
         onLocalQueueChangeListeners.remove(listener);
     }
 
+    public void addOnLocalQueueDeltaListener(OnLocalQueueDeltaListener<T> listener) {
+        onLocalQueueDeltaListeners.add(listener);
+    }
+
+    public void removeOnLocalQueueDeltaListener(OnLocalQueueDeltaListener<T> listener) {
+        onLocalQueueDeltaListeners.remove(listener);
+    }
+
+    public void addOnReindexProgressListener(OnReindexProgressListener<T> listener) {
+        onReindexProgressListeners.add(listener);
+    }
+
+    public void removeOnReindexProgressListener(OnReindexProgressListener<T> listener) {
+        onReindexProgressListeners.remove(listener);
+    }
+
     private <L> void notifyListeners(Set<L> listeners, Consumer<L> annunciator) {
         for (L listener : new HashSet<>(listeners)) {
             try {
@@ -868,19 +996,29 @@ public class Bucket<T extends Syncable> {
     }
 
     public void notifyOnNetworkChangeListeners(final ChangeType type, final String key) {
-        notifyListeners(onChangeListeners, new Consumer<OnNetworkChangeListener<T>>() {
+        notifyAfterCommit(new Runnable() {
             @Override
-            public void accept(OnNetworkChangeListener<T> listener) {
-                listener.onNetworkChange(Bucket.this, type, key);
+            public void run() {
+                notifyListeners(onChangeListeners, new Consumer<OnNetworkChangeListener<T>>() {
+                    @Override
+                    public void accept(OnNetworkChangeListener<T> listener) {
+                        listener.onNetworkChange(Bucket.this, type, key);
+                    }
+                });
             }
         });
     }
 
     public void notifyOnSyncObjectListeners(final String key) {
-        notifyListeners(onSyncListeners, new Consumer<OnSyncObjectListener<T>>() {
+        notifyAfterCommit(new Runnable() {
             @Override
-            public void accept(OnSyncObjectListener<T> listener) {
-                listener.onSyncObject(Bucket.this, key);
+            public void run() {
+                notifyListeners(onSyncListeners, new Consumer<OnSyncObjectListener<T>>() {
+                    @Override
+                    public void accept(OnSyncObjectListener<T> listener) {
+                        listener.onSyncObject(Bucket.this, key);
+                    }
+                });
             }
         });
     }
@@ -894,6 +1032,42 @@ public class Bucket<T extends Syncable> {
         });
     }
 
+    /**
+     * Called by the storage from its reindexing thread after each chunk of objects
+     */
+    public void notifyOnReindexProgressListeners(final int indexed, final int remaining) {
+        notifyListeners(onReindexProgressListeners, new Consumer<OnReindexProgressListener<T>>() {
+            @Override
+            public void accept(OnReindexProgressListener<T> listener) {
+                listener.onReindexProgress(Bucket.this, indexed, remaining);
+            }
+        });
+    }
+
+    /**
+     * Apply the delta to the unsynced keys and notify both kinds of local queue listeners
+     */
+    public void notifyOnLocalQueueDeltaListeners(final Set<String> addedKeys, final Set<String> removedKeys) {
+        mUnsyncedKeys.addAll(addedKeys);
+        mUnsyncedKeys.removeAll(removedKeys);
+
+        notifyListeners(onLocalQueueDeltaListeners, new Consumer<OnLocalQueueDeltaListener<T>>() {
+            @Override
+            public void accept(OnLocalQueueDeltaListener<T> listener) {
+                listener.onLocalQueueDelta(Bucket.this, addedKeys, removedKeys);
+            }
+        });
+
+        if (!onLocalQueueChangeListeners.isEmpty()) {
+            // the listeners may keep the set, each call gets its own copy
+            Set<String> unsyncedKeys;
+            synchronized(mUnsyncedKeys) {
+                unsyncedKeys = new HashSet<>(mUnsyncedKeys);
+            }
+            notifyOnLocalQueueChangeListeners(unsyncedKeys);
+        }
+    }
+
     public void setChannel(Channel channel) {
         mChannel = channel;
     }
@@ -911,6 +1085,7 @@ public class Bucket<T extends Syncable> {
 
 
     public void reset() {
+        mHydrationPipeline.clear();
         mStorage.reset();
         // Clear the ghost store
         mGhostStore.resetBucket(this);
@@ -930,13 +1105,29 @@ public class Bucket<T extends Syncable> {
      */
     public Boolean hasKeyVersion(String key, Integer version) {
         try {
-            Ghost ghost = mGhostStore.getGhost(this, key);
-            return ghost.getVersion().equals(version);
+            return version != null && mGhostStore.getGhostVersion(this, key) == version;
         } catch (GhostMissingException e) {
             // we don't have the ghost
             return false;
         }
     }
+    /**
+     * Ask storage which of the given keys it already has at exactly the given version, using
+     * a single lookup for all of them
+     */
+    public Set<String> getCurrentKeys(Map<String,Integer> keyVersions) {
+        Set<String> current = new HashSet<String>();
+        if (keyVersions.isEmpty()) {
+            return current;
+        }
+        Map<String,Integer> stored = mGhostStore.getGhostVersions(this, keyVersions.keySet());
+        for (Map.Entry<String,Integer> entry : stored.entrySet()) {
+            if (entry.getValue().equals(keyVersions.get(entry.getKey()))) {
+                current.add(entry.getKey());
+            }
+        }
+        return current;
+    }
     /**
      * Which version of the key do we have
      */
@@ -986,6 +1177,17 @@ public class Bucket<T extends Syncable> {
 
     public Ghost applyRemoteChange(RemoteChange change)
     throws RemoteChangeInvalidException {
+        return applyRemoteChanges(Collections.singletonList(change));
+    }
+
+    /**
+     * Apply consecutive remote changes to the same object. Each patch is applied to the ghost in
+     * memory and the object is merged, stored and indexed once with the final ghost. Nothing is
+     * stored when one of the changes can't be applied.
+     */
+    public Ghost applyRemoteChanges(List<RemoteChange> changes)
+    throws RemoteChangeInvalidException {
+        RemoteChange change = changes.get(0);
         Ghost updatedGhost = null;
         if (change.isRemoveOperation()) {
             try {
@@ -1007,7 +1209,13 @@ public class Bucket<T extends Syncable> {
                     object = getObjectOrBackup(change.getKey());
                     isNew = false;
 
-                    notifyOnBeforeUpdateObjectListeners(object);
+                    final T updating = object;
+                    notifyAfterCommit(new Runnable() {
+                        @Override
+                        public void run() {
+                            notifyOnBeforeUpdateObjectListeners(updating);
+                        }
+                    });
                 }
 
                 Ghost ghost = object.getGhost();
@@ -1020,8 +1228,12 @@ public class Bucket<T extends Syncable> {
                     localModifications = new JSONObject();
                 }
 
-                // updates the ghost and sets it on the object
-                updatedGhost = change.apply(ghost);
+                // updates the ghost and sets it on the object, each change checks that its
+                // source version is the version of the ghost it is applied to
+                updatedGhost = ghost;
+                for (RemoteChange remoteChange : changes) {
+                    updatedGhost = remoteChange.apply(updatedGhost);
+                }
                 JSONObject updatedProperties = JSONDiff.deepCopy(updatedGhost.getDiffableValue());
 
                 // persist the ghost to storage
@@ -1036,7 +1248,17 @@ public class Bucket<T extends Syncable> {
                 } else {
                     if (localModifications != null && localModifications.length() > 0) {
                         try {
-                            JSONObject incomingDiff = change.getPatch();
+                            JSONObject incomingDiff;
+                            if (changes.size() == 1) {
+                                incomingDiff = change.getPatch();
+                            } else {
+                                // a single patch from the current ghost to the final ghost
+                                incomingDiff = JSONDiff.diff(currentProperties, updatedGhost.getDiffableValue())
+                                    .optJSONObject(JSONDiff.DIFF_VALUE_KEY);
+                                if (incomingDiff == null) {
+                                    incomingDiff = new JSONObject();
+                                }
+                            }
                             JSONObject localDiff = localModifications.getJSONObject(JSONDiff.DIFF_VALUE_KEY);
 
                             JSONObject transformedDiff = JSONDiff.transform(localDiff, incomingDiff, currentProperties);
@@ -1060,19 +1282,22 @@ public class Bucket<T extends Syncable> {
                 throw(new RemoteChangeInvalidException(change, e));
             }
         }
-        setChangeVersion(change.getChangeVersion());
-        change.setApplied();
-
-        ChangeType type;
-        if (change.isAddOperation()) {
-            type = ChangeType.INSERT;
-        } else if (change.isRemoveOperation()) {
-            type = ChangeType.REMOVE;
-        } else {
-            type = ChangeType.MODIFY;
-        }
+        // listeners hear about every change even when they were stored together
+        for (RemoteChange remoteChange : changes) {
+            setChangeVersion(remoteChange.getChangeVersion());
+            remoteChange.setApplied();
+
+            ChangeType type;
+            if (remoteChange.isAddOperation()) {
+                type = ChangeType.INSERT;
+            } else if (remoteChange.isRemoveOperation()) {
+                type = ChangeType.REMOVE;
+            } else {
+                type = ChangeType.MODIFY;
+            }
 
-        notifyOnNetworkChangeListeners(type, change.getKey());
+            notifyOnNetworkChangeListeners(type, remoteChange.getKey());
+        }
         return updatedGhost;
     }
 
@@ -1164,4 +1389,12 @@ public class Bucket<T extends Syncable> {
             }
         });
     }
+
+    private static class RemoteChangeBatch {
+
+        String mChangeVersion;
+        final List<Runnable> mNotifications = new ArrayList<>();
+
+    }
+
 }
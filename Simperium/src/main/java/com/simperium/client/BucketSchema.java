@@ -7,6 +7,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -56,6 +57,7 @@ public abstract class BucketSchema<T extends Syncable> {
     private List<Indexer<T>> indexers = Collections.synchronizedList(new ArrayList<Indexer<T>>());
     private Map<String,Object> defaultValues = new HashMap<String,Object>();
     private FullTextIndex mFullTextIndex;
+    private IndexColumns mIndexColumns;
 
     public T buildWithDefaults(String key, JSONObject properties) {
         updateDefaultValues(properties);
@@ -145,6 +147,58 @@ public abstract class BucketSchema<T extends Syncable> {
         return mFullTextIndex;
     }
 
+    /**
+     * Store the index with the given name in a typed column, queries on it no longer join the
+     * indexes table
+     */
+    public IndexColumns addIndexColumn(String name, IndexColumns.Type type){
+        if (mIndexColumns == null) {
+            mIndexColumns = new IndexColumns();
+        }
+        return mIndexColumns.add(name, type);
+    }
+
+    public boolean hasIndexColumns(){
+        return mIndexColumns != null;
+    }
+
+    public IndexColumns getIndexColumns(){
+        return mIndexColumns;
+    }
+
+    /**
+     * Identifies how objects are indexed, storage reindexes a bucket when it changes. Built from
+     * the indexer classes, full text keys and index columns, schemas whose indexers change what
+     * they index without changing class should override it and return a new value.
+     */
+    public String getIndexFingerprint(){
+        StringBuilder fingerprint = new StringBuilder("indexers:");
+        synchronized(indexers) {
+            for (Indexer<T> indexer : indexers) {
+                String name = indexer.getClass().getName();
+                // lambda class names change from one run to the next
+                int lambda = name.indexOf("$$Lambda");
+                fingerprint.append(lambda == -1 ? name : name.substring(0, lambda)).append(",");
+            }
+        }
+        if (mFullTextIndex != null) {
+            fingerprint.append(";fulltext:");
+            for (String key : mFullTextIndex.getKeys()) {
+                fingerprint.append(key).append(",");
+            }
+        }
+        if (mIndexColumns != null) {
+            fingerprint.append(";columns:");
+            for (String name : mIndexColumns.getNames()) {
+                fingerprint.append(name).append(" ").append(mIndexColumns.getType(name)).append(",");
+            }
+            for (String[] names : mIndexColumns.getCompositeIndexes()) {
+                fingerprint.append(Arrays.toString(names)).append(",");
+            }
+        }
+        return fingerprint.toString();
+    }
+
     private static class AutoIndexer<S extends Syncable> implements Indexer<S> {
 
         public List<Index> index(S object){
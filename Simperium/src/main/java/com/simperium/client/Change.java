@@ -2,13 +2,17 @@ package com.simperium.client;
 
 import com.simperium.util.JSONDiff;
 import com.simperium.util.Logger;
+import com.simperium.util.StreamingJSON;
+
+import com.google.gson.stream.JsonWriter;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.TimerTask;
+import java.util.concurrent.ScheduledFuture;
 
 import static com.simperium.util.Uuid.uuid;
 
@@ -46,8 +50,12 @@ public class Change {
     private Change compressed;
     private JSONDiff jsondiff = new JSONDiff();
     private boolean sendFullObject = false;
-    private TimerTask retryTimer;
     private Integer retryCount = 0;
+    private ScheduledFuture<?> retryFuture;
+    private int retryAttempts = 0;
+    private long lastSentTime = 0, nextRetryTime = 0;
+    // the serialized change message, resent as is when the change is retried
+    private String message;
 
     /**
      * Constructs a change object from a map of values
@@ -74,8 +82,6 @@ public class Change {
         this.ccid = ccid;
         this.bucketName = bucketName;
         this.key = key;
-
-        this.resetTimer();
     }
 
     public boolean isModifyOperation(){
@@ -104,7 +110,8 @@ public class Change {
 
     protected void setAcknowledged(){
         acknowledged = true;
-        resetTimer();
+        setMessage(null);
+        cancelRetry();
         if (acknowledgedListener != null) {
             acknowledgedListener.onAcknowledged(this);
         }
@@ -115,6 +122,7 @@ public class Change {
 
     protected void setComplete(){
         pending = false;
+        setMessage(null);
         if (completeListener != null) {
             completeListener.onComplete(this);
         }
@@ -125,6 +133,7 @@ public class Change {
 
     protected void setSent(){
         sent = true;
+        lastSentTime = System.currentTimeMillis();
         if (compressed != null) {
             compressed.setSent();
         }
@@ -152,6 +161,19 @@ public class Change {
 
     public void setSendFullObject(boolean sendFullObject) {
         this.sendFullObject = sendFullObject;
+        // the payload changes so it needs to be written again
+        setMessage(null);
+    }
+
+    /**
+     * The message last written for this change, null if it needs to be written
+     */
+    synchronized String getMessage() {
+        return message;
+    }
+
+    synchronized void setMessage(String message) {
+        this.message = message;
     }
 
     public JSONObject toJSONObject(JSONObject target, Ghost ghost)
@@ -187,6 +209,47 @@ public class Change {
         }
     }
 
+    /**
+     * Streams the same payload as toJSONObject to the writer without building it as a JSONObject
+     */
+    public void write(JsonWriter writer, JSONObject target, Ghost ghost)
+    throws ChangeEmptyException, ChangeInvalidException {
+        try {
+            JSONObject diff = null;
+            if (requiresDiff()) {
+                diff = getDiff(target, ghost);
+                if (diff.length() == 0) {
+                    throw new ChangeEmptyException(this);
+                }
+            }
+
+            writer.beginObject();
+            writer.name(ID_KEY).value(getKey());
+            writer.name(CHANGE_ID_KEY).value(getChangeId());
+            writer.name(JSONDiff.DIFF_OPERATION_KEY).value(getOperation());
+
+            if (!getOperation().equals(OPERATION_REMOVE) && ghost.getVersion() != null && ghost.getVersion() > 0) {
+                writer.name(SOURCE_VERSION_KEY).value(ghost.getVersion());
+            }
+
+            if (diff != null) {
+                writer.name(JSONDiff.DIFF_VALUE_KEY);
+                StreamingJSON.writeObject(writer, diff.getJSONObject(JSONDiff.DIFF_VALUE_KEY));
+            }
+
+            if (sendFullObject) {
+                writer.name(OBJECT_DATA_KEY);
+                StreamingJSON.writeObject(writer, target);
+            }
+
+            writer.endObject();
+        } catch (JSONException e) {
+            throw new ChangeInvalidException(this, "Could not write change JSON", e);
+        } catch (IOException e) {
+            throw new ChangeInvalidException(this, "Could not write change JSON", e);
+        }
+    }
+
     protected Map<String,Object> toJSONSerializable(){
         Map<String,Object> props = new HashMap<String,Object>(3);
         // key, version, origin, target, ccid
@@ -217,24 +280,63 @@ public class Change {
         retryListener = listener;
     }
 
-    protected void resetTimer(){
-        if (retryTimer != null) {
-            retryTimer.cancel();
-        }
+    /**
+     * Number of times the change has been resent because it was not acknowledged
+     */
+    public int getRetryAttempts() {
+        return retryAttempts;
+    }
+
+    /**
+     * When the change was last sent in milliseconds since the epoch, 0 if never sent
+     */
+    public long getLastSentTime() {
+        return lastSentTime;
+    }
 
-        retryTimer = new TimerTask(){
+    /**
+     * When the next resend is due in milliseconds since the epoch, 0 if none is scheduled
+     */
+    synchronized public long getNextRetryTime() {
+        return nextRetryTime;
+    }
+
+    synchronized public boolean isRetryScheduled() {
+        return retryFuture != null;
+    }
+
+    /**
+     * Schedule a resend using the scheduler's backoff for the number of attempts so far
+     */
+    protected void scheduleRetry(RetryScheduler scheduler) {
+        scheduleRetry(scheduler, scheduler.getDelay(retryAttempts));
+    }
+
+    synchronized protected void scheduleRetry(RetryScheduler scheduler, long delay) {
+        cancelRetry();
+        nextRetryTime = System.currentTimeMillis() + delay;
+        retryFuture = scheduler.schedule(new Runnable() {
             @Override
-            public void run(){
+            public void run() {
+                synchronized(Change.this) {
+                    retryFuture = null;
+                    nextRetryTime = 0;
+                    retryAttempts ++;
+                }
                 Logger.log("Simperium.Channel", String.format("Retry change: %s", Change.this));
                 if (retryListener != null) {
                     retryListener.onRetry(Change.this);
                 }
             }
-        };
+        }, delay);
     }
 
-    protected TimerTask getRetryTimer(){
-        return retryTimer;
+    synchronized protected void cancelRetry() {
+        if (retryFuture != null) {
+            retryFuture.cancel(false);
+            retryFuture = null;
+        }
+        nextRetryTime = 0;
     }
 
     public String toString(){
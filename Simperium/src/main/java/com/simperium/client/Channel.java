@@ -16,11 +16,19 @@ import com.simperium.BuildConfig;
 import com.simperium.SimperiumException;
 import com.simperium.Version;
 import com.simperium.util.Logger;
+import com.simperium.util.MessageCodec;
+import com.simperium.util.StreamingJSON;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -28,11 +36,11 @@ import java.util.EventObject;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
-import java.util.Timer;
 import java.util.TreeMap;
 import java.util.concurrent.Executor;
 
@@ -92,10 +100,21 @@ public class Channel implements Bucket.Channel {
 
     // Parameters for querying bucket
     static final Integer INDEX_PAGE_SIZE  = 50;
-
-    // Constants for parsing command messages
-    static final Integer MESSAGE_PARTS = 2;
-    static final Integer COMMAND_PART  = 0;
+    // Maximum number of e: requests outstanding while downloading an index
+    static public final int DEFAULT_INDEX_WINDOW_SIZE = 32;
+    // Number of e: requests outstanding when an index download starts
+    static final int INDEX_INITIAL_WINDOW = 4;
+    // times an index download with objects that failed to store is resumed before it completes
+    // without them and requests them one at a time
+    public static final int INDEX_RESUME_LIMIT = 3;
+    // Maximum number of remote changes applied in one storage transaction
+    static final int REMOTE_BATCH_SIZE = 500;
+    // times a remote change may fail to store before it is dropped and its object requested
+    public static final int REMOTE_CHANGE_ATTEMPTS = 3;
+    // Largest buffer kept around for writing change messages
+    static final int CHANGE_BUFFER_MAX_CAPACITY = 64 * 1024;
+
+    // Constants for formatting command messages
     static final String  COMMAND_FORMAT = "%s:%s";
 
     // bucket determines which mBucket we are using on this channel
@@ -109,10 +128,16 @@ public class Channel implements Bucket.Channel {
     private String mAppId, mSessionId;
     private Serializer mSerializer;
     protected Executor mExecutor;
+    private int mIndexWindowSize = DEFAULT_INDEX_WINDOW_SIZE;
+    private RetryScheduler mRetryScheduler = RetryScheduler.getDefault();
 
     // for sending and receiving changes
     final private ChangeProcessor mChangeProcessor;
     private IndexProcessor mIndexProcessor;
+    // progress of an interrupted index download the next index processor resumes from
+    private IndexCheckpoint mIndexCheckpoint;
+    // resumes of the current index download because objects failed to store
+    private volatile int mIndexResumeCount = 0;
     
     public interface Serializer {
         // public <T extends Syncable> void save(Bucket<T> mBucket, SerializedQueue<T> data);
@@ -147,7 +172,8 @@ public class Channel implements Bucket.Channel {
         mListener = listener;
         // Receive auth: command
         command(COMMAND_AUTH, new Command() {
-            public void execute(String param) {
+            public void execute(String message, int offset) {
+                String param = message.substring(offset);
                 User user = getUser();
                 // ignore auth:expired, implement new auth:{JSON} for failures
                 if(EXPIRED_AUTH.equals(param.trim())) return;
@@ -178,8 +204,8 @@ public class Channel implements Bucket.Channel {
         command(COMMAND_INDEX, new Command() {
 
             @Override
-            public void execute(String param) {
-                updateIndex(param);
+            public void execute(String message, int offset) {
+                updateIndex(message, offset);
             }
 
         });
@@ -188,8 +214,8 @@ public class Channel implements Bucket.Channel {
         command(COMMAND_CHANGE, new Command() {
 
             @Override
-            public void execute(String param) {
-                handleRemoteChanges(param);
+            public void execute(String message, int offset) {
+                handleRemoteChanges(message, offset);
             }
 
         });
@@ -198,8 +224,8 @@ public class Channel implements Bucket.Channel {
         command(COMMAND_ENTITY, new Command() {
 
             @Override
-            public void execute(String param) {
-                handleVersionResponse(param);
+            public void execute(String message, int offset) {
+                handleVersionResponse(message, offset);
             }
 
         });
@@ -208,7 +234,7 @@ public class Channel implements Bucket.Channel {
         command(COMMAND_INDEX_STATE, new Command() {
 
             @Override
-            public void execute(String param) {
+            public void execute(String message, int offset) {
                 sendIndexStatus();
             }
 
@@ -218,9 +244,9 @@ public class Channel implements Bucket.Channel {
         command(COMMAND_VERSION, new Command() {
 
             @Override
-            public void execute(String param) {
+            public void execute(String message, int offset) {
 
-                if (param.equals(RESPONSE_UNKNOWN)) {
+                if (isUnknownResponse(message, offset)) {
                     Logger.log(TAG, "CV is out of date");
                     stopChangesAndRequestIndex();
                 }
@@ -304,6 +330,7 @@ public class Channel implements Bucket.Channel {
     @Override
     public void reset() {
         mChangeProcessor.reset();
+        mOutbox.clear();
     }
 
     private boolean hasChangeVersion() {
@@ -316,6 +343,12 @@ public class Channel implements Bucket.Channel {
 
     private void getLatestVersions() {
         mHaveIndex = false;
+        // start over, progress of an earlier download no longer applies
+        mIndexCheckpoint = null;
+        mIndexResumeCount = 0;
+        mBucket.clearIndexCheckpoint();
+        // the new index fetches the objects whose requests the outbox dropped
+        mOutbox.clearDropped();
         // initialize the new query for new index data
         IndexQuery query = new IndexQuery();
         // send the i:::: messages
@@ -352,34 +385,30 @@ public class Channel implements Bucket.Channel {
     private static final String INDEX_VERSIONS_KEY = "index";
     private static final String INDEX_MARK_KEY = "mark";
 
-    private void updateIndex(String indexJson) {
+    private void updateIndex(String message, int offset) {
         // if we don't have an index processor, create a new one for the associated cv
         // listen for when the index processor is done so we can start the changeprocessor again
         // if we do have an index processor and the cv's match, add the page of items
         // to the queue.
-        if (indexJson.equals(RESPONSE_UNKNOWN)) {
+        if (isUnknownResponse(message, offset)) {
             // noop, api 1.1 should not be sending ? here
             return;
         }
-        JSONObject index;
+        IndexPageData index;
         try {
-            index = new JSONObject(indexJson);
-        } catch (JSONException e) {
-            Logger.log(TAG, String.format("Index had invalid json: %s", indexJson));
+            index = IndexPageData.read(StreamingJSON.reader(message, offset));
+        } catch (IOException | RuntimeException e) {
+            Logger.log(TAG, String.format("Index had invalid json: %s", message.substring(offset)));
             return;
         }
         // if we don't have a processor or we are getting a different cv
         if (mIndexProcessor == null || !mIndexProcessor.addIndexPage(index)) {
             // make sure we're not processing changes and clear pending changes
-            String currentIndex;
-            try {
-                currentIndex = index.getString(INDEX_CURRENT_VERSION_KEY);
-            } catch(JSONException e) {
-                // we have an empty index
-                currentIndex = "";
-            }
+            // an empty index has no current version
+            String currentIndex = index.current != null ? index.current : "";
 
-            mIndexProcessor = new IndexProcessor(getBucket(), currentIndex, mIndexProcessorListener);
+            mIndexProcessor = new IndexProcessor(getBucket(), currentIndex, mIndexCheckpoint, mIndexWindowSize, mIndexProcessorListener);
+            mIndexCheckpoint = null;
             mIndexProcessor.start(index);
         } else {
             // received an index page for a different change version
@@ -392,36 +421,90 @@ public class Channel implements Bucket.Channel {
         public void onComplete(String cv) {
             mHaveIndex = true;
             mIndexProcessor = null;
+            mIndexResumeCount = 0;
             mChangeProcessor.start();
         }
     };
 
-    private void handleRemoteChanges(String changesJson) {
-        JSONArray changes;
-        if (changesJson.equals(RESPONSE_UNKNOWN)) {
+    /**
+     * Resume the download from its checkpoint after a backoff delay so objects that failed to
+     * store are requested again. Returns false once the download has been resumed
+     * INDEX_RESUME_LIMIT times.
+     */
+    private boolean scheduleIndexResume(final IndexProcessor processor) {
+        int attempt = mIndexResumeCount;
+        if (attempt >= INDEX_RESUME_LIMIT) {
+            return false;
+        }
+        mIndexResumeCount = attempt + 1;
+        mRetryScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                // restarting the channel resumes from the checkpoint on its own
+                if (mIndexProcessor != processor || !mStarted || !mConnected) {
+                    return;
+                }
+                mIndexProcessor = null;
+                mIndexCheckpoint = mBucket.getIndexCheckpoint();
+                IndexQuery query;
+                if (mIndexCheckpoint != null) {
+                    Logger.log(TAG, String.format("Resuming index from %s", mIndexCheckpoint));
+                    query = new IndexQuery(mIndexCheckpoint.getMark());
+                } else {
+                    query = new IndexQuery();
+                }
+                sendMessage(query.toString());
+            }
+        }, mRetryScheduler.getDelay(attempt));
+        return true;
+    }
+
+    private void handleRemoteChanges(String message, int offset) {
+        if (isUnknownResponse(message, offset)) {
             // noop API 1.1 does not send "?" here
             return;
         }
+        // read each change straight into a RemoteChange
+        List<RemoteChange> changes = new ArrayList<>();
         try {
-            changes = new JSONArray(changesJson);
-        } catch (JSONException e) {
+            JsonReader reader = StreamingJSON.reader(message, offset);
+            reader.beginArray();
+            while (reader.hasNext()) {
+                if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                    reader.skipValue();
+                    continue;
+                }
+                RemoteChange change = RemoteChange.read(reader);
+                if (change != null) {
+                    changes.add(change);
+                } else {
+                    Logger.log(TAG, "Failed to build remote change");
+                }
+            }
+            reader.endArray();
+        } catch (IOException | JSONException | RuntimeException e) {
             Logger.log(TAG, "Failed to parse remote changes JSON", e);
             return;
         }
-        // Loop through each change? Convert changes to array list
         mChangeProcessor.addChanges(changes);
     }
 
+    private static boolean isUnknownResponse(String message, int offset) {
+        return message.length() - offset == RESPONSE_UNKNOWN.length() && message.startsWith(RESPONSE_UNKNOWN, offset);
+    }
+
     private static final String ENTITY_DATA_KEY = "data";
-    private void handleVersionResponse(String versionData) {
+    private void handleVersionResponse(String message, int offset) {
 
         try {
-            // versionData will be: key.version\n{"data":ENTITY}
-            ObjectVersionData objectVersion = ObjectVersionData.parseString(versionData);
+            // the message will be: key.version\n{"data":ENTITY}
+            ObjectVersionData objectVersion = ObjectVersionData.parse(message, offset);
+            mOutbox.remove(objectVersion.version);
 
-            if (mIndexProcessor != null) {
-                mIndexProcessor.addObjectData(objectVersion);
-            }
+            // entities of the index are stored by the hydration pipeline, which reports the ones
+            // that fail so the index requests them again
+            IndexProcessor processor = mIndexProcessor;
+            boolean indexed = processor != null && processor.addObjectData(objectVersion);
 
             // if we have any revision requests pending, we want to collect the objects
             boolean collected = false;
@@ -431,13 +514,17 @@ public class Channel implements Bucket.Channel {
                 }
             }
 
-            if (!collected) {
+            if (!collected && !indexed) {
                 updateBucketWithObjectVersion(objectVersion);
             }
         } catch (ObjectVersionUnknownException e) {
+            mOutbox.remove(e.version);
+            removeIndexObjectVersion(e.version);
             reportRevisionsError();
             log(LOG_DEBUG, String.format(Locale.US, "Object version does not exist %s", e.version));
         } catch (ObjectVersionDataInvalidException e) {
+            mOutbox.remove(e.version);
+            removeIndexObjectVersion(e.version);
             reportRevisionsError();
             log(LOG_DEBUG, String.format(Locale.US, "Object version JSON data malformed %s", e.version));
         } catch (ObjectVersionParseException e) {
@@ -446,6 +533,13 @@ public class Channel implements Bucket.Channel {
         }
     }
 
+    private void removeIndexObjectVersion(ObjectVersion objectVersion) {
+        IndexProcessor processor = mIndexProcessor;
+        if (processor != null) {
+            processor.removeObjectVersion(objectVersion);
+        }
+    }
+
     private void updateBucketWithObjectVersion(ObjectVersionData objectVersion) {
         Ghost ghost = new Ghost(objectVersion.getKey(), objectVersion.getVersion(),
             objectVersion.getData());
@@ -465,18 +559,6 @@ public class Channel implements Bucket.Channel {
         return false;
     }
 
-    private void abortRevisionsCollection(Exception e) {
-        if (revisionCollectors.size() > 0) {
-            for (RevisionsCollector collector : revisionCollectors) {
-                if (collector.getCallbacks() != null) {
-                    collector.getCallbacks().onError(e);
-                }
-            }
-
-            revisionCollectors.clear();
-        }
-    }
-
     /**
      * Stop sending changes and download a new index
      */
@@ -589,6 +671,32 @@ public class Channel implements Bucket.Channel {
         return mIdle;
     }
 
+    /**
+     * Maximum number of entity requests kept outstanding while downloading an index.
+     * Takes effect the next time an index is requested.
+     */
+    public void setIndexWindowSize(int windowSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("Index window size must be at least 1");
+        }
+        mIndexWindowSize = windowSize;
+    }
+
+    public int getIndexWindowSize() {
+        return mIndexWindowSize;
+    }
+
+    /**
+     * Use the given scheduler to resend unacknowledged changes instead of the shared default
+     */
+    public void setRetryScheduler(RetryScheduler scheduler) {
+        mRetryScheduler = scheduler;
+    }
+
+    public RetryScheduler getRetryScheduler() {
+        return mRetryScheduler;
+    }
+
     @Override
     public void getRevisions(final String key, final int sinceVersion, final int maxVersionCount,
                              final Bucket.RevisionsRequestCallbacks callbacks) {
@@ -629,8 +737,26 @@ public class Channel implements Bucket.Channel {
 
         Object initialCommand;
         if (!hasChangeVersion()) {
-            // the mBucket has never gotten an index
+            // the mBucket has never gotten an index, resume the download if it was interrupted
+            mHaveIndex = false;
+            mIndexProcessor = null;
+            mIndexCheckpoint = mBucket.getIndexCheckpoint();
+            if (mIndexCheckpoint != null) {
+                Logger.log(TAG, String.format("Resuming index from %s", mIndexCheckpoint));
+                initialCommand = new IndexQuery(mIndexCheckpoint.getMark());
+            } else {
+                initialCommand = new IndexQuery();
+            }
+        } else if (mOutbox.getDroppedCount() > 0) {
+            // the outbox was full and dropped requests, a new index fetches those objects again
+            Logger.log(TAG, String.format(Locale.US, "Outbox dropped %d object requests, downloading the index",
+                mOutbox.getDroppedCount()));
             mHaveIndex = false;
+            mIndexProcessor = null;
+            mIndexCheckpoint = null;
+            mIndexResumeCount = 0;
+            mBucket.clearIndexCheckpoint();
+            mOutbox.clearDropped();
             initialCommand = new IndexQuery();
         } else {
             // retive changes since last cv
@@ -651,6 +777,30 @@ public class Channel implements Bucket.Channel {
         String initParams = new JSONObject(init).toString();
         String message = String.format(COMMAND_FORMAT, COMMAND_INIT, initParams);
         sendMessage(message);
+
+        resumeRequests();
+    }
+
+    /**
+     * Send the requests that were made while stopped or lost with the last connection. Index
+     * downloads are not part of this, they resume from their checkpoint.
+     */
+    private void resumeRequests() {
+        List<ObjectVersion> pending = mOutbox.pending();
+        if (!pending.isEmpty()) {
+            Logger.log(TAG, String.format(Locale.US, "Resending %d object requests", pending.size()));
+        }
+        for (ObjectVersion version : pending) {
+            sendObjectVersionRequest(version.getKey(), version.getVersion());
+        }
+
+        List<RevisionsCollector> collectors;
+        synchronized(revisionCollectors) {
+            collectors = new ArrayList<>(revisionCollectors);
+        }
+        for (RevisionsCollector collector : collectors) {
+            collector.resend();
+        }
     }
 
     /**
@@ -668,6 +818,7 @@ public class Channel implements Bucket.Channel {
     // websocket
     public void onConnect() {
         mConnected = true;
+        mChangeProcessor.resumeRetries();
         Logger.log(TAG, String.format("onConnect autoStart? %b", mStartOnConnect));
         if(mStartOnConnect) start();
     }
@@ -675,22 +826,22 @@ public class Channel implements Bucket.Channel {
     public void onDisconnect() {
         mStarted = false;
         mConnected = false;
+        mChangeProcessor.pauseRetries();
     }
     /**
      * Receive a message from the WebSocketManager which already strips the channel
      * prefix from the message.
      */
     public void receiveMessage(String message) {
-        // parse the message and react to it
-        String[] parts = message.split(":", MESSAGE_PARTS);
-        String command = parts[COMMAND_PART];
-
-        if (parts.length == 2) {
-            executeCommand(command, parts[1]);
-        } else if (parts.length == 1) {
-            executeCommand(command, "");
-        }
+        receiveMessage(message, 0);
+    }
 
+    /**
+     * Receive a message whose command starts at offset, the WebSocketManager passes the whole
+     * frame instead of copying the message out of it.
+     */
+    public void receiveMessage(String message, int offset) {
+        mCommands.executeCommand(message, offset);
     }
 
     // send without the channel id, the socket manager should know which channel is writing
@@ -731,42 +882,107 @@ public class Channel implements Bucket.Channel {
         mCommands.add(name, command);
     }
 
-    private void executeCommand(String name, String params) {
-        mCommands.executeCommand(name, params);
-    }
-
     /**
      * Command and CommandInvoker provide a declaritive syntax for handling commands that come in
      * from Channel.onMessage. Takes a message like "auth:user@example.com" and finds the correct
-     * command to run and stips the command from the message so the command can take care of
-     * processing the params.
+     * command to run and passes the offset of the params that follow the command so the command
+     * can take care of processing them without the message being split.
      *
      *      channel.command("auth", new Command() {
-     *         public void onRun(String params) {
-     *           // params is now either an email address or "expired"
+     *         public void execute(String message, int offset) {
+     *           // message.substring(offset) is either an email address or "expired"
      *         }
      *      });
      */
     private interface Command {
-        void execute(String params);
+        void execute(String message, int offset);
     }
 
     private class CommandInvoker {
-        private HashMap<String,Command> mCommands = new HashMap<>();
+        // a channel has a handful of commands, comparing them in place avoids a substring per message
+        private ArrayList<String> mNames = new ArrayList<>();
+        private ArrayList<Command> mCommands = new ArrayList<>();
 
         protected CommandInvoker add(String name, Command command) {
-            mCommands.put(name, command);
+            mNames.add(name);
+            mCommands.add(command);
             return this;
         }
 
-        protected void executeCommand(String name, String params) {
-            if (mCommands.containsKey(name)) {
-                Command command = mCommands.get(name);
-                command.execute(params);
+        protected void executeCommand(String message, int offset) {
+            for (int i = 0; i < mNames.size(); i++) {
+                String name = mNames.get(i);
+                if (MessageCodec.isCommand(message, offset, name)) {
+                    mCommands.get(i).execute(message, MessageCodec.payloadOffset(message, offset, name));
+                    return;
+                }
+            }
+            String name = message.substring(offset, MessageCodec.skipPrefix(message, offset));
+            Logger.log(TAG, String.format("Unkown command received: %s", name));
+        }
+    }
+
+    /**
+     * An i: response read straight from the message: the change version it belongs to, the
+     * mark of the next page and the version of each object on the page
+     */
+    static class IndexPageData {
+
+        String current;
+        String mark;
+        final Map<String,Integer> versions = new LinkedHashMap<>();
+
+        static IndexPageData read(JsonReader reader)
+        throws IOException {
+            IndexPageData page = new IndexPageData();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals(INDEX_CURRENT_VERSION_KEY)) {
+                    page.current = StreamingJSON.nextStringOrNull(reader);
+                } else if (name.equals(INDEX_MARK_KEY)) {
+                    page.mark = StreamingJSON.nextStringOrNull(reader);
+                } else if (name.equals(INDEX_VERSIONS_KEY) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        page.readVersion(reader);
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return page;
+        }
+
+        private void readVersion(JsonReader reader)
+        throws IOException {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                return;
+            }
+            String id = null;
+            Integer version = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals(IndexProcessor.INDEX_OBJECT_ID_KEY) && reader.peek() != JsonToken.NULL) {
+                    id = reader.nextString();
+                } else if (name.equals(IndexProcessor.INDEX_OBJECT_VERSION_KEY) && reader.peek() != JsonToken.NULL) {
+                    version = reader.nextInt();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (id != null && version != null) {
+                versions.put(id, version);
             } else {
-                Logger.log(TAG, String.format("Unkown command received: %s", name));
+                Logger.log(TAG, String.format("Error processing index entry %s", id));
             }
         }
+
     }
 
     static final String CURSOR_FORMAT = "%s::%s::%s";
@@ -862,24 +1078,48 @@ public class Channel implements Bucket.Channel {
 
         public static ObjectVersionData parseString(String versionString)
         throws ObjectVersionParseException, ObjectVersionUnknownException,
+        ObjectVersionDataInvalidException {
+            return parse(versionString, 0);
+        }
+
+        /**
+         * Parse the e: response starting at offset, the entity's data is read straight from the
+         * message into the object that gets stored
+         */
+        public static ObjectVersionData parse(String message, int offset)
+        throws ObjectVersionParseException, ObjectVersionUnknownException,
         ObjectVersionDataInvalidException {
 
-            String[] objectParts = versionString.split("\n");
-            String prefix = objectParts[0];
-            String payload = objectParts[1];
+            int newline = message.indexOf('\n', offset);
+            if (newline == -1) {
+                throw new ObjectVersionParseException(message.substring(offset));
+            }
 
             ObjectVersion objectVersion;
 
-            objectVersion = ObjectVersion.parseString(prefix);
+            objectVersion = ObjectVersion.parseString(message.substring(offset, newline));
 
-            if (payload.equals(RESPONSE_UNKNOWN)) {
+            if (isUnknownResponse(message, newline + 1)) {
                 throw new ObjectVersionUnknownException(objectVersion);
             }
 
             try {
-                JSONObject data = new JSONObject(payload);
-                return new ObjectVersionData(objectVersion, data.getJSONObject(ENTITY_DATA_KEY));
-            } catch (JSONException e) {
+                JSONObject data = null;
+                JsonReader reader = StreamingJSON.reader(message, newline + 1);
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (reader.nextName().equals(ENTITY_DATA_KEY) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                        data = StreamingJSON.readObject(reader);
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                if (data == null) {
+                    throw new JSONException(String.format("No %s in entity", ENTITY_DATA_KEY));
+                }
+                return new ObjectVersionData(objectVersion, data);
+            } catch (IOException | JSONException | RuntimeException e) {
                 throw new ObjectVersionDataInvalidException(objectVersion, e);
             }
 
@@ -938,6 +1178,7 @@ public class Channel implements Bucket.Channel {
         private boolean completed = true;
         private boolean sent = false;
         private int mTotalRevisions;
+        private int mMinVersion;
 
         private Map<Integer, Syncable> versionsMap = Collections.synchronizedSortedMap(new TreeMap<Integer, Syncable>());
 
@@ -948,15 +1189,11 @@ public class Channel implements Bucket.Channel {
             this.callbacks = callbacks;
         }
 
+        /**
+         * Request the versions, like outbox requests they wait for the channel to start when
+         * it isn't started
+         */
         private void send() {
-            if (!mConnected) {
-                if (callbacks != null) {
-                    abortRevisionsCollection(new Exception("Can't retrieve revisions: No connection."));
-                }
-
-                return;
-            }
-
             if (!sent) {
                 sent = true;
                 int minVersion;
@@ -966,6 +1203,10 @@ public class Channel implements Bucket.Channel {
                     minVersion = 1;
                 }
                 mTotalRevisions = sinceVersion - minVersion;
+                mMinVersion = minVersion;
+                if (!mStarted) {
+                    return;
+                }
                 // for each version send an e: request
                 for (int i = minVersion; i < sinceVersion; i++) {
                     sendObjectVersionRequest(key, i);
@@ -973,6 +1214,21 @@ public class Channel implements Bucket.Channel {
             }
         }
 
+        /**
+         * Request the versions that have not been received, their requests were made while
+         * stopped or may have been lost with the connection
+         */
+        private void resend() {
+            if (!sent) {
+                return;
+            }
+            for (int i = mMinVersion; i < sinceVersion; i++) {
+                if (!versionsMap.containsKey(i)) {
+                    sendObjectVersionRequest(key, i);
+                }
+            }
+        }
+
         public boolean addObjectData(ObjectVersionData objectVersionData) {
             int version = objectVersionData.getVersion();
             if (objectVersionData.getKey().equals(this.key) && version < sinceVersion && versionsMap.get(version) == null) {
@@ -1009,7 +1265,19 @@ public class Channel implements Bucket.Channel {
         sendMessage(String.format("%s:%s.%d", COMMAND_ENTITY, key, version));
     }
 
+    /**
+     * Request an object version that must not be lost with the connection. It is kept in the
+     * outbox until the response arrives and sent again when the channel restarts.
+     */
+    private void requestObjectVersion(ObjectVersion version) {
+        if (mOutbox.add(version) && mStarted) {
+            sendObjectVersionRequest(version.getKey(), version.getVersion());
+        }
+    }
+
     private List<RevisionsCollector> revisionCollectors = Collections.synchronizedList(new ArrayList<RevisionsCollector>());
+    // object requests waiting for a response, sent again after reconnecting
+    final private Outbox mOutbox = new Outbox();
 
     private interface IndexProcessorListener {
         
@@ -1024,6 +1292,12 @@ public class Channel implements Bucket.Channel {
      *
      * Build up a list of entities and versions we need for the index. Allow the
      * channel to pass in the version data
+     *
+     * Entity requests are pipelined: up to the current window size of e: requests are
+     * kept outstanding at once and the window grows as responses arrive until it reaches
+     * the configured index window size. Once every entity of the current page has been
+     * requested the next index page is requested so it arrives while the remaining
+     * entities are still coming in.
      */
     private class IndexProcessor {
 
@@ -1031,19 +1305,73 @@ public class Channel implements Bucket.Channel {
         public static final String INDEX_OBJECT_VERSION_KEY = "v";
 
         final private String mCv;
+        // change version the download started with, saved once the index is complete
+        final private String mStartCv;
         final private Bucket mBucket;
-        private List<String> mQueue = Collections.synchronizedList(new ArrayList<String>());
+        // index entries waiting to be requested and e: requests waiting for a response
+        final private IndexQueue mQueue = new IndexQueue(INDEX_PAGE_SIZE * 2);
+        // pages that still have entities missing from storage, by page number
+        final private TreeMap<Integer,IndexPage> mPages = new TreeMap<>();
+        private int mPageCount = 0;
         private IndexQuery mNextQuery;
+        private boolean mPageRequested = false;
         protected boolean mComplete = false, mNotified = false;
         final private IndexProcessorListener mListener;
         protected int mIndexedCount = 0, mReceivedCount = 0;
+        // versions of the entities that could not be stored, by key
+        final private Map<String,Integer> mFailedVersions = new HashMap<>();
         final protected Object mCountLock;
+        final private int mMaxWindow;
+        private int mWindow, mWindowReceived = 0;
+
+        /**
+         * A page of the index. Counts its entities that still need to be stored so the download
+         * can be checkpointed past the page once all of them are.
+         */
+        private class IndexPage implements HydrationPipeline.Listener {
+
+            final private String mNextMark;
+            private int mOutstanding = 0;
+            private boolean mFilled = false;
+            // some entities could not be stored, the download is never checkpointed past the page
+            private boolean mFailed = false;
+
+            IndexPage(String nextMark) {
+                mNextMark = nextMark;
+            }
 
-        public IndexProcessor(Bucket bucket, String cv, IndexProcessorListener listener) {
+            /**
+             * Called once per committed batch containing objects of this page
+             */
+            @Override
+            public void onHydrated(int count) {
+                indexed(this, count);
+            }
+
+            /**
+             * The entities still count towards finishing the index but the page keeps the
+             * checkpoint before it so they are requested again
+             */
+            @Override
+            public void onFailed(Ghost ghost) {
+                synchronized(IndexProcessor.this) {
+                    mFailed = true;
+                    mFailedVersions.put(ghost.getSimperiumKey(), ghost.getVersion());
+                }
+                indexed(this, 1);
+            }
+
+        }
+
+        public IndexProcessor(Bucket bucket, String cv, IndexCheckpoint checkpoint, int maxWindow,
+                              IndexProcessorListener listener) {
             mBucket = bucket;
             mCv = cv;
+            mStartCv = checkpoint != null ? checkpoint.getChangeVersion() : cv;
             mListener = listener;
             mCountLock = new Object();
+            mMaxWindow = Math.max(1, maxWindow);
+            mWindow = Math.min(INDEX_INITIAL_WINDOW, mMaxWindow);
         }
 
         /**
@@ -1051,74 +1379,155 @@ public class Channel implements Bucket.Channel {
          * next object.
          */
         public boolean addObjectData(ObjectVersionData objectVersion) {
-            if (!mQueue.remove(objectVersion.toString())) {
-                return false;
+            IndexPage page;
+            synchronized(this) {
+                IndexQueue.Entry entry = mQueue.complete(objectVersion.getKey(), objectVersion.getVersion());
+                if (entry == null) {
+                    return false;
+                }
+                page = mPages.get(entry.getPage());
+                growWindow();
             }
 
             // build the ghost and update
             Ghost ghost = new Ghost(objectVersion.getKey(), objectVersion.getVersion(), objectVersion.getData());
-            mBucket.addObjectWithGhost(ghost, new Runnable() {
-                @Override
-                public void run() {
-                    synchronized(mCountLock) {
-                        mIndexedCount ++;
-                        if (mIndexedCount % 10 == 0) {
-                            notifyProgress();
-                        }
-                    }
+            mBucket.addObjectWithGhost(ghost, page);
 
-                    if (mComplete && mReceivedCount == mIndexedCount) {
-                        notifyDone();
-                    }
+            next();
+
+            return true;
+        }
+
+        /**
+         * The entity for an index entry could not be retrieved, stop waiting for it so the
+         * rest of the index can complete.
+         */
+        public boolean removeObjectVersion(ObjectVersion objectVersion) {
+            IndexPage page;
+            synchronized(this) {
+                IndexQueue.Entry entry = mQueue.complete(objectVersion.getKey(), objectVersion.getVersion());
+                if (entry == null) {
+                    return false;
                 }
+                page = mPages.get(entry.getPage());
+            }
 
-            });
+            indexed(page, 1);
 
             next();
 
             return true;
         }
 
-        public void start(JSONObject indexPage) {
+        public void start(IndexPageData indexPage) {
             addIndexPage(indexPage);
         }
 
-        public void next() {
+        /**
+         * Once a full window of entities has been received, allow more outstanding requests.
+         */
+        private void growWindow() {
+            mWindowReceived ++;
+            if (mWindowReceived >= mWindow && mWindow < mMaxWindow) {
+                mWindow = Math.min(mWindow * 2, mMaxWindow);
+                mWindowReceived = 0;
+            }
+        }
 
-            // if queue isn't empty, pull it off the top and send request
-            if (!mQueue.isEmpty()) {
-                String versionString = mQueue.get(0);
-                ObjectVersion version;
-                try {
-                    version = ObjectVersion.parseString(versionString);
-                } catch (ObjectVersionParseException e) {
-                    Logger.log(TAG, "Failed to parse version string, skipping", e);
-                    mQueue.remove(versionString);
-                    next();
-                    return;
+        /**
+         * Count entities of the page that are in storage (or will never be) and checkpoint the
+         * download if that finished the oldest pages.
+         */
+        private void indexed(IndexPage page, int count) {
+            if (page != null) {
+                synchronized(this) {
+                    page.mOutstanding -= count;
                 }
+                checkpoint();
+            }
 
-                if (!mBucket.hasKeyVersion(version.getKey(), version.getVersion())) {
-                    sendMessage(String.format("%s:%s", COMMAND_ENTITY, version.toString()));
-                } else {
-                    synchronized(mCountLock) {
-                        mIndexedCount ++;
-                        Logger.log(TAG, String.format("Already have %s requesting next object", version));
-                        mQueue.remove(versionString);
+            synchronized(mCountLock) {
+                int previous = mIndexedCount;
+                mIndexedCount += count;
+                if (previous / 10 != mIndexedCount / 10) {
+                    notifyProgress();
+                }
+            }
+
+            if (mComplete && mReceivedCount == mIndexedCount) {
+                notifyDone();
+            }
+        }
+
+        /**
+         * Drop the oldest pages whose entities are all stored and save the mark of the page that
+         * follows them. An interrupted download resumes from there, entities of that page that
+         * were already stored are skipped since their ghosts are current.
+         */
+        private void checkpoint() {
+            // synchronized with notifyDone() so a checkpoint is never saved after the index was
+            // completed and its checkpoint cleared
+            synchronized(this) {
+                String mark = null;
+                while (!mPages.isEmpty()) {
+                    IndexPage page = mPages.firstEntry().getValue();
+                    if (!page.mFilled || page.mOutstanding > 0 || page.mFailed) {
+                        break;
                     }
-                    next();
+                    mPages.pollFirstEntry();
+                    mark = page.mNextMark;
+                }
+
+                // the last page has no mark, the index is complete instead
+                if (mark == null || mNotified || mIndexProcessor != this) {
                     return;
                 }
+
+                mBucket.setIndexCheckpoint(new IndexCheckpoint(mark, mStartCv));
+            }
+        }
+
+        public void next() {
+
+            List<IndexQueue.Entry> requests = new ArrayList<>();
+            IndexQuery pageQuery = null;
+            boolean done = false;
+
+            synchronized(this) {
+                // fill the window, entities we already have never made it into the queue
+                while (!mQueue.isEmpty() && mQueue.requestedCount() < mWindow) {
+                    requests.add(mQueue.poll());
+                }
+
+                if (mQueue.isEmpty()) {
+                    if (mNextQuery != null) {
+                        // every entity of this page has been requested, ask for the next page
+                        pageQuery = mNextQuery;
+                        mNextQuery = null;
+                    } else if (mQueue.requestedCount() == 0 && !mPageRequested) {
+                        // no queue, no next query, nothing outstanding, all done!
+                        done = true;
+                    }
+                }
+
+                if (pageQuery != null) {
+                    mPageRequested = true;
+                }
+            }
+
+            for (IndexQueue.Entry entry : requests) {
+                sendObjectVersionRequest(entry.getKey(), entry.getVersion());
+            }
+
+            if (pageQuery != null) {
+                sendMessage(pageQuery.toString());
                 return;
             }
 
-            // if index is empty and we have a next request, make the request
-            if (mNextQuery != null) {
-                sendMessage(mNextQuery.toString());
+            if (!done) {
                 return;
             }
 
-            // no queue, no next query, all done!
             mComplete = true;
             if (BuildConfig.DEBUG) {
                 Log.d(TAG, "Done receiving object data " + Channel.this);
@@ -1134,12 +1543,10 @@ public class Channel implements Bucket.Channel {
          * Add the page of data, but only if indexPage cv matches. Detects when it's the
          * last page due to absence of cursor mark
          */
-        public Boolean addIndexPage(JSONObject indexPage) {
+        public Boolean addIndexPage(IndexPageData indexPage) {
 
-            String currentIndex;
-            try {
-                currentIndex = indexPage.getString(INDEX_CURRENT_VERSION_KEY);
-            } catch(JSONException e) {
+            String currentIndex = indexPage.current;
+            if (currentIndex == null) {
                 Logger.log(TAG, String.format("Index did not have current version %s", mCv));
                 currentIndex = "";
             }
@@ -1148,51 +1555,65 @@ public class Channel implements Bucket.Channel {
                 return false;
             }
 
-            JSONArray indexVersions;
-            try {
-                indexVersions = indexPage.getJSONArray(INDEX_VERSIONS_KEY);
-            } catch(JSONException e) {
-                Logger.log(TAG, String.format("Index did not have entities: %s", indexPage));
-                return true;
+            String nextMark = indexPage.mark;
+            if (nextMark != null && nextMark.length() == 0) {
+                nextMark = null;
             }
 
-            if (indexVersions.length() > 0) {
-                // query for each item that we don't have locally in the mBucket
-                for (int i=0; i<indexVersions.length(); i++) {
-                    try {
+            IndexPage page = new IndexPage(nextMark);
+            int pageNumber;
 
-                        JSONObject version = indexVersions.getJSONObject(i);
-                        String key  = version.getString(INDEX_OBJECT_ID_KEY);
-                        Integer versionNumber = version.getInt(INDEX_OBJECT_VERSION_KEY);
-                        ObjectVersion objectVersion = new ObjectVersion(key, versionNumber);
-                        mQueue.add(objectVersion.toString());
+            synchronized(this) {
+                mPageRequested = false;
+                pageNumber = mPageCount ++;
+                mPages.put(pageNumber, page);
+            }
 
-                        synchronized(mCountLock) {
-                            mReceivedCount ++;
-                        }
+            Map<String,Integer> pageVersions = indexPage.versions;
+            if (pageVersions.size() > 0) {
 
-                    } catch (JSONException e) {
-                        Logger.log(TAG, String.format("Error processing index: %d", i), e);
-                    }
+                // one lookup for the whole page to find the entities we already have
+                Set<String> currentKeys = mBucket.getCurrentKeys(pageVersions);
+                int queued = 0;
 
+                synchronized(this) {
+                    for (Map.Entry<String,Integer> entry : pageVersions.entrySet()) {
+                        if (currentKeys.contains(entry.getKey())) {
+                            continue;
+                        }
+                        // a key queued by an earlier page is now this page's responsibility
+                        IndexQueue.Entry existing = mQueue.get(entry.getKey());
+                        if (existing != null && mPages.containsKey(existing.getPage())) {
+                            mPages.get(existing.getPage()).mOutstanding --;
+                        }
+                        if (mQueue.add(entry.getKey(), entry.getValue(), pageNumber)) {
+                            queued ++;
+                        }
+                        page.mOutstanding ++;
+                    }
                 }
 
-            }
+                synchronized(mCountLock) {
+                    mReceivedCount += queued + currentKeys.size();
+                    mIndexedCount += currentKeys.size();
+                }
 
-            String nextMark = null;
-            if (indexPage.has(INDEX_MARK_KEY)) {
-                try {
-                    nextMark = indexPage.getString(INDEX_MARK_KEY);
-                } catch (JSONException e) {
-                    nextMark = null;
+                if (currentKeys.size() > 0) {
+                    Logger.log(TAG, String.format(Locale.US, "Already have %d of %d index entries",
+                        currentKeys.size(), pageVersions.size()));
                 }
+
             }
 
-            if (nextMark != null && nextMark.length() > 0) {
-                mNextQuery = new IndexQuery(nextMark);
-            } else {
-                mNextQuery = null;
+            synchronized(this) {
+                page.mFilled = true;
+                if (nextMark != null) {
+                    mNextQuery = new IndexQuery(nextMark);
+                } else {
+                    mNextQuery = null;
+                }
             }
+            checkpoint();
             next();
             return true;
         }
@@ -1202,11 +1623,24 @@ public class Channel implements Bucket.Channel {
                 return;
             }
             mNotified = true;
+            if (!mFailedVersions.isEmpty()) {
+                Logger.log(TAG, String.format(Locale.US, "Index of %s finished with %d objects not stored",
+                    mBucket.getName(), mFailedVersions.size()));
+                // completing would save the change version and lose the objects that failed,
+                // resume from the checkpoint before them instead
+                if (scheduleIndexResume(this)) {
+                    return;
+                }
+            }
             if (BuildConfig.DEBUG) {
                 Log.d(TAG, "Notifying index done: " + Channel.this);
             }
-            mBucket.indexComplete(mCv);
-            mListener.onComplete(mCv);
+            mBucket.indexComplete(mStartCv);
+            mListener.onComplete(mStartCv);
+            // out of resumes, the objects that still failed are requested one at a time
+            for (Map.Entry<String,Integer> entry : mFailedVersions.entrySet()) {
+                requestObjectVersion(new ObjectVersion(entry.getKey(), entry.getValue()));
+            }
         }
 
 
@@ -1229,15 +1663,23 @@ public class Channel implements Bucket.Channel {
      */
     private class ChangeProcessor implements Runnable, Change.OnRetryListener {
 
-        // wait 5 seconds for retries
-        public static final long RETRY_DELAY_MS = 5000; 
-        private List<JSONObject> mRemoteQueue = Collections.synchronizedList(new ArrayList<JSONObject>(10));
-        private List<Change> mLocalQueue = Collections.synchronizedList(new ArrayList<Change>());
+        private List<RemoteChange> mRemoteQueue = Collections.synchronizedList(new ArrayList<RemoteChange>(10));
+        // remote changes that failed to store and how many times, only used by the processor thread
+        final private Map<RemoteChange,Integer> mRemoteFailures = new HashMap<>();
+        final private LocalChangeQueue mLocalQueue = new LocalChangeQueue();
         private Map<String,Change> mPendingChanges = Collections.synchronizedMap(new HashMap<String,Change>());
-        private Timer mRetryTimer;
+        // keys with queued or pending changes as last reported to the bucket and the keys that
+        // have entered or left that set since then
+        final private Set<String> mUnsyncedKeys = new HashSet<>();
+        final private Set<String> mAddedKeys = new HashSet<>();
+        final private Set<String> mRemovedKeys = new HashSet<>();
         private Thread mThread;
         private final Object mLock = new Object();
         private final Object mRunLock = new Object();
+        // a start was requested since the processor began its pass, guarded by mRunLock
+        private boolean mWakeUp = false;
+        // change messages are written into the same buffer
+        final private StringWriter mChangeBuffer = new StringWriter(256);
 
         public ChangeProcessor() {
             restore();
@@ -1250,23 +1692,30 @@ public class Channel implements Bucket.Channel {
         private void restore() {
             synchronized(mLock) {
                 SerializedQueue serialized = mSerializer.restore(mBucket);
-                mLocalQueue.addAll(serialized.queued);
+                for (Change change : serialized.queued) {
+                    mLocalQueue.append(change);
+                }
                 mPendingChanges.putAll(serialized.pending);
-                resendPendingChanges();
+                for (String key : serialized.pending.keySet()) {
+                    mLocalQueue.block(key);
+                }
+                for (String key : mLocalQueue.keys()) {
+                    updateUnsynced(key);
+                }
+                for (String key : serialized.pending.keySet()) {
+                    updateUnsynced(key);
+                }
+                notifyLocalQueueChange();
+                resumeRetries();
             }
         }
 
-        public void addChanges(JSONArray changes) {
+        public void addChanges(List<RemoteChange> changes) {
             synchronized(mLock) {
-                int length = changes.length();
+                int length = changes.size();
                 Logger.log(TAG, String.format("Add remote changes to processor %d", length));
                 log(LOG_DEBUG, String.format(Locale.US, "Adding %d remote changes to queue", length));
-                for (int i = 0; i < length; i++) {
-                    JSONObject change = changes.optJSONObject(i);
-                    if (change != null) {
-                        mRemoteQueue.add(change);
-                    }
-                }
+                mRemoteQueue.addAll(changes);
                 start();
             }
         }
@@ -1280,17 +1729,11 @@ public class Channel implements Bucket.Channel {
                 log(LOG_DEBUG, String.format(Locale.US, "Adding new change to queue %s %s %s",
                     change.getKey(), change.getOperation(), change.getChangeId()));
 
-                Iterator<Change> iterator = mLocalQueue.iterator();
-                boolean isModify = change.isModifyOperation();
-                while(iterator.hasNext() && isModify) {
-                    Change queued = iterator.next();
-                    if(queued.getKey().equals(change.getKey())) {
-                        mSerializer.onDequeueChange(queued);
-                        iterator.remove();
-                    }
+                for (Change queued : mLocalQueue.queue(change)) {
+                    mSerializer.onDequeueChange(queued);
                 }
                 mSerializer.onQueueChange(change);
-                mLocalQueue.add(change);
+                updateUnsynced(change.getKey());
                 notifyLocalQueueChange();
             }
             start();
@@ -1301,23 +1744,30 @@ public class Channel implements Bucket.Channel {
             if (!mStarted) {
                 return;
             }
-            if (mRetryTimer == null) {
-                mRetryTimer = new Timer();
-            }
             if (mThread == null || mThread.getState() == Thread.State.TERMINATED) {
                 mThread = new Thread(this, String.format("simperium.processor.%s", getBucket().getName()));
                 mThread.start();
             } else {
-                // notify
+                // notify, a processor that isn't waiting yet sees the flag instead
                 synchronized(mRunLock) {
+                    mWakeUp = true;
                     mRunLock.notify();
                 }
             }
         }
 
         protected void reset() {
-            mPendingChanges.clear();
+            Set<String> pendingKeys;
+            synchronized(mPendingChanges) {
+                pendingKeys = new HashSet<>(mPendingChanges.keySet());
+                mPendingChanges.clear();
+            }
+            mLocalQueue.unblockAll();
             mSerializer.reset(mBucket);
+            for (String key : pendingKeys) {
+                updateUnsynced(key);
+            }
+            notifyLocalQueueChange();
         }
 
         protected void abort() {
@@ -1332,25 +1782,45 @@ public class Channel implements Bucket.Channel {
                 Logger.log(TAG, String.format("Checking for queued changes %d", mLocalQueue.size()));
                 // if we have have any remote changes to process we have work to do
                 if (!mRemoteQueue.isEmpty()) return true;
-                // if our local queue is empty we don't have work to do
-                if (mLocalQueue.isEmpty()) return false;
-                // if we have queued changes, if there's no corresponding pending change then there's still work to do
-                for (Change change : mLocalQueue) {
-                    if (!mPendingChanges.containsKey(change.getKey())) return true;
+                // queued changes whose key has no pending change can be sent
+                return mLocalQueue.hasReady();
+            }
+        }
+
+        /**
+         * Record whether the key still has unconfirmed local changes. Changes are collected
+         * until the next <code>notifyLocalQueueChange()</code>, a key that is added and removed
+         * in between is never reported.
+         */
+        private void updateUnsynced(String key) {
+            boolean unsynced = mLocalQueue.contains(key) || mPendingChanges.containsKey(key);
+            synchronized(mUnsyncedKeys) {
+                if (unsynced && mUnsyncedKeys.add(key)) {
+                    if (!mRemovedKeys.remove(key)) {
+                        mAddedKeys.add(key);
+                    }
+                } else if (!unsynced && mUnsyncedKeys.remove(key)) {
+                    if (!mAddedKeys.remove(key)) {
+                        mRemovedKeys.add(key);
+                    }
                 }
-                return false;
             }
         }
 
         protected void notifyLocalQueueChange() {
-            // send list of entity ids which still have unconfirmed local changes
-            Set<String> queuedKeys = new HashSet<>();
-            for (Change change : mLocalQueue) {
-                queuedKeys.add(change.getKey());
+            // send the keys that gained or lost unconfirmed local changes since the last call
+            Set<String> added, removed;
+            synchronized(mUnsyncedKeys) {
+                if (mAddedKeys.isEmpty() && mRemovedKeys.isEmpty()) {
+                    return;
+                }
+                added = new HashSet<>(mAddedKeys);
+                removed = new HashSet<>(mRemovedKeys);
+                mAddedKeys.clear();
+                mRemovedKeys.clear();
             }
-            queuedKeys.addAll(mPendingChanges.keySet());
 
-            mBucket.notifyOnLocalQueueChangeListeners(queuedKeys);
+            mBucket.notifyOnLocalQueueDeltaListeners(added, removed);
         }
 
         public void run() {
@@ -1358,16 +1828,27 @@ public class Channel implements Bucket.Channel {
             mIdle = false;
             Logger.log(TAG, String.format("%s - Starting change queue", Thread.currentThread().getName()));
             while(true) {
+                boolean stalled;
+                synchronized(mRunLock) {
+                    // starts requested from here on wake the processor after this pass
+                    mWakeUp = false;
+                }
                 try {
-                    processRemoteChanges();
-                    processLocalChanges();
+                    // a remote change that failed to store is tried again on the next start
+                    stalled = !processRemoteChanges();
+                    if (!stalled) {
+                        processLocalChanges();
+                    }
                 } catch (InterruptedException e) {
                     // shut down
                     break;
+                } finally {
+                    // one notification for every key acknowledged, sent or dropped in this pass
+                    notifyLocalQueueChange();
                 }
-                if(!hasQueuedChanges()) {
+                if(stalled || !hasQueuedChanges()) {
                     // we've sent out every change that we can so far, if nothing is pending we can disconnect
-                    if (mPendingChanges.isEmpty()) {
+                    if (!stalled && mPendingChanges.isEmpty()) {
                         mIdle = true;
                     }
 
@@ -1375,7 +1856,9 @@ public class Channel implements Bucket.Channel {
                         try {
                             Logger.log(TAG, String.format("Waiting <%s> mIdle? %b", mBucket.getName(), mIdle));
                             log(LOG_DEBUG, "Change queue is empty, waiting for changes");
-                            mRunLock.wait();
+                            while (!mWakeUp) {
+                                mRunLock.wait();
+                            }
                         } catch (InterruptedException e) {
                             break;
                         }
@@ -1384,180 +1867,319 @@ public class Channel implements Bucket.Channel {
                     }
                 }
             }
-            mRetryTimer.cancel();
-            mRetryTimer = null;
             Logger.log(TAG, String.format("%s - Queue interrupted", Thread.currentThread().getName()));
         }
 
 
-        private void processRemoteChanges()
+        /**
+         * Apply the queued remote changes in batches. Returns false when a change failed to store
+         * and the processor should stop, the change and the ones after it stay queued.
+         */
+        private boolean processRemoteChanges()
         throws InterruptedException {
             synchronized(mLock) {
                 Logger.log(TAG, String.format("Processing remote changes %d", mRemoteQueue.size()));
-                // bail if thread is interrupted
                 while(mRemoteQueue.size() > 0) {
+                    // bail if thread is interrupted
                     if (Thread.interrupted()) {
                         throw new InterruptedException();
                     }
-                    // take an item off the queue
-                    RemoteChange remoteChange;
-                    try {
-                        remoteChange = RemoteChange.buildFromMap(mRemoteQueue.remove(0));
-                    } catch (JSONException e) {
-                        Logger.log(TAG, "Failed to build remote change", e);
+                    // take a batch off the queue and apply it in one transaction
+                    List<RemoteChange> batch;
+                    synchronized(mRemoteQueue) {
+                        List<RemoteChange> head = mRemoteQueue.subList(0, Math.min(mRemoteQueue.size(), REMOTE_BATCH_SIZE));
+                        batch = new ArrayList<>(head);
+                        head.clear();
+                    }
+                    boolean applied = applyRemoteChanges(batch);
+                    for (RemoteChange remoteChange : batch) {
+                        if (remoteChange.getKey() != null) {
+                            updateUnsynced(remoteChange.getKey());
+                        }
+                    }
+                    if (!applied) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Apply the batch in one transaction. If the transaction fails nothing was stored, the
+         * changes are applied again one per transaction to find the one that fails. A failing
+         * change is put back on the queue with the changes after it until it has failed
+         * REMOTE_CHANGE_ATTEMPTS times, then it is dropped and its object requested in full.
+         */
+        private boolean applyRemoteChanges(List<RemoteChange> batch) {
+            try {
+                applyRemoteChangeBatch(batch);
+                return true;
+            } catch (RuntimeException e) {
+                Logger.log(TAG, String.format(Locale.US, "Failed to apply %d remote changes, applying them one at a time",
+                    batch.size()), e);
+            }
+
+            for (int i = 0; i < batch.size(); i++) {
+                RemoteChange remoteChange = batch.get(i);
+                try {
+                    applyRemoteChangeBatch(Collections.singletonList(remoteChange));
+                    mRemoteFailures.remove(remoteChange);
+                    continue;
+                } catch (RuntimeException e) {
+                    Logger.log(TAG, String.format("Failed to apply remote change %s", remoteChange), e);
+                }
+
+                Integer failures = mRemoteFailures.get(remoteChange);
+                failures = failures == null ? 1 : failures + 1;
+                if (failures < REMOTE_CHANGE_ATTEMPTS) {
+                    mRemoteFailures.put(remoteChange, failures);
+                    mRemoteQueue.addAll(0, batch.subList(i, batch.size()));
+                    return false;
+                }
+
+                mRemoteFailures.remove(remoteChange);
+                log(LOG_DEBUG, String.format(Locale.US, "Dropping remote change <%s> after %d failures",
+                    remoteChange.getChangeVersion(), failures));
+                if (remoteChange.getKey() != null && !remoteChange.isError() && !remoteChange.isRemoveOperation()) {
+                    requestObjectVersion(new ObjectVersion(remoteChange.getKey(), remoteChange.getObjectVersion()));
+                }
+            }
+            return true;
+        }
+
+        private void applyRemoteChangeBatch(final List<RemoteChange> batch) {
+            mBucket.applyRemoteChanges(new Runnable() {
+                @Override
+                public void run() {
+                    for (List<RemoteChange> group : groupRemoteChanges(batch)) {
+                        if (group.size() == 1) {
+                            processRemoteChange(group.get(0));
+                        } else {
+                            processRemoteChangeGroup(group);
+                        }
+                    }
+                }
+            });
+        }
+
+        /**
+         * Group modifications of the same object that directly follow each other so they can be
+         * stored together. Only changes that are adjacent in wire order are grouped, any change in
+         * between closes the group so the change version stored last is always the newest one.
+         */
+        private List<List<RemoteChange>> groupRemoteChanges(List<RemoteChange> batch) {
+            List<List<RemoteChange>> groups = new ArrayList<>(batch.size());
+            List<RemoteChange> openGroup = null;
+            for (RemoteChange remoteChange : batch) {
+                String key = remoteChange.getKey();
+                Change pending = mPendingChanges.get(key);
+                boolean foldable = !remoteChange.isError() && remoteChange.isModifyOperation() &&
+                    (pending == null || !remoteChange.hasChangeId(pending));
+
+                if (foldable && openGroup != null) {
+                    RemoteChange last = openGroup.get(openGroup.size() - 1);
+                    if (key.equals(last.getKey()) && remoteChange.getSourceVersion().equals(last.getObjectVersion())) {
+                        openGroup.add(remoteChange);
                         continue;
                     }
-                    log(LOG_DEBUG, String.format("Processing remote change with cv: %s", remoteChange.getChangeVersion()));
-                    // synchronizing on pendingChanges since we're looking up and potentially
-                    // removing an entry
-                    Change change = mPendingChanges.get(remoteChange.getKey());
-                    if (remoteChange.isAcknowledgedBy(change)) {
-                        log(LOG_DEBUG, String.format("Found pending change for remote change <%s>: %s", remoteChange.getChangeVersion(), change.getChangeId()));
+                }
+
+                List<RemoteChange> group = new ArrayList<>(1);
+                group.add(remoteChange);
+                groups.add(group);
+                openGroup = foldable ? group : null;
+            }
+            return groups;
+        }
+
+        /**
+         * Store consecutive modifications of one object at once. If they can't be applied together
+         * each change goes through processRemoteChange so the failing one is handled as usual.
+         */
+        private void processRemoteChangeGroup(List<RemoteChange> group) {
+            String key = group.get(0).getKey();
+            try {
+                mBucket.applyRemoteChanges(group);
+                log(LOG_DEBUG, String.format(Locale.US, "Succesfully applied %d remote changes to %s", group.size(), key));
+            } catch (RemoteChangeInvalidException e) {
+                Logger.log(TAG, String.format(Locale.US, "Could not apply %d remote changes to %s together", group.size(), key), e);
+                for (RemoteChange remoteChange : group) {
+                    processRemoteChange(remoteChange);
+                }
+                return;
+            }
+
+            for (RemoteChange remoteChange : group) {
+                mBucket.notifyOnSyncObjectListeners(remoteChange.getKey());
+            }
+        }
+
+        /**
+         * Store the remote change in the current batch. Pending changes, the local queue and
+         * requests sent because of the change are only updated once the batch has been committed.
+         */
+        private void processRemoteChange(final RemoteChange remoteChange) {
+            log(LOG_DEBUG, String.format("Processing remote change with cv: %s", remoteChange.getChangeVersion()));
+            final String key = remoteChange.getKey();
+            final Change change = mPendingChanges.get(key);
+            final boolean wasGoodChange = !remoteChange.isError();
+            if (remoteChange.isAcknowledgedBy(change)) {
+                log(LOG_DEBUG, String.format("Found pending change for remote change <%s>: %s", remoteChange.getChangeVersion(), change.getChangeId()));
+                boolean stored = false;
+                if (wasGoodChange) {
+                    try {
+                        onAcknowledged(remoteChange, change);
+                        stored = true;
+                    } catch (RemoteChangeInvalidException e) {
+                        Logger.log(TAG, "Remote change could not be acknowledged", e);
+                        log(LOG_DEBUG, String.format("Failed to acknowledge change <%s> Reason: %s", remoteChange.getChangeVersion(), e.getMessage()));
+                    }
+                }
+                final boolean acknowledged = stored;
+                mBucket.notifyAfterCommit(new Runnable() {
+                    @Override
+                    public void run() {
                         mSerializer.onAcknowledgeChange(change);
                         // change is no longer pending so remove it
-                        mPendingChanges.remove(change.getKey());
-                        notifyLocalQueueChange();
-                        if (remoteChange.isError()) {
-                            Logger.log(TAG, String.format("Change error response! %d %s", remoteChange.getErrorCode(), remoteChange.getKey()));
+                        mPendingChanges.remove(key);
+                        mLocalQueue.unblock(key);
+                        if (!wasGoodChange) {
+                            Logger.log(TAG, String.format("Change error response! %d %s", remoteChange.getErrorCode(), key));
                             onError(remoteChange, change);
                         } else {
-                            Ghost ghost = null;
-                            try {
-                                ghost = onAcknowledged(remoteChange, change);
-                            } catch (RemoteChangeInvalidException e) {
-                                Logger.log(TAG, "Remote change could not be acknowledged", e);
-                                log(LOG_DEBUG, String.format("Failed to acknowledge change <%s> Reason: %s", remoteChange.getChangeVersion(), e.getMessage()));
-
+                            if (!acknowledged) {
                                 // request the full object for the new version
-                                ObjectVersion version = new ObjectVersion(remoteChange.getKey(), remoteChange.getObjectVersion());
-                                sendMessage(String.format("%s:%s", COMMAND_ENTITY, version));
-                            } finally {
-                                Change compressed = null;
-                                Iterator<Change> queuedChanges = mLocalQueue.iterator();
-                                while (queuedChanges.hasNext()) {
-                                    Change queuedChange = queuedChanges.next();
-                                    if (queuedChange.getKey().equals(change.getKey())) {
-                                        queuedChanges.remove();
-                                        if (ghost != null && !remoteChange.isRemoveOperation()) {
-                                            compressed = queuedChange;
-                                        }
-                                    }
-                                }
-                                if (compressed != null) {
-                                    mLocalQueue.add(compressed);
-                                }
+                                requestObjectVersion(new ObjectVersion(key, remoteChange.getObjectVersion()));
                             }
-                        }
-                    } else {
-                        if (remoteChange.isError()) {
-                            Logger.log(TAG, String.format("Remote change %s was an error but not acknowledged", remoteChange));
-                            log(LOG_DEBUG, String.format("Received error response for change but not waiting for any ccids <%s>", remoteChange.getChangeVersion()));
-                        } else {
-                            try {
-                                mBucket.applyRemoteChange(remoteChange);
-                                Logger.log(TAG, String.format("Succesfully applied remote change <%s>", remoteChange.getChangeVersion()));
-                            } catch (RemoteChangeInvalidException e) {
-                                Logger.log(TAG, "Remote change could not be applied", e);
-                                log(LOG_DEBUG, String.format("Failed to apply change <%s> Reason: %s", remoteChange.getChangeVersion(), e.getMessage()));
-
-                                dequeueLocalChangesForKey(remoteChange.getKey());
-                                // request the full object for the new version
-                                ObjectVersion version = new ObjectVersion(remoteChange.getKey(), remoteChange.getObjectVersion());
-                                sendMessage(String.format("%s:%s", COMMAND_ENTITY, version));
+                            // only the latest queued change for the key is still needed
+                            List<Change> queuedChanges = mLocalQueue.removeAll(key);
+                            if (acknowledged && !remoteChange.isRemoveOperation() && !queuedChanges.isEmpty()) {
+                                mLocalQueue.append(queuedChanges.get(queuedChanges.size() - 1));
                             }
                         }
                     }
+                });
+            } else if (!wasGoodChange) {
+                Logger.log(TAG, String.format("Remote change %s was an error but not acknowledged", remoteChange));
+                log(LOG_DEBUG, String.format("Received error response for change but not waiting for any ccids <%s>", remoteChange.getChangeVersion()));
+            } else {
+                try {
+                    mBucket.applyRemoteChange(remoteChange);
+                    Logger.log(TAG, String.format("Succesfully applied remote change <%s>", remoteChange.getChangeVersion()));
+                } catch (RemoteChangeInvalidException e) {
+                    Logger.log(TAG, "Remote change could not be applied", e);
+                    log(LOG_DEBUG, String.format("Failed to apply change <%s> Reason: %s", remoteChange.getChangeVersion(), e.getMessage()));
+                    mBucket.notifyAfterCommit(new Runnable() {
+                        @Override
+                        public void run() {
+                            dequeueLocalChangesForKey(key);
+                            // request the full object for the new version
+                            requestObjectVersion(new ObjectVersion(key, remoteChange.getObjectVersion()));
+                        }
+                    });
+                }
+            }
 
-                    boolean wasGoodChange = !remoteChange.isError();
-                    boolean entityIsGone = wasGoodChange && remoteChange.isRemoveOperation();
+            boolean entityIsGone = wasGoodChange && remoteChange.isRemoveOperation();
 
-                    if (entityIsGone) {
-                        dequeueLocalChangesForKey(remoteChange.getKey());
+            if (entityIsGone) {
+                mBucket.notifyAfterCommit(new Runnable() {
+                    @Override
+                    public void run() {
+                        dequeueLocalChangesForKey(key);
                     }
+                });
+            }
 
-                    if (wasGoodChange && !entityIsGone) {
-                        mBucket.notifyOnSyncObjectListeners(remoteChange.getKey());
-                    }
-                }
+            if (wasGoodChange && !entityIsGone) {
+                mBucket.notifyOnSyncObjectListeners(key);
             }
         }
 
         private void dequeueLocalChangesForKey(String simperiumKey) {
             if (simperiumKey == null) return;
 
-            Iterator<Change> iterator = mLocalQueue.iterator();
-            while (iterator.hasNext()) {
-                Change queuedChange = iterator.next();
-                if (queuedChange.getKey().equals(simperiumKey)) {
-                    iterator.remove();
-                }
-            }
+            mLocalQueue.removeAll(simperiumKey);
         }
 
         public void processLocalChanges()
         throws InterruptedException {
             synchronized(mLock) {
-                if (mLocalQueue.isEmpty()) {
-                    return;
-                }
-                final List<Change> sendLater = new ArrayList<>();
-                // find the first local change whose key does not exist in the pendingChanges and there are no remote changes
-                while(!mLocalQueue.isEmpty()) {
-                    if (Thread.interrupted()) {
-                        mLocalQueue.addAll(0, sendLater);
-                        throw new InterruptedException();
+                // keys with a pending change are blocked so the queue only hands out changes
+                // that can be sent right away
+                Change localChange;
+                while((localChange = mLocalQueue.poll()) != null) {
+                    try {
+                        // add the change to pending changes
+                        mPendingChanges.put(localChange.getKey(), localChange);
+                        // send the change to simperium, if the change ends up being empty
+                        // then we'll just skip it
+                        sendChange(localChange);
+                        localChange.setOnRetryListener(this);
+                        scheduleRetry(localChange);
+                    } catch (ChangeNotSentException e) {
+                        mPendingChanges.remove(localChange.getKey());
+                        mLocalQueue.unblock(localChange.getKey());
+                        updateUnsynced(localChange.getKey());
                     }
 
-                    // take the first change of the queue
-                    Change localChange = mLocalQueue.remove(0);
-                        // check if there's a pending change with the same key
-                    if (mPendingChanges.containsKey(localChange.getKey())) {
-                        // we have a change for this key that has not been acked
-                        // so send it later
-                        sendLater.add(localChange);
-                        // let's get the next change
-                    } else {
-                        try {
-                            // add the change to pending changes
-                            mPendingChanges.put(localChange.getKey(), localChange);
-                            // send the change to simperium, if the change ends up being empty
-                            // then we'll just skip it
-                            sendChange(localChange);
-                            localChange.setOnRetryListener(this);
-                            // starts up the timer
-                            mRetryTimer.scheduleAtFixedRate(localChange.getRetryTimer(), RETRY_DELAY_MS, RETRY_DELAY_MS);
-                        } catch (ChangeNotSentException e) {
-                            mPendingChanges.remove(localChange.getKey());
-                            notifyLocalQueueChange();
-                        }
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
                     }
                 }
-                mLocalQueue.addAll(0, sendLater);
             }
         }
 
-        private void resendPendingChanges() {
-            if (mRetryTimer == null) {
-                mRetryTimer = new Timer();
+        /**
+         * Resend pending changes after connecting, spread out so a large backlog doesn't flood
+         * the socket
+         */
+        protected void resumeRetries() {
+            if (!mConnected) {
+                return;
             }
             synchronized(mLock) {
-                // resend all pending changes
-                for (Map.Entry<String, Change> entry : mPendingChanges.entrySet()) {
-                    Change change = entry.getValue();
+                int count = mPendingChanges.size();
+                for (Change change : mPendingChanges.values()) {
                     change.setOnRetryListener(this);
-                    mRetryTimer.scheduleAtFixedRate(change.getRetryTimer(), RETRY_DELAY_MS, RETRY_DELAY_MS);
+                    change.scheduleRetry(mRetryScheduler, mRetryScheduler.getResumeDelay(count));
                 }
             }
         }
 
+        /**
+         * Stop retrying while the channel is disconnected
+         */
+        protected void pauseRetries() {
+            synchronized(mLock) {
+                for (Change change : mPendingChanges.values()) {
+                    change.cancelRetry();
+                }
+            }
+        }
+
+        private void scheduleRetry(Change change) {
+            // resumeRetries() reschedules pending changes once connected
+            if (mConnected && mPendingChanges.get(change.getKey()) == change) {
+                change.scheduleRetry(mRetryScheduler);
+            }
+        }
+
         @Override
         public void onRetry(Change change) {
-            log(LOG_DEBUG, String.format("Retrying change %s", change.getChangeId()));
+            if (!mConnected || mPendingChanges.get(change.getKey()) != change) {
+                return;
+            }
+            log(LOG_DEBUG, String.format(Locale.US, "Retrying change %s attempt %d", change.getChangeId(), change.getRetryAttempts()));
             try {
                 sendChange(change);
             } catch (ChangeNotSentException e) {
-                // do nothing the timer will trigger another send
+                if (change.isComplete()) {
+                    return;
+                }
             }
+            scheduleRetry(change);
         }
 
         private void sendChange(Change change)
@@ -1570,9 +2192,15 @@ public class Channel implements Bucket.Channel {
 
             try {
                 log(LOG_DEBUG, String.format("Sending change for id: %s op: %s ccid: %s", change.getKey(), change.getOperation(), change.getChangeId()));
-                Syncable target = mBucket.getObjectOrBackup(change.getKey());
-                Ghost ghost = mBucket.getGhost(change.getKey());
-                sendMessage(String.format("c:%s", change.toJSONObject(target.getDiffableValue(), ghost)));
+                // a retry resends the message written for the ccid the first time
+                String message = change.getMessage();
+                if (message == null) {
+                    Syncable target = mBucket.getObjectOrBackup(change.getKey());
+                    Ghost ghost = mBucket.getGhost(change.getKey());
+                    message = writeChange(change, target.getDiffableValue(), ghost);
+                    change.setMessage(message);
+                }
+                sendMessage(message);
                 mSerializer.onSendChange(change);
                 change.setSent();
             } catch (BucketObjectMissingException e) {
@@ -1593,11 +2221,31 @@ public class Channel implements Bucket.Channel {
 
         }
 
+        /**
+         * Write the "c:<change>" message without building the change as a JSONObject first
+         */
+        private String writeChange(Change change, JSONObject target, Ghost ghost)
+        throws ChangeEmptyException, ChangeInvalidException {
+            synchronized(mChangeBuffer) {
+                StringBuffer buffer = mChangeBuffer.getBuffer();
+                buffer.setLength(0);
+                buffer.append(COMMAND_CHANGE).append(MessageCodec.SEPARATOR);
+                change.write(new JsonWriter(mChangeBuffer), target, ghost);
+                String message = buffer.toString();
+                // don't hold on to the memory of an unusually large change
+                if (buffer.capacity() > CHANGE_BUFFER_MAX_CAPACITY) {
+                    buffer.setLength(0);
+                    buffer.trimToSize();
+                }
+                return message;
+            }
+        }
+
     }
 
     private void completeAndDequeueChange(Change change) {
         change.setComplete();
-        change.resetTimer();
+        change.cancelRetry();
         mSerializer.onDequeueChange(change);
     }
 
@@ -6,8 +6,23 @@ public interface ChannelProvider {
     static public final int LOG_DEBUG = 1;
     static public final int LOG_VERBOSE = 2;
 
+    /**
+     * The connection every bucket shares unless it is given its own
+     */
+    static public final String DEFAULT_CONNECTION = "default";
+
     public Bucket.Channel buildChannel(Bucket bucket);
 
+    /**
+     * Build the bucket's channel on the named connection. Buckets given the same name share a
+     * connection separate from the default one, so a bucket downloading a large index can be
+     * kept from delaying the changes of other buckets. Providers with a single connection
+     * build every channel on it.
+     */
+    default Bucket.Channel buildChannel(Bucket bucket, String connection) {
+        return buildChannel(bucket);
+    }
+
     /**
      * Send a log message to Simperium
      */
@@ -1,5 +1,9 @@
 package com.simperium.client;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
 public interface GhostStorageProvider {
     /**
      * Check if the store has a change version for the provided bucket
@@ -29,6 +33,21 @@ public interface GhostStorageProvider {
      * Get a ghost's version number
      */
     public int getGhostVersion(Bucket bucket, String key) throws GhostMissingException;
+    /**
+     * Get the version numbers of many ghosts with a single lookup, keys without a ghost are
+     * left out of the returned map. Looks up each key on its own unless the store can do better.
+     */
+    default Map<String,Integer> getGhostVersions(Bucket bucket, Collection<String> keys) {
+        Map<String,Integer> versions = new HashMap<String,Integer>(keys.size());
+        for (String key : keys) {
+            try {
+                versions.put(key, getGhostVersion(bucket, key));
+            } catch (GhostMissingException e) {
+                // no ghost, left out
+            }
+        }
+        return versions;
+    }
     /**
      * Saves the provided ghost to the bucket
      */
@@ -38,7 +57,24 @@ public interface GhostStorageProvider {
      */
     public void deleteGhost(Bucket bucket, String key);
     /**
-     * Clear all ghost data and change version for the given bucket
+     * Returns the saved progress of an unfinished index download or null. Stores that don't
+     * save progress always download the whole index.
+     */
+    default IndexCheckpoint getIndexCheckpoint(Bucket bucket) {
+        return null;
+    }
+    /**
+     * Saves the progress of the bucket's index download
+     */
+    default void setIndexCheckpoint(Bucket bucket, IndexCheckpoint checkpoint) {
+    }
+    /**
+     * Removes the index download progress once the index is complete
+     */
+    default void clearIndexCheckpoint(Bucket bucket) {
+    }
+    /**
+     * Clear all ghost data, change version and index progress for the given bucket
      */
     public void resetBucket(Bucket bucket);
 }
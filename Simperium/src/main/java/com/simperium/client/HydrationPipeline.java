@@ -0,0 +1,276 @@
+package com.simperium.client;
+
+import com.simperium.client.BucketSchema.Index;
+import com.simperium.storage.StorageProvider.BucketStore;
+import com.simperium.util.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stores the objects a Bucket receives while downloading its index.
+ *
+ * Work happens in two stages. Objects are built from their ghosts (copy of the JSON, schema
+ * build, index values and serialized data) on the bucket's executor, which is usually a thread
+ * pool. Built objects are handed to a single writer thread that saves ghosts and objects in one
+ * storage transaction per batch of up to BATCH_SIZE objects. A batch that fails to commit is
+ * written again one object per transaction so a single bad object doesn't cost the rest of the
+ * batch. Once written every listener is told how many of its objects were stored and how many
+ * failed.
+ */
+class HydrationPipeline<T extends Syncable> implements Runnable {
+
+    public static final String TAG = "Simperium.Hydration";
+    public static final int BATCH_SIZE = 200;
+    // the writer thread exits once it has been idle this long, the next object restarts it
+    static final long WRITER_IDLE_TIMEOUT = 5000;
+
+    interface Listener {
+        /**
+         * Called from the writer thread once a batch containing count of the listener's
+         * objects has been committed
+         */
+        void onHydrated(int count);
+
+        /**
+         * Called for each of the listener's objects that could not be stored, from the writer
+         * thread for objects that failed to save or from the executor for an object that failed
+         * to build
+         */
+        void onFailed(Ghost ghost);
+    }
+
+    private static class Item<T> {
+
+        final Ghost ghost;
+        final T object;
+        final String json;
+        final List<Index> indexes;
+        final Listener listener;
+        final int generation;
+
+        Item(Ghost ghost, T object, String json, List<Index> indexes, Listener listener, int generation) {
+            this.ghost = ghost;
+            this.object = object;
+            this.json = json;
+            this.indexes = indexes;
+            this.listener = listener;
+            this.generation = generation;
+        }
+
+    }
+
+    final private Bucket<T> mBucket;
+    final private Executor mExecutor;
+    final private BucketStore<T> mStorage;
+    final private GhostStorageProvider mGhostStore;
+    final private BlockingQueue<Item<T>> mQueue = new LinkedBlockingQueue<>();
+    final private Object mThreadLock = new Object();
+    // held while a batch is written so clear() waits for it
+    final private Object mWriteLock = new Object();
+    private Thread mThread;
+    // objects added before the last clear() belong to an older generation and are dropped
+    private volatile int mGeneration = 0;
+
+    HydrationPipeline(Bucket<T> bucket, Executor executor, BucketStore<T> storage, GhostStorageProvider ghostStore) {
+        mBucket = bucket;
+        mExecutor = executor;
+        mStorage = storage;
+        mGhostStore = ghostStore;
+    }
+
+    /**
+     * Build the object for the ghost on the executor and queue it for the writer
+     */
+    public void add(final Ghost ghost, final Listener listener) {
+        final int generation = mGeneration;
+        mExecutor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                if (generation != mGeneration) {
+                    return;
+                }
+                T object;
+                String json;
+                List<Index> indexes;
+                try {
+                    object = mBucket.buildObject(ghost);
+                    json = object.getDiffableValue().toString();
+                    indexes = mBucket.getSchema().indexesFor(object);
+                } catch (RuntimeException e) {
+                    Logger.log(TAG, String.format("Failed to build %s for %s", ghost.getSimperiumKey(), mBucket.getName()), e);
+                    if (listener != null) {
+                        listener.onFailed(ghost);
+                    }
+                    return;
+                }
+                enqueue(new Item<>(ghost, object, json, indexes, listener, generation));
+            }
+
+        });
+    }
+
+    /**
+     * Drop every object that has not been written yet, including objects still being built. Waits
+     * for a batch that is being written so storage can be reset after it.
+     */
+    public void clear() {
+        synchronized(mWriteLock) {
+            mGeneration ++;
+            mQueue.clear();
+        }
+    }
+
+    private void enqueue(Item<T> item) {
+        if (item.generation != mGeneration) {
+            return;
+        }
+        mQueue.add(item);
+        startWriter();
+    }
+
+    private void startWriter() {
+        synchronized(mThreadLock) {
+            if (mThread == null) {
+                mThread = new Thread(this, String.format("simperium.hydration.%s", mBucket.getName()));
+                mThread.start();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        List<Item<T>> batch = new ArrayList<>(BATCH_SIZE);
+        try {
+            while(true) {
+                Item<T> item = mQueue.poll(WRITER_IDLE_TIMEOUT, TimeUnit.MILLISECONDS);
+                if (item == null) {
+                    synchronized(mThreadLock) {
+                        if (mQueue.isEmpty()) {
+                            mThread = null;
+                            return;
+                        }
+                    }
+                    continue;
+                }
+                batch.add(item);
+                mQueue.drainTo(batch, BATCH_SIZE - 1);
+
+                write(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Logger.log(TAG, String.format("Hydration interrupted %s", mBucket.getName()), e);
+        } finally {
+            boolean restart;
+            synchronized(mThreadLock) {
+                if (mThread == Thread.currentThread()) {
+                    mThread = null;
+                }
+                restart = !mQueue.isEmpty();
+            }
+            // objects queued while the writer was stopping still need one
+            if (restart) {
+                startWriter();
+            }
+        }
+    }
+
+    private void write(final List<Item<T>> batch) {
+        List<Item<T>> current = new ArrayList<>(batch.size());
+        List<Item<T>> failed = new ArrayList<>();
+        synchronized(mWriteLock) {
+            for (Item<T> item : batch) {
+                if (item.generation == mGeneration) {
+                    current.add(item);
+                }
+            }
+            if (current.isEmpty()) {
+                return;
+            }
+
+            try {
+                save(current);
+            } catch (RuntimeException e) {
+                // SQLException or a failing indexer, none of the batch was committed
+                Logger.log(TAG, String.format(Locale.US, "Failed to store %d objects for %s, storing them one at a time",
+                    current.size(), mBucket.getName()), e);
+                failed = saveEach(current);
+            }
+        }
+
+        // failed objects have no ghost, listeners hear about them separately so an index can
+        // finish without treating them as stored
+        current.removeAll(failed);
+        notifyHydrated(current);
+        for (Item<T> item : failed) {
+            if (item.listener == null) {
+                continue;
+            }
+            try {
+                item.listener.onFailed(item.ghost);
+            } catch (RuntimeException e) {
+                Logger.log(TAG, String.format("Hydration listener failed for %s", mBucket.getName()), e);
+            }
+        }
+    }
+
+    private void save(final List<Item<T>> items) {
+        mStorage.transaction(new Runnable() {
+
+            @Override
+            public void run() {
+                for (Item<T> item : items) {
+                    mGhostStore.saveGhost(mBucket, item.ghost);
+                    mStorage.save(item.object, item.ghost.getSimperiumKey(), item.json, item.indexes);
+                }
+            }
+
+        });
+    }
+
+    /**
+     * Save each item in its own transaction and return the ones that failed
+     */
+    private List<Item<T>> saveEach(List<Item<T>> items) {
+        List<Item<T>> failed = new ArrayList<>();
+        for (Item<T> item : items) {
+            try {
+                save(Collections.singletonList(item));
+            } catch (RuntimeException e) {
+                Logger.log(TAG, String.format("Failed to store %s for %s", item.ghost.getSimperiumKey(), mBucket.getName()), e);
+                failed.add(item);
+            }
+        }
+        return failed;
+    }
+
+    private void notifyHydrated(List<Item<T>> items) {
+        Map<Listener,Integer> counts = new HashMap<>();
+        for (Item<T> item : items) {
+            if (item.listener == null) {
+                continue;
+            }
+            Integer count = counts.get(item.listener);
+            counts.put(item.listener, count == null ? 1 : count + 1);
+        }
+
+        for (Map.Entry<Listener,Integer> entry : counts.entrySet()) {
+            try {
+                entry.getKey().onHydrated(entry.getValue());
+            } catch (RuntimeException e) {
+                Logger.log(TAG, String.format("Hydration listener failed for %s", mBucket.getName()), e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,31 @@
+package com.simperium.client;
+
+import java.util.Locale;
+
+/**
+ * Progress of an index download that has not finished yet. The mark requests the first page
+ * that still has entities missing from storage and the change version is the one the download
+ * started with, so changes made while it was interrupted are still requested once it completes.
+ */
+public class IndexCheckpoint {
+
+    private final String mMark;
+    private final String mChangeVersion;
+
+    public IndexCheckpoint(String mark, String changeVersion) {
+        mMark = mark;
+        mChangeVersion = changeVersion;
+    }
+
+    public String getMark() {
+        return mMark;
+    }
+
+    public String getChangeVersion() {
+        return mChangeVersion;
+    }
+
+    public String toString() {
+        return String.format(Locale.US, "IndexCheckpoint %s @ %s", mMark, mChangeVersion);
+    }
+}
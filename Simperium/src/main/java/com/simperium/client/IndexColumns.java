@@ -0,0 +1,67 @@
+package com.simperium.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Indexes stored in typed columns of a table with one row per object instead of one row per
+ * value in the shared indexes table. Queries on columns filter and sort a single table that
+ * SQLite can scan by the column indexes.
+ *
+ * A column holds the first value an indexer produced for the name, indexes with several values
+ * like arrays should stay in the indexes table.
+ */
+public class IndexColumns {
+
+    /**
+     * The affinity SQLite converts the column's values to
+     */
+    public enum Type {
+        TEXT, INTEGER, REAL
+    }
+
+    private final Map<String,Type> mColumns = new LinkedHashMap<String,Type>();
+    private final List<String[]> mCompositeIndexes = new ArrayList<String[]>();
+
+    IndexColumns(){
+    }
+
+    public IndexColumns add(String name, Type type){
+        mColumns.put(name, type);
+        return this;
+    }
+
+    /**
+     * Index the columns together for queries that filter on the first ones and sort by the rest
+     */
+    public IndexColumns addCompositeIndex(String ... names){
+        for (String name : names) {
+            if (!has(name)) {
+                throw new IllegalArgumentException(String.format("No index column named %s", name));
+            }
+        }
+        mCompositeIndexes.add(names);
+        return this;
+    }
+
+    public boolean has(String name){
+        return name != null && mColumns.containsKey(name);
+    }
+
+    public Set<String> getNames(){
+        return Collections.unmodifiableSet(mColumns.keySet());
+    }
+
+    public Type getType(String name){
+        return mColumns.get(name);
+    }
+
+    public List<String[]> getCompositeIndexes(){
+        return Collections.unmodifiableList(mCompositeIndexes);
+    }
+
+}
@@ -0,0 +1,196 @@
+package com.simperium.client;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Work queue used by the Channel's IndexProcessor while downloading an index.
+ *
+ * Entries are kept in insertion order and are keyed by simperium key with the version stored as
+ * a primitive int. Waiting entries are handed out in order with <code>poll()</code> and stay in the
+ * queue as requested until the entity arrives and <code>complete(String, int)</code> is called.
+ * Every operation is O(1) and matching an entity never builds a "key.version" string.
+ *
+ * Not thread safe, callers are expected to synchronize access.
+ */
+class IndexQueue {
+
+    static final class Entry {
+
+        final String key;
+        int version;
+        int page;
+        boolean requested = false;
+        Entry previous, next;
+
+        Entry(String key, int version, int page) {
+            this.key = key;
+            this.version = version;
+            this.page = page;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        /**
+         * Number of the index page the entry was last added from
+         */
+        public int getPage() {
+            return page;
+        }
+
+    }
+
+    final private Map<String,Entry> mEntries;
+    // entries that have not been requested yet, in insertion order
+    private Entry mHead, mTail;
+    private int mWaitingCount = 0, mRequestedCount = 0;
+
+    IndexQueue() {
+        mEntries = new HashMap<>();
+    }
+
+    IndexQueue(int capacity) {
+        mEntries = new HashMap<>(capacity);
+    }
+
+    public boolean add(String key, int version) {
+        return add(key, version, 0);
+    }
+
+    /**
+     * Queue the version of the key from the given index page. If the key is already queued it
+     * moves to the page and false is returned, its version is only replaced by a newer one.
+     */
+    public boolean add(String key, int version, int page) {
+        Entry existing = mEntries.get(key);
+        if (existing != null && version <= existing.version) {
+            existing.page = page;
+            return false;
+        }
+        if (existing != null && !existing.requested) {
+            existing.version = version;
+            existing.page = page;
+            return false;
+        }
+        if (existing != null) {
+            // an older version is still outstanding, the newer one replaces it
+            remove(existing);
+        }
+        Entry entry = new Entry(key, version, page);
+        mEntries.put(key, entry);
+        link(entry);
+        return existing == null;
+    }
+
+    /**
+     * The waiting or requested entry for the key, null when the key is not queued
+     */
+    public Entry get(String key) {
+        return mEntries.get(key);
+    }
+
+    /**
+     * Take the oldest waiting entry and mark it as requested, returns null when nothing is waiting.
+     */
+    public Entry poll() {
+        Entry entry = mHead;
+        if (entry == null) {
+            return null;
+        }
+        unlink(entry);
+        entry.requested = true;
+        mRequestedCount ++;
+        return entry;
+    }
+
+    /**
+     * Remove a requested entry once its data has been received. Returns null when the key and
+     * version were not requested.
+     */
+    public Entry complete(String key, int version) {
+        Entry entry = mEntries.get(key);
+        if (entry == null || !entry.requested || entry.version != version) {
+            return null;
+        }
+        remove(entry);
+        return entry;
+    }
+
+    /**
+     * True when there are no entries waiting to be requested.
+     */
+    public boolean isEmpty() {
+        return mHead == null;
+    }
+
+    /**
+     * Number of entries that have not been requested yet
+     */
+    public int waitingCount() {
+        return mWaitingCount;
+    }
+
+    /**
+     * Number of entries that have been requested and not completed
+     */
+    public int requestedCount() {
+        return mRequestedCount;
+    }
+
+    /**
+     * Total number of waiting and requested entries
+     */
+    public int size() {
+        return mEntries.size();
+    }
+
+    public void clear() {
+        mEntries.clear();
+        mHead = mTail = null;
+        mWaitingCount = 0;
+        mRequestedCount = 0;
+    }
+
+    private void remove(Entry entry) {
+        mEntries.remove(entry.key);
+        if (entry.requested) {
+            mRequestedCount --;
+        } else {
+            unlink(entry);
+        }
+    }
+
+    private void link(Entry entry) {
+        entry.previous = mTail;
+        entry.next = null;
+        if (mTail == null) {
+            mHead = entry;
+        } else {
+            mTail.next = entry;
+        }
+        mTail = entry;
+        mWaitingCount ++;
+    }
+
+    private void unlink(Entry entry) {
+        if (entry.previous == null) {
+            mHead = entry.next;
+        } else {
+            entry.previous.next = entry.next;
+        }
+        if (entry.next == null) {
+            mTail = entry.previous;
+        } else {
+            entry.next.previous = entry.previous;
+        }
+        entry.previous = entry.next = null;
+        mWaitingCount --;
+    }
+
+}
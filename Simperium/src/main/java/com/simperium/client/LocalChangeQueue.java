@@ -0,0 +1,164 @@
+package com.simperium.client;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Local changes waiting to be sent by the Channel's ChangeProcessor.
+ *
+ * Changes are grouped by simperium key. Keys that can be sent are kept in a FIFO, keys with a
+ * change waiting to be acknowledged are blocked and left out of it until they are unblocked.
+ * Queueing, compressing and finding the next change to send are O(1) regardless of how many
+ * changes are queued.
+ */
+class LocalChangeQueue {
+
+    private static final class KeyChanges {
+
+        final String key;
+        final ArrayDeque<Change> changes = new ArrayDeque<>(2);
+
+        KeyChanges(String key) {
+            this.key = key;
+        }
+
+    }
+
+    final private Map<String,KeyChanges> mKeys = new HashMap<>();
+    // keys with queued changes that are not blocked, in the order they became sendable
+    final private LinkedHashMap<String,KeyChanges> mReady = new LinkedHashMap<>();
+    // keys with a change waiting to be acknowledged
+    final private Set<String> mBlocked = new HashSet<>();
+    private int mSize = 0;
+
+    /**
+     * Queue the change. A modify replaces every change queued for its key, the replaced
+     * changes are returned. A remove is appended so a queued modify is still sent before it.
+     */
+    synchronized public List<Change> queue(Change change) {
+        List<Change> replaced;
+        if (change.isModifyOperation()) {
+            replaced = removeAll(change.getKey());
+        } else {
+            replaced = Collections.emptyList();
+        }
+        append(change);
+        return replaced;
+    }
+
+    /**
+     * Add the change after the changes already queued for its key without compressing
+     */
+    synchronized public void append(Change change) {
+        String key = change.getKey();
+        KeyChanges keyChanges = mKeys.get(key);
+        if (keyChanges == null) {
+            keyChanges = new KeyChanges(key);
+            mKeys.put(key, keyChanges);
+            if (!mBlocked.contains(key)) {
+                mReady.put(key, keyChanges);
+            }
+        }
+        keyChanges.changes.addLast(change);
+        mSize ++;
+    }
+
+    /**
+     * Take the oldest change of the first sendable key and block the key until
+     * <code>unblock(String)</code> is called. Returns null when no key can be sent.
+     */
+    synchronized public Change poll() {
+        Iterator<KeyChanges> iterator = mReady.values().iterator();
+        if (!iterator.hasNext()) {
+            return null;
+        }
+        KeyChanges keyChanges = iterator.next();
+        iterator.remove();
+
+        Change change = keyChanges.changes.pollFirst();
+        mSize --;
+        if (keyChanges.changes.isEmpty()) {
+            mKeys.remove(keyChanges.key);
+        }
+        mBlocked.add(keyChanges.key);
+        return change;
+    }
+
+    /**
+     * Hold back the key's queued changes while one of its changes is waiting for an ack
+     */
+    synchronized public void block(String key) {
+        mBlocked.add(key);
+        mReady.remove(key);
+    }
+
+    /**
+     * The key's pending change was acknowledged or dropped, its queued changes can be sent
+     */
+    synchronized public void unblock(String key) {
+        if (!mBlocked.remove(key)) {
+            return;
+        }
+        KeyChanges keyChanges = mKeys.get(key);
+        if (keyChanges != null) {
+            mReady.put(key, keyChanges);
+        }
+    }
+
+    synchronized public void unblockAll() {
+        for (String key : new ArrayList<>(mBlocked)) {
+            unblock(key);
+        }
+    }
+
+    /**
+     * Remove and return every change queued for the key
+     */
+    synchronized public List<Change> removeAll(String key) {
+        KeyChanges keyChanges = mKeys.remove(key);
+        if (keyChanges == null) {
+            return Collections.emptyList();
+        }
+        mReady.remove(key);
+        mSize -= keyChanges.changes.size();
+        return new ArrayList<>(keyChanges.changes);
+    }
+
+    /**
+     * True when a queued change can be sent
+     */
+    synchronized public boolean hasReady() {
+        return !mReady.isEmpty();
+    }
+
+    /**
+     * True when the key has queued changes
+     */
+    synchronized public boolean contains(String key) {
+        return mKeys.containsKey(key);
+    }
+
+    synchronized public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    synchronized public int size() {
+        return mSize;
+    }
+
+    /**
+     * Keys that have queued changes
+     */
+    synchronized public Set<String> keys() {
+        return new HashSet<>(mKeys.keySet());
+    }
+
+}
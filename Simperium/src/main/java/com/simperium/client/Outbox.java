@@ -0,0 +1,95 @@
+package com.simperium.client;
+
+import com.simperium.client.Channel.ObjectVersion;
+import com.simperium.util.Logger;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Object versions a Channel has requested and not received yet.
+ *
+ * Requests made while the channel is disconnected, or lost with the connection before they were
+ * answered, are sent again in the order they were made once the channel has restarted. Only the
+ * newest version requested for a key is kept. When the outbox is full the oldest request is dropped
+ * and counted, the channel downloads a new index to fetch the dropped objects again.
+ */
+class Outbox {
+
+    public static final String TAG = "Simperium.Outbox";
+    public static final int MAX_SIZE = 1000;
+
+    // keyed by simperium key
+    final private LinkedHashMap<String,ObjectVersion> mRequests = new LinkedHashMap<>();
+    // requests dropped because the outbox was full since the last clearDropped()
+    private int mDropped = 0;
+
+    /**
+     * Keep the request, replacing an older version requested for the same key. Returns false if
+     * the version or a newer one was already waiting for a response.
+     */
+    synchronized public boolean add(ObjectVersion version) {
+        String key = version.getKey();
+        ObjectVersion existing = mRequests.get(key);
+        if (existing != null) {
+            if (existing.getVersion() >= version.getVersion()) {
+                return false;
+            }
+            // the newer request goes to the back of the line
+            mRequests.remove(key);
+        }
+        if (mRequests.size() >= MAX_SIZE) {
+            Iterator<ObjectVersion> oldest = mRequests.values().iterator();
+            Logger.log(TAG, String.format("Outbox full, dropped request for %s", oldest.next()));
+            oldest.remove();
+            mDropped++;
+        }
+        mRequests.put(key, version);
+        return true;
+    }
+
+    /**
+     * The response for the version arrived, a newer request for the key is kept
+     */
+    synchronized public boolean remove(ObjectVersion version) {
+        ObjectVersion existing = mRequests.get(version.getKey());
+        if (existing == null || !existing.getVersion().equals(version.getVersion())) {
+            return false;
+        }
+        mRequests.remove(version.getKey());
+        return true;
+    }
+
+    /**
+     * Requests waiting for a response in the order they were made
+     */
+    synchronized public List<ObjectVersion> pending() {
+        return new ArrayList<>(mRequests.values());
+    }
+
+    synchronized public int size() {
+        return mRequests.size();
+    }
+
+    /**
+     * Number of requests dropped because the outbox was full
+     */
+    synchronized public int getDroppedCount() {
+        return mDropped;
+    }
+
+    /**
+     * The dropped objects will be fetched again, by a new index
+     */
+    synchronized public void clearDropped() {
+        mDropped = 0;
+    }
+
+    synchronized public void clear() {
+        mRequests.clear();
+        mDropped = 0;
+    }
+
+}
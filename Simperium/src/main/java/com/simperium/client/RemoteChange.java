@@ -1,11 +1,16 @@
 package com.simperium.client;
 
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
 import com.simperium.util.JSONDiff;
+import com.simperium.util.StreamingJSON;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.util.Locale;
 
 /**
@@ -274,6 +279,75 @@ public class RemoteChange {
 
     }
 
+    /**
+     * Read a change straight from the JSON of a c: message. Returns null when the change is
+     * missing fields buildFromMap would have required.
+     */
+    public static RemoteChange read(JsonReader reader)
+    throws IOException, JSONException {
+        JSONArray ccids = null;
+        String clientid = null, id = null, operation = null, changeVersion = null;
+        Integer errorCode = null;
+        int sourceVersion = 0, objectVersion = 0;
+        JSONObject patch = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+            switch (name) {
+                case CHANGE_IDS_KEY:
+                    ccids = StreamingJSON.readArray(reader);
+                    break;
+                case CLIENT_KEY:
+                    clientid = reader.nextString();
+                    break;
+                case ID_KEY:
+                    id = reader.nextString();
+                    break;
+                case ERROR_KEY:
+                    errorCode = reader.nextInt();
+                    break;
+                case OPERATION_KEY:
+                    operation = reader.nextString();
+                    break;
+                case SOURCE_VERSION_KEY:
+                    sourceVersion = reader.nextInt();
+                    break;
+                case END_VERSION_KEY:
+                    objectVersion = reader.nextInt();
+                    break;
+                case CHANGE_VERSION_KEY:
+                    changeVersion = reader.nextString();
+                    break;
+                case VALUE_KEY:
+                    if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                        patch = StreamingJSON.readObject(reader);
+                    } else {
+                        reader.skipValue();
+                    }
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (ccids == null || clientid == null || id == null) {
+            return null;
+        }
+        if (errorCode != null) {
+            return new RemoteChange(clientid, id, ccids, errorCode);
+        }
+        if (operation == null || changeVersion == null) {
+            return null;
+        }
+        return new RemoteChange(clientid, id, ccids, changeVersion, sourceVersion, objectVersion, operation, patch);
+    }
+
     public static ResponseCode responseForCode(Integer code) {
 
         if (code == null)
@@ -0,0 +1,81 @@
+package com.simperium.client;
+
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules resends of changes that have not been acknowledged. One scheduler thread is shared
+ * by every channel in the process instead of a Timer per bucket.
+ *
+ * Retry delays back off exponentially from INITIAL_DELAY_MS up to MAX_DELAY_MS. Each delay is
+ * jittered between half and all of its value so changes that were sent together don't retry
+ * together.
+ */
+public class RetryScheduler {
+
+    public static final long INITIAL_DELAY_MS = 5000;
+    public static final long MAX_DELAY_MS = 5 * 60 * 1000;
+    // spacing between pending changes when they are resent after reconnecting
+    public static final long RESUME_SPACING_MS = 20;
+
+    private static RetryScheduler sDefault;
+
+    final private ScheduledExecutorService mExecutor;
+    final private Random mRandom;
+
+    /**
+     * The scheduler shared by every channel, its thread is a daemon thread
+     */
+    public static synchronized RetryScheduler getDefault() {
+        if (sDefault == null) {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "simperium.retry");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            // cancelled retries are dropped right away instead of waiting for their delay
+            executor.setRemoveOnCancelPolicy(true);
+            sDefault = new RetryScheduler(executor, new Random());
+        }
+        return sDefault;
+    }
+
+    public RetryScheduler(ScheduledExecutorService executor, Random random) {
+        mExecutor = executor;
+        mRandom = random;
+    }
+
+    /**
+     * Delay before the next retry of a change that has already been retried the given number
+     * of times
+     */
+    public long getDelay(int attempts) {
+        long delay = INITIAL_DELAY_MS << Math.min(attempts, 16);
+        if (delay > MAX_DELAY_MS) {
+            delay = MAX_DELAY_MS;
+        }
+        long half = delay / 2;
+        return half + (long) (mRandom.nextDouble() * half);
+    }
+
+    /**
+     * Delay before resending a pending change after reconnecting. Pending changes are spread out
+     * over a window that grows with their number so they don't all go out at once.
+     */
+    public long getResumeDelay(int pendingCount) {
+        long window = Math.max(INITIAL_DELAY_MS, pendingCount * RESUME_SPACING_MS);
+        return (long) (mRandom.nextDouble() * window);
+    }
+
+    public ScheduledFuture<?> schedule(Runnable runnable, long delay) {
+        return mExecutor.schedule(runnable, delay, TimeUnit.MILLISECONDS);
+    }
+
+}
@@ -28,6 +28,14 @@ public interface StorageProvider {
          */
         public void save(T object, String simperiumKey, String json, List<Index> indexes);
 
+        /**
+         * Perform the writes made by the runnable as a single unit of work, stores backed by
+         * a database should wrap them in one transaction. Other stores just run it.
+         */
+        default void transaction(Runnable runnable) {
+            runnable.run();
+        }
+
         /**
          * Remove the given object from the storage
          */
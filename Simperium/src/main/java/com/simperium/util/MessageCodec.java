@@ -0,0 +1,76 @@
+package com.simperium.util;
+
+/**
+ * Reads and writes the prefixes of Simperium websocket messages, "<channel>:<command>:<payload>",
+ * by scanning indexes instead of splitting messages into substrings. Parsers get the message
+ * and the offset its payload starts at.
+ */
+public final class MessageCodec {
+
+    public static final char SEPARATOR = ':';
+    public static final int NO_CHANNEL = -1;
+
+    // more digits than this can't be a channel id
+    private static final int MAX_CHANNEL_DIGITS = 9;
+
+    private MessageCodec() {
+        // static helpers only
+    }
+
+    /**
+     * The channel id the message starts with, NO_CHANNEL when the message doesn't start with
+     * digits followed by the separator
+     */
+    public static int parseChannel(String message) {
+        int length = message.length();
+        int channel = 0;
+        int i = 0;
+        for (; i < length && i <= MAX_CHANNEL_DIGITS; i++) {
+            char c = message.charAt(i);
+            if (c == SEPARATOR) break;
+            if (c < '0' || c > '9') return NO_CHANNEL;
+            channel = channel * 10 + (c - '0');
+        }
+        if (i == 0 || i == length || i > MAX_CHANNEL_DIGITS || message.charAt(i) != SEPARATOR) {
+            return NO_CHANNEL;
+        }
+        return channel;
+    }
+
+    /**
+     * Offset just past the separator that ends the prefix starting at offset, the length of the
+     * message when the prefix runs to its end
+     */
+    public static int skipPrefix(String message, int offset) {
+        int separator = message.indexOf(SEPARATOR, offset);
+        return separator == -1 ? message.length() : separator + 1;
+    }
+
+    /**
+     * If the prefix starting at offset is the command, followed by the separator or the end of
+     * the message
+     */
+    public static boolean isCommand(String message, int offset, String command) {
+        int end = offset + command.length();
+        if (end > message.length() || !message.regionMatches(offset, command, 0, command.length())) {
+            return false;
+        }
+        return end == message.length() || message.charAt(end) == SEPARATOR;
+    }
+
+    /**
+     * Offset of the payload following the command at offset
+     */
+    public static int payloadOffset(String message, int offset, String command) {
+        return Math.min(offset + command.length() + 1, message.length());
+    }
+
+    /**
+     * Write "<channel>:<message>" into the builder, clearing it first
+     */
+    public static StringBuilder encode(StringBuilder builder, int channel, String message) {
+        builder.setLength(0);
+        return builder.append(channel).append(SEPARATOR).append(message);
+    }
+
+}
@@ -0,0 +1,166 @@
+package com.simperium.util;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Iterator;
+
+/**
+ * Reads JSON from a message with Gson's streaming JsonReader. Values are read straight into the
+ * org.json objects the rest of the library stores, numbers become the same Integer, Long or
+ * Double org.json would have parsed them as.
+ *
+ * The writers do the reverse, streaming org.json values to a JsonWriter without building their
+ * string form first. Numbers are written the way org.json writes them.
+ */
+public final class StreamingJSON {
+
+    private StreamingJSON() {
+        // static helpers only
+    }
+
+    /**
+     * A reader for the JSON that starts at offset in the message
+     */
+    public static JsonReader reader(String message, int offset)
+    throws IOException {
+        StringReader source = new StringReader(message);
+        // skipping a StringReader only moves its position
+        source.skip(offset);
+        return new JsonReader(source);
+    }
+
+    public static JSONObject readObject(JsonReader reader)
+    throws IOException, JSONException {
+        JSONObject object = new JSONObject();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            object.put(name, readValue(reader));
+        }
+        reader.endObject();
+        return object;
+    }
+
+    public static JSONArray readArray(JsonReader reader)
+    throws IOException, JSONException {
+        JSONArray array = new JSONArray();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            array.put(readValue(reader));
+        }
+        reader.endArray();
+        return array;
+    }
+
+    public static Object readValue(JsonReader reader)
+    throws IOException, JSONException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                return readObject(reader);
+            case BEGIN_ARRAY:
+                return readArray(reader);
+            case STRING:
+                return reader.nextString();
+            case NUMBER:
+                return parseNumber(reader.nextString());
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case NULL:
+                reader.nextNull();
+                return JSONObject.NULL;
+            default:
+                throw new JSONException(String.format("Unexpected %s", reader.peek()));
+        }
+    }
+
+    /**
+     * The string value of the next token, null for a JSON null
+     */
+    public static String nextStringOrNull(JsonReader reader)
+    throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    public static void writeObject(JsonWriter writer, JSONObject object)
+    throws IOException {
+        writer.beginObject();
+        Iterator<String> keys = object.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            writer.name(key);
+            writeValue(writer, object.opt(key));
+        }
+        writer.endObject();
+    }
+
+    public static void writeArray(JsonWriter writer, JSONArray array)
+    throws IOException {
+        writer.beginArray();
+        for (int i = 0; i < array.length(); i++) {
+            writeValue(writer, array.opt(i));
+        }
+        writer.endArray();
+    }
+
+    public static void writeValue(JsonWriter writer, Object value)
+    throws IOException {
+        if (value == null || value == JSONObject.NULL) {
+            writer.nullValue();
+        } else if (value instanceof JSONObject) {
+            writeObject(writer, (JSONObject) value);
+        } else if (value instanceof JSONArray) {
+            writeArray(writer, (JSONArray) value);
+        } else if (value instanceof Boolean) {
+            writer.value((Boolean) value);
+        } else if (value instanceof Number) {
+            writeNumber(writer, (Number) value);
+        } else {
+            writer.value(value.toString());
+        }
+    }
+
+    /**
+     * Writes the number the way org.json does, whole doubles without the fraction. JSON has no
+     * NaN or Infinity so those fail like they do when org.json serializes them.
+     */
+    static void writeNumber(JsonWriter writer, Number number)
+    throws IOException {
+        if ((number instanceof Double || number instanceof Float)
+                && (Double.isNaN(number.doubleValue()) || Double.isInfinite(number.doubleValue()))) {
+            throw new IOException(String.format("Non-finite number %s can't be written as JSON", number));
+        }
+        try {
+            writer.jsonValue(JSONObject.numberToString(number));
+        } catch (JSONException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    static Number parseNumber(String number) {
+        if (number.indexOf('.') == -1 && number.indexOf('e') == -1 && number.indexOf('E') == -1) {
+            try {
+                long value = Long.parseLong(number);
+                if (value <= Integer.MAX_VALUE && value >= Integer.MIN_VALUE) {
+                    return (int) value;
+                }
+                return value;
+            } catch (NumberFormatException e) {
+                // too large for a long
+            }
+        }
+        return Double.valueOf(number);
+    }
+
+}
@@ -0,0 +1,212 @@
+package com.simperium.android;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * In-process websocket server for testing and benchmarking transports. It answers the
+ * handshake, agrees to permessage-deflate when offered and compression is enabled, and hands
+ * every message to its handler.
+ *
+ * The default handler echoes messages back and answers heartbeats the way Simperium does.
+ */
+public class LocalWebSocketServer {
+
+    public static final String TAG = "Simperium.Test";
+
+    public interface Handler {
+        public void onMessage(Client client, String message);
+    }
+
+    static public final Handler ECHO = new Handler() {
+        @Override
+        public void onMessage(Client client, String message) {
+            if (message.startsWith(WebSocketManager.COMMAND_HEARTBEAT + ":")) {
+                int beat = Integer.parseInt(message.substring(2));
+                client.send(String.format(Locale.US, "%s:%d", WebSocketManager.COMMAND_HEARTBEAT, beat + 1));
+            } else {
+                client.send(message);
+            }
+        }
+    };
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    final private ServerSocket mServerSocket;
+    final private List<Client> mClients = Collections.synchronizedList(new ArrayList<Client>());
+    final public List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+    private volatile Handler mHandler = ECHO;
+    private volatile boolean mCompress = true;
+
+    public LocalWebSocketServer()
+    throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "simperium.test.server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void setHandler(Handler handler) {
+        mHandler = handler;
+    }
+
+    /**
+     * Agree to permessage-deflate when clients offer it
+     */
+    public void setCompression(boolean enabled) {
+        mCompress = enabled;
+    }
+
+    public String getUrl(String path) {
+        return String.format(Locale.US, "ws://127.0.0.1:%d%s", mServerSocket.getLocalPort(), path);
+    }
+
+    public List<Client> getClients() {
+        synchronized(mClients) {
+            return new ArrayList<>(mClients);
+        }
+    }
+
+    public void stop() {
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            // already closed
+        }
+        for (Client client : getClients()) {
+            client.disconnect();
+        }
+    }
+
+    private void accept() {
+        while (!mServerSocket.isClosed()) {
+            try {
+                final Socket socket = mServerSocket.accept();
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                }, "simperium.test.server.client");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        Client client = null;
+        try {
+            socket.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+
+            WebSocketHandshake.Message request = WebSocketHandshake.read(in);
+            String key = request.getHeader(WebSocketHandshake.HEADER_KEY);
+            String offer = request.getHeader(PerMessageDeflate.EXTENSIONS_HEADER);
+            boolean compress = mCompress && offer != null && offer.contains(PerMessageDeflate.EXTENSION);
+
+            StringBuilder response = new StringBuilder("HTTP/1.1 101 Switching Protocols\r\n");
+            response.append(WebSocketHandshake.HEADER_UPGRADE).append(": websocket\r\n");
+            response.append(WebSocketHandshake.HEADER_CONNECTION).append(": Upgrade\r\n");
+            response.append(WebSocketHandshake.HEADER_ACCEPT).append(": ").append(WebSocketHandshake.accept(key)).append("\r\n");
+            if (compress) {
+                response.append(PerMessageDeflate.EXTENSIONS_HEADER).append(": ").append(PerMessageDeflate.EXTENSION).append("\r\n");
+            }
+            response.append("\r\n");
+            out.write(response.toString().getBytes(ISO_8859_1));
+            out.flush();
+
+            PerMessageDeflate deflate = compress ?
+                new PerMessageDeflate(false, false, PerMessageDeflate.MIN_COMPRESS_SIZE, null) : null;
+            client = new Client(socket, new WebSocketFrameStream(in, out, false, deflate,
+                SocketWebSocketProvider.DEFAULT_READ_BUFFER_SIZE, SocketWebSocketProvider.DEFAULT_MAX_MESSAGE_SIZE),
+                request);
+            mClients.add(client);
+
+            String message;
+            while ((message = client.mStream.readMessage()) != null) {
+                messages.add(message);
+                mHandler.onMessage(client, message);
+            }
+        } catch (IOException e) {
+            Log.d(TAG, "Local websocket client disconnected: " + e);
+        } finally {
+            if (client != null) mClients.remove(client);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+    }
+
+    /**
+     * A connected client
+     */
+    public static class Client {
+
+        final private Socket mSocket;
+        final private WebSocketFrameStream mStream;
+        final public WebSocketHandshake.Message request;
+
+        Client(Socket socket, WebSocketFrameStream stream, WebSocketHandshake.Message request) {
+            mSocket = socket;
+            mStream = stream;
+            this.request = request;
+        }
+
+        public void send(String message) {
+            try {
+                mStream.sendText(message);
+                mStream.flush();
+            } catch (IOException e) {
+                Log.d(TAG, "Unable to send to local websocket client: " + e);
+            }
+        }
+
+        /**
+         * Close the websocket cleanly
+         */
+        public void close() {
+            try {
+                mStream.sendClose(WebSocketFrameStream.CLOSE_NORMAL);
+            } catch (IOException e) {
+                disconnect();
+            }
+        }
+
+        /**
+         * Drop the TCP connection without a close frame
+         */
+        public void disconnect() {
+            try {
+                mSocket.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+
+    }
+
+}
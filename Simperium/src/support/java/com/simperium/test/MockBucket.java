@@ -72,6 +72,15 @@ public class MockBucket<T extends Syncable> extends Bucket<T> {
      * Build a mock bucket with the given Executor, Schema and ChannelProvider
      */
     public static <T extends Syncable> MockBucket<T> buildBucket(Executor executor, BucketSchema<T> schema, ChannelProvider provider)
+    throws BucketNameInvalid {
+        return buildBucket(executor, schema, provider, ChannelProvider.DEFAULT_CONNECTION);
+    }
+
+    /**
+     * Build a mock bucket whose channel is on the named connection of the ChannelProvider
+     */
+    public static <T extends Syncable> MockBucket<T> buildBucket(Executor executor, BucketSchema<T> schema, ChannelProvider provider,
+        String connection)
     throws BucketNameInvalid {
         User user = MockUser.buildUser();
         BucketStore<T> store = new MockBucketStore<T>();
@@ -79,7 +88,7 @@ public class MockBucket<T extends Syncable> extends Bucket<T> {
 
         MockBucket<T> bucket = new MockBucket<T>(executor, schema.getRemoteName(), schema, user, store, ghosts);
 
-        Bucket.Channel channel = provider.buildChannel(bucket);
+        Bucket.Channel channel = provider.buildChannel(bucket, connection);
         bucket.setChannel(channel);
         bucket.start();
         return bucket;
@@ -22,6 +22,7 @@ public class MockBucketStore<T extends Syncable> implements StorageProvider.Buck
     static public final String TAG = "Simperium.Mocks";
 
     private Map<String, T> objects = Collections.synchronizedMap(new HashMap<String, T>(32));
+    public int transactionCount = 0;
 
     @Override
     public void prepare(Bucket<T> bucket){
@@ -36,6 +37,12 @@ public class MockBucketStore<T extends Syncable> implements StorageProvider.Buck
         objects.put(simperiumKey, object);
     }
 
+    @Override
+    public void transaction(Runnable runnable) {
+        transactionCount ++;
+        runnable.run();
+    }
+
     /**
      * Remove the given object from the storage
      */
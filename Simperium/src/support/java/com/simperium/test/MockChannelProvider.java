@@ -9,9 +9,16 @@ import java.util.List;
 public class MockChannelProvider implements ChannelProvider {
 
     public List<String> logs = new ArrayList<String>();
+    public String lastConnection;
 
     @Override
     public MockChannel buildChannel(Bucket bucket) {
+        return buildChannel(bucket, ChannelProvider.DEFAULT_CONNECTION);
+    }
+
+    @Override
+    public MockChannel buildChannel(Bucket bucket, String connection) {
+        lastConnection = connection;
         return new MockChannel(bucket);
     }
 
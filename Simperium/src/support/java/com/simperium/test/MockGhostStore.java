@@ -4,13 +4,16 @@ import com.simperium.client.Bucket;
 import com.simperium.client.Ghost;
 import com.simperium.client.GhostMissingException;
 import com.simperium.client.GhostStorageProvider;
+import com.simperium.client.IndexCheckpoint;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
 public class MockGhostStore implements GhostStorageProvider {
     private Map<String,Map<String,Ghost>> data = new HashMap<String,Map<String,Ghost>>();
     private Map<String,String> versions = new HashMap<String,String>();
+    private Map<String,IndexCheckpoint> checkpoints = new HashMap<String,IndexCheckpoint>();
     /**
      * Check if the store has a change version for the provided bucket
      */
@@ -43,6 +46,21 @@ public class MockGhostStore implements GhostStorageProvider {
         versions.put(bucket.getName(), version);
     }
 
+    @Override
+    public IndexCheckpoint getIndexCheckpoint(Bucket bucket){
+        return checkpoints.get(bucket.getName());
+    }
+
+    @Override
+    public void setIndexCheckpoint(Bucket bucket, IndexCheckpoint checkpoint){
+        checkpoints.put(bucket.getName(), checkpoint);
+    }
+
+    @Override
+    public void clearIndexCheckpoint(Bucket bucket){
+        checkpoints.remove(bucket.getName());
+    }
+
     /**
      * Checks if there is a ghost for given bucket and key
      */
@@ -75,6 +93,19 @@ public class MockGhostStore implements GhostStorageProvider {
         return ghost.getVersion();
     }
 
+    @Override
+    public Map<String,Integer> getGhostVersions(Bucket bucket, Collection<String> keys) {
+        Map<String,Ghost> ghosts = ghostsForBucket(bucket);
+        Map<String,Integer> versions = new HashMap<String,Integer>();
+        for (String key : keys) {
+            Ghost ghost = ghosts.get(key);
+            if (ghost != null) {
+                versions.put(key, ghost.getVersion());
+            }
+        }
+        return versions;
+    }
+
     /**
      * Saves the provided ghost to the bucket
      */
@@ -99,14 +130,15 @@ public class MockGhostStore implements GhostStorageProvider {
     @Override
     public void resetBucket(Bucket bucket){
         data.put(bucket.getName(), new HashMap<String,Ghost>());
+        checkpoints.remove(bucket.getName());
     }
     
     protected Map<String,Ghost> ghostsForBucket(Bucket bucket){
         String name = bucket.getName();
         Map<String,Ghost> ghosts = data.get(name);
         if (ghosts == null) {
-            resetBucket(bucket);
-            return ghostsForBucket(bucket);
+            ghosts = new HashMap<String,Ghost>();
+            data.put(name, ghosts);
         }
         return ghosts;
     }